@@ -21,6 +21,7 @@ public abstract class Arguments {
 		public static final String AFTER = "after";
 		public static final String VERBOSE = "verbose";
 		public static final String CHUNK = "chunk";
+		public static final String CONTENT_CHUNK = "content-chunk";
 
 		private DiffArguments() {
 			super("diff_args.properties");
@@ -30,6 +31,7 @@ public abstract class Arguments {
 			req("2", AFTER, true, "target file for comparison");
 			opt("v", VERBOSE, false, "be verbose during comparison");
 			opt("c", CHUNK, true, "chunk size when diffing");
+			opt("C", CONTENT_CHUNK, false, "choose chunk boundaries by content when diffing");
 		}
 	}
 	
@@ -6,6 +6,7 @@ import static org.badiff.cli.Arguments.DiffArguments.OUTPUT;
 import static org.badiff.cli.Arguments.DiffArguments.PIPELINE;
 import static org.badiff.cli.Arguments.DiffArguments.VERBOSE;
 import static org.badiff.cli.Arguments.DiffArguments.CHUNK;
+import static org.badiff.cli.Arguments.DiffArguments.CONTENT_CHUNK;
 
 import java.io.DataOutputStream;
 import java.io.File;
@@ -21,6 +22,7 @@ import org.badiff.imp.FileDiff;
 import org.badiff.io.DefaultSerialization;
 import org.badiff.io.FileRandomInput;
 import org.badiff.p.Pipeline;
+import org.badiff.q.ContentChunkingOpQueue;
 import org.badiff.q.OpQueue;
 import org.badiff.q.ParallelGraphOpQueue;
 import org.badiff.q.RandomChunkingOpQueue;
@@ -49,7 +51,10 @@ public class DiffMain {
 		FileDiff tmp = new FileDiff(output.getParentFile(), output.getName() + ".tmp");
 		
 		OpQueue q;
-		q = new RandomChunkingOpQueue(oin, tin, chunk);
+		if(cli.hasOption(CONTENT_CHUNK))
+			q = new ContentChunkingOpQueue(oin, tin, chunk);
+		else
+			q = new RandomChunkingOpQueue(oin, tin, chunk);
 		
 		q = new ParallelGraphOpQueue(q, Runtime.getRuntime().availableProcessors(), chunk, GraphFactory.INERTIAL_GRAPH);
 		
@@ -29,6 +29,8 @@
  */
 package org.badiff;
 
+import java.util.concurrent.ExecutorService;
+
 import org.badiff.imp.MemoryDiff;
 import org.badiff.io.DefaultSerialization;
 import org.badiff.q.OneWayOpQueue;
@@ -56,6 +58,20 @@ public class ByteArrayDiffs {
 		return Serials.serialize(DefaultSerialization.newInstance(), MemoryDiff.class, md);
 	}
 	
+	/**
+	 * Compute and return a diff between {@code orig} and {@code target}, graphing
+	 * on a shared {@link ExecutorService} instead of a new thread pool
+	 * @param orig
+	 * @param target
+	 * @param executor
+	 * @return
+	 */
+	public static byte[] diff(byte[] orig, byte[] target, ExecutorService executor) {
+		MemoryDiff md = new MemoryDiff();
+		md.store(Diffs.improved(Diffs.queue(orig, target), executor));
+		return Serials.serialize(DefaultSerialization.newInstance(), MemoryDiff.class, md);
+	}
+	
 	/**
 	 * Apply {@code diff} to {@code orig} and return the result
 	 * @param orig
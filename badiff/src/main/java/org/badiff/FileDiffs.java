@@ -34,10 +34,16 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import org.badiff.imp.FileDiff;
+import org.badiff.io.FileRandomInput;
 import org.badiff.io.RandomInputStream;
 import org.badiff.q.OneWayOpQueue;
+import org.badiff.q.PrefetchingChunkingOpQueue;
 import org.badiff.q.StreamChunkingOpQueue;
 import org.badiff.q.UndoOpQueue;
+import org.badiff.sig.IndexedOpQueue;
+import org.badiff.sig.OriginIndex;
+import org.badiff.sig.Signature;
+import org.badiff.sig.SignatureOpQueue;
 import org.badiff.util.Diffs;
 
 /**
@@ -58,15 +64,17 @@ public class FileDiffs {
 		InputStream oin = new FileInputStream(orig);
 		try {
 			InputStream tin = new FileInputStream(target);
+			PrefetchingChunkingOpQueue q = new PrefetchingChunkingOpQueue(oin, tin);
 			try {
-				fd.store(Diffs.improved(Diffs.queue(oin, tin)));
+				fd.store(Diffs.improved(q));
 			} finally {
+				q.close();
 				tin.close();
 			}
+			return fd;
 		} finally {
 			oin.close();
 		}
-		return fd;
 	}
 	
 	/**
@@ -87,12 +95,86 @@ public class FileDiffs {
 			} finally {
 				tin.close();
 			}
+			return fd;
+		} finally {
+			oin.close();
+		}
+	}
+	
+	/**
+	 * Compute and return the {@link Signature} of {@code orig}, from which diffs
+	 * can be computed by {@link #diff(Signature, File)}
+	 * @param orig
+	 * @return
+	 */
+	public static Signature signature(File orig) throws IOException {
+		InputStream oin = new FileInputStream(orig);
+		try {
+			return new Signature(oin);
 		} finally {
 			oin.close();
 		}
+	}
+	
+	/**
+	 * Compute and return a diff to {@code target} from the original whose {@link Signature}
+	 * is {@code signature}.  The diff may need a random-access original to apply.
+	 * @param signature
+	 * @param target
+	 * @return
+	 */
+	public static FileDiff diff(Signature signature, File target) throws IOException {
+		FileDiff fd = new FileDiff(File.createTempFile(target.getName(), ".diff"));
+		InputStream tin = new FileInputStream(target);
+		try {
+			fd.store(new SignatureOpQueue(tin, signature));
+		} finally {
+			tin.close();
+		}
 		return fd;
 	}
 	
+	/**
+	 * Compute and return the {@link OriginIndex} of {@code orig}, which can be reused
+	 * by {@link #diff(OriginIndex, File, File)} for every diff against {@code orig}
+	 * @param orig
+	 * @return
+	 */
+	public static OriginIndex index(File orig) throws IOException {
+		FileRandomInput oin = new FileRandomInput(orig);
+		try {
+			return new OriginIndex(oin);
+		} finally {
+			oin.close();
+		}
+	}
+	
+	/**
+	 * Compute and return a diff between {@code orig} and {@code target}, using
+	 * the previously computed {@link OriginIndex} of {@code orig}.  Throws
+	 * {@link IllegalArgumentException} if {@code orig} has changed since it was indexed.
+	 * @param index
+	 * @param orig
+	 * @param target
+	 * @return
+	 */
+	public static FileDiff diff(OriginIndex index, File orig, File target) throws IOException {
+		FileRandomInput oin = new FileRandomInput(orig);
+		try {
+			index.verify(oin);
+			FileDiff fd = new FileDiff(File.createTempFile(orig.getName(), ".diff"));
+			FileRandomInput tin = new FileRandomInput(target);
+			try {
+				fd.store(Diffs.improved(new IndexedOpQueue(index, oin, tin)));
+			} finally {
+				tin.close();
+			}
+			return fd;
+		} finally {
+			oin.close();
+		}
+	}
+	
 	/**
 	 * Apply {@code diff} to {@code orig} and return the result
 	 * @param orig
@@ -116,15 +198,17 @@ public class FileDiffs {
 		InputStream oin = new FileInputStream(orig);
 		try {
 			InputStream tin = new FileInputStream(target);
+			PrefetchingChunkingOpQueue q = new PrefetchingChunkingOpQueue(oin, tin);
 			try {
-				fd.store(new OneWayOpQueue(Diffs.improved(Diffs.queue(oin, tin))));
+				fd.store(new OneWayOpQueue(Diffs.improved(q)));
 			} finally {
+				q.close();
 				tin.close();
 			}
+			return fd;
 		} finally {
 			oin.close();
 		}
-		return fd;
 	}
 	
 	/**
@@ -32,7 +32,10 @@ package org.badiff;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
+import org.badiff.io.HistoryOutputStream;
 import org.badiff.io.Serialization;
 import org.badiff.io.Serialized;
 import org.badiff.util.Streams;
@@ -61,6 +64,13 @@ public class Op implements Applyable, Serialized {
 	 * Copy some bytes
 	 */
 	public static final byte NEXT = 0x3;
+	/**
+	 * Copy some bytes from earlier in the target, see {@link #copy(int, int, byte[], int)}.
+	 * Serialized as a {@link #NEXT} with the data flag set, which a {@link #NEXT} never has.
+	 * Readers that predate {@link #COPY} ignore the flag and misread the stream after it, so
+	 * {@link org.badiff.imp.BadiffFileDiff} marks diffs with copies as a newer format version.
+	 */
+	public static final byte COPY = 0x4;
 	
 	/**
 	 * The operation
@@ -71,9 +81,21 @@ public class Op implements Applyable, Serialized {
 	 */
 	private int run;
 	/**
-	 * The data for the operation
+	 * The data for the operation, or the array holding it if {@link #slice}
 	 */
 	private byte[] data;
+	/**
+	 * The offset of the data in {@link #data}
+	 */
+	private int offset;
+	/**
+	 * Whether the data is only the {@link #run} bytes of {@link #data} starting at {@link #offset}
+	 */
+	private boolean slice;
+	/**
+	 * How far before the end of the target a {@link #COPY} starts
+	 */
+	private int distance;
 	
 	/*
 	 * Required for deserialization
@@ -97,6 +119,44 @@ public class Op implements Applyable, Serialized {
 		this.run = run;
 		this.data = data;
 	}
+	
+	/**
+	 * Create a new {@link Op} whose data is the {@code run} bytes of {@code data} starting
+	 * at {@code offset}.  The array is shared, not copied; it is copied only if
+	 * {@link #getData()} is called or the {@link Op} is serialized.
+	 * @param op
+	 * @param run
+	 * @param data
+	 * @param offset
+	 */
+	public Op(byte op, int run, byte[] data, int offset) {
+		this(op, run, data);
+		if(data == null || run < 1 || offset < 0 || offset > data.length - run)
+			throw new IllegalArgumentException("invalid slice");
+		this.offset = offset;
+		this.slice = offset != 0 || run != data.length;
+	}
+	
+	/**
+	 * Create a {@link #COPY} of the {@code run} bytes of the target starting {@code distance}
+	 * bytes before the end of what has been written so far.  Applying it requires a
+	 * {@link HistoryOutputStream} target.  Like a {@link #DELETE}, it may keep the bytes it copies
+	 * as its data, the {@code run} bytes of {@code data} starting at {@code offset}, so that
+	 * it can be undone; {@code data} may be {@code null}.
+	 * @param distance
+	 * @param run
+	 * @param data
+	 * @param offset
+	 * @return
+	 */
+	public static Op copy(int distance, int run, byte[] data, int offset) {
+		if(distance < 1)
+			throw new IllegalArgumentException("invalid distance");
+		Op e = (data == null) ? new Op(NEXT, run, null) : new Op(INSERT, run, data, offset);
+		e.op = COPY;
+		e.distance = distance;
+		return e;
+	}
 
 	@Override
 	public String toString() {
@@ -105,6 +165,7 @@ public class Op implements Applyable, Serialized {
 		case DELETE: return "-" + run;
 		case INSERT: return "+" + run;
 		case NEXT: return ">" + run;
+		case COPY: return "<" + run + "@" + distance;
 		}
 		return "?";
 	}
@@ -119,13 +180,18 @@ public class Op implements Applyable, Serialized {
 			Streams.copy(orig, target, run);
 			break;
 		case INSERT:
-			target.write(data, 0, run);
+			target.write(data, offset, run);
+			break;
+		case COPY:
+			if(!(target instanceof HistoryOutputStream))
+				throw new IOException("copying from the target requires a " + HistoryOutputStream.class.getSimpleName());
+			((HistoryOutputStream) target).copy(distance, run);
 			break;
 		}
 	}
 
 	/**
-	 * Returns the operation, one of {@link #STOP}, {@link #DELETE}, {@link #INSERT}, or {@link #NEXT}
+	 * Returns the operation, one of {@link #STOP}, {@link #DELETE}, {@link #INSERT}, {@link #NEXT} or {@link #COPY}
 	 * @return
 	 */
 	public byte getOp() {
@@ -141,21 +207,78 @@ public class Op implements Applyable, Serialized {
 	}
 	
 	/**
-	 * Return the data for this operation.  Only {@link #INSERT} and {@link #DELETE} have data.
-	 * Only {@link #INSERT} is guaranteed to have data; {@link #DELETE} may have {@code null}. 
+	 * Return how far before the end of the target a {@link #COPY} starts, or 0 for other operations
+	 * @return
+	 */
+	public int getDistance() {
+		return distance;
+	}
+	
+	/**
+	 * Return the data for this operation.  Only {@link #INSERT}, {@link #DELETE} and {@link #COPY} have data.
+	 * Only {@link #INSERT} is guaranteed to have data; {@link #DELETE} and {@link #COPY} may have {@code null}. 
 	 * @return
 	 */
 	public byte[] getData() {
+		if(slice) {
+			data = Arrays.copyOfRange(data, offset, offset + run);
+			offset = 0;
+			slice = false;
+		}
 		return data;
 	}
+	
+	/**
+	 * Return the array holding the data for this operation without copying it.
+	 * The data starts at {@link #getDataOffset()} and is {@link #getDataLength()} bytes long.
+	 * @return
+	 */
+	public byte[] getDataArray() {
+		return data;
+	}
+	
+	/**
+	 * Return the offset of the data in {@link #getDataArray()}
+	 * @return
+	 */
+	public int getDataOffset() {
+		return offset;
+	}
+	
+	/**
+	 * Return the length of the data, or {@code -1} if there is no data
+	 * @return
+	 */
+	public int getDataLength() {
+		if(data == null)
+			return -1;
+		return slice ? run : data.length;
+	}
+	
+	/**
+	 * Return a read-only view of the data for this operation, or {@code null} if there is no data
+	 * @return
+	 */
+	public ByteBuffer getDataBuffer() {
+		if(data == null)
+			return null;
+		return ByteBuffer.wrap(data, offset, getDataLength()).slice().asReadOnlyBuffer();
+	}
 
 	@Override
 	public void serialize(Serialization serial, OutputStream out)
 			throws IOException {
+		if(op == COPY) {
+			serial.writeObject(out, Long.class, NEXT | 0x4 | (((long) run) << 3));
+			serial.writeObject(out, Long.class, (((long) distance) << 1) | (data != null ? 1 : 0));
+			if(data != null)
+				serial.writeObject(out, byte[].class, getData());
+			return;
+		}
 		long oprun = op | (data != null ? 0x4 : 0) | (((long) run) << 3);
 		serial.writeObject(out, Long.class, oprun);
 		if((op == INSERT || op == DELETE) && data != null)
-			serial.writeObject(out, byte[].class, data);
+			serial.writeObject(out, byte[].class, getData());
 	}
 
 	@Override
@@ -167,5 +290,12 @@ public class Op implements Applyable, Serialized {
 		run = (int)(oprun >>> 3);
 		if((op == INSERT || op == DELETE) && hasData)
 			data = serial.readObject(in, byte[].class);
+		if(op == NEXT && hasData) {
+			op = COPY;
+			long dist = serial.readObject(in, Long.class);
+			distance = (int)(dist >>> 1);
+			if((dist & 1) != 0)
+				data = serial.readObject(in, byte[].class);
+		}
 	}
 }
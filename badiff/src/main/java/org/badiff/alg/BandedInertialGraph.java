@@ -0,0 +1,240 @@
+/**
+ * badiff - byte array diff - fast pure-java byte-level diffing
+ * 
+ * Copyright (c) 2013, Robin Kirkman All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ * 2) Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 3) Neither the name of the badiff nor the names of its contributors may be 
+ *    used to endorse or promote products derived from this software without 
+ *    specific prior written permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.badiff.alg;
+
+import org.badiff.Diff;
+import org.badiff.Op;
+
+/**
+ * {@link InertialGraph} that computes only the nodes within a band of diagonals around
+ * the main diagonal, rather than every node of the graph.  When the original and target
+ * differ by only a few edits this turns O(n^2) work into O(n*k) for a band of width k.<p>
+ * 
+ * The transition costs are the same as for {@link InertialGraph}, and so is the cost of the
+ * result.  Any path that leaves the band must contain at least {@code 2*(k+1)+|n-m|}
+ * {@link Op#DELETE}/{@link Op#INSERT} steps, which puts a lower bound on its cost.  If the
+ * cheapest path inside the band is no more expensive than that bound, it is the cheapest path
+ * overall.  Otherwise the band is doubled and the graph recomputed, falling back to the full
+ * graph once the band would cover it.
+ * @author robin
+ *
+ */
+public class BandedInertialGraph extends InertialGraph {
+	/**
+	 * The default initial half-width of the band
+	 */
+	public static final int DEFAULT_BAND = 16;
+	
+	/**
+	 * The initial half-width of the band
+	 */
+	protected int band;
+	/**
+	 * The lowest diagonal ({@code x - y}) in the band of the last computation
+	 */
+	protected int lo;
+	/**
+	 * The number of diagonals in the band of the last computation
+	 */
+	protected int width;
+	/**
+	 * Whether the last computation was banded, rather than the full graph
+	 */
+	protected boolean banded;
+
+	public BandedInertialGraph() {
+		this((1 + Diff.DEFAULT_CHUNK) * (1 + Diff.DEFAULT_CHUNK));
+	}
+	
+	/**
+	 * Create a new {@link BandedInertialGraph} with the given buffer capacity
+	 * @param capacity
+	 */
+	public BandedInertialGraph(int capacity) {
+		this(capacity, DEFAULT_BAND);
+	}
+	
+	/**
+	 * Create a new {@link BandedInertialGraph} with the given buffer capacity and initial band half-width
+	 * @param capacity
+	 * @param band
+	 */
+	public BandedInertialGraph(int capacity, int band) {
+		super(capacity);
+		if(band < 1)
+			throw new IllegalArgumentException("band must be >= 1");
+		this.band = band;
+	}
+	
+	@Override
+	public void compute(byte[] orig, byte[] target) {
+		if((orig.length + 1) * (target.length + 1) > capacity)
+			throw new IllegalArgumentException("diff axes exceed graph capacity");
+
+		xval = new byte[orig.length + 1]; System.arraycopy(orig, 0, xval, 1, orig.length);
+		yval = new byte[target.length + 1]; System.arraycopy(target, 0, yval, 1, target.length);
+
+		int d = orig.length - target.length;
+		
+		/*
+		 * Every step of a path is charged at least the cheapest transition out of its operation,
+		 * and a path with s DELETE/INSERT steps has (n+m-s)/2 NEXT steps.  So twice the cost of
+		 * any path leaving the band is at least nstep*(n+m) + (2*estep-nstep)*(2*(k+1)+|d|).
+		 */
+		int nstep = Integer.MAX_VALUE;
+		int estep = Integer.MAX_VALUE;
+		for(byte to = Op.STOP; to <= Op.NEXT; to++) {
+			nstep = Math.min(nstep, cost(Op.NEXT, to));
+			estep = Math.min(estep, Math.min(cost(Op.DELETE, to), cost(Op.INSERT, to)));
+		}
+		long base = (long) nstep * (orig.length + target.length);
+		int slope = 2 * estep - nstep;
+		
+		for(int k = band; ; k *= 2) {
+			lo = Math.min(0, d) - k;
+			int hi = Math.max(0, d) + k;
+			width = hi - lo + 1;
+			if(width >= xval.length || nstep < 0 || slope <= 0) {
+				banded = false;
+				super.compute(orig, target);
+				return;
+			}
+			
+			banded = true;
+			long c = computeBand();
+			if(2 * c <= base + (long) slope * (2 * (k + 1) + Math.abs(d)))
+				return;
+		}
+	}
+	
+	/**
+	 * Compute the nodes within the current band, returning the cost of the cheapest path
+	 * @return
+	 */
+	protected int computeBand() {
+		int cdd, cdi, cdn, cid, cii, cin, cnd, cni, cnn;
+		cdd = cost(Op.DELETE, Op.DELETE);
+		cdi = cost(Op.DELETE, Op.INSERT);
+		cdn = cost(Op.DELETE, Op.NEXT);
+		cid = cost(Op.INSERT, Op.DELETE);
+		cii = cost(Op.INSERT, Op.INSERT);
+		cin = cost(Op.INSERT, Op.NEXT);
+		cnd = cost(Op.NEXT, Op.DELETE);
+		cni = cost(Op.NEXT, Op.INSERT);
+		cnn = cost(Op.NEXT, Op.NEXT);
+		
+		int xmax = xval.length - 1;
+		int hi = lo + width - 1;
+		
+		for(int y = 0; y < yval.length; y++) {
+			int xstart = Math.max(0, y + lo);
+			int xend = Math.min(xmax, y + hi);
+			int row = y * width - y - lo;
+			for(int x = xstart; x <= xend; x++) {
+				int pos = (row + x) * NUM_FIELDS;
+				
+				// mark entry costs; nodes outside the band are unreachable
+				int edc, eic, enc;
+				if(x == 0 && y == 0) {
+					edc = 0;
+					eic = 0;
+					enc = 0;
+				} else {
+					edc = (x > 0 && x - 1 - y >= lo) ? cost[pos - NUM_FIELDS + DELETE] : Short.MAX_VALUE;
+					eic = (y > 0 && x - y + 1 <= hi) ? cost[pos - (width - 1) * NUM_FIELDS + INSERT] : Short.MAX_VALUE;
+					enc = (x > 0 && y > 0 && xval[x] == yval[y]) ? cost[pos - width * NUM_FIELDS + NEXT] : Short.MAX_VALUE;
+				}
+				
+				int cost;
+
+				// compute delete cost
+				cost = edc + cdd;
+				cost = Math.min(cost, eic + cid);
+				cost = Math.min(cost, enc + cnd);
+				this.cost[pos + DELETE] = (short) Math.min(cost, Short.MAX_VALUE);
+
+				// compute insert cost
+				cost = eic + cii;
+				cost = Math.min(cost, edc + cdi);
+				cost = Math.min(cost, enc + cni);
+				this.cost[pos + INSERT] = (short) Math.min(cost, Short.MAX_VALUE);
+
+				// compute next cost
+				cost = enc + cnn;
+				cost = Math.min(cost, edc + cdn);
+				cost = Math.min(cost, eic + cin);
+				this.cost[pos + NEXT] = (short) Math.min(cost, Short.MAX_VALUE);
+			}
+		}
+		
+		// the cost of the cheapest path, as the traceback will find it
+		int x = xmax;
+		int y = yval.length - 1;
+		if(x == 0 && y == 0)
+			return 0;
+		int c = Integer.MAX_VALUE;
+		if(x > 0 && y > 0 && xval[x] == yval[y])
+			c = Math.min(c, cost[index(x-1, y-1, NEXT)] + cost(Op.NEXT, Op.STOP));
+		int f;
+		if(y > 0 && (f = index(x, y-1, INSERT)) >= 0)
+			c = Math.min(c, cost[f] + cost(Op.INSERT, Op.STOP));
+		if(x > 0 && (f = index(x-1, y, DELETE)) >= 0)
+			c = Math.min(c, cost[f] + cost(Op.DELETE, Op.STOP));
+		return c;
+	}
+	
+	@Override
+	protected int index(int x, int y, int field) {
+		if(!banded)
+			return super.index(x, y, field);
+		int k = x - y - lo;
+		if(k < 0 || k >= width)
+			return -1;
+		return (y * width + k) * NUM_FIELDS + field;
+	}
+	
+	/**
+	 * Returns the initial half-width of the band
+	 * @return
+	 */
+	public int getBand() {
+		return band;
+	}
+	
+	/**
+	 * Sets the initial half-width of the band
+	 * @param band
+	 */
+	public void setBand(int band) {
+		if(band < 1)
+			throw new IllegalArgumentException("band must be >= 1");
+		this.band = band;
+	}
+}
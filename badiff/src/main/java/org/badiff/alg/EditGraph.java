@@ -134,13 +134,8 @@ public class EditGraph implements Graph {
 			byte fop = flags[pos];
 			if(op != Op.STOP && op != fop) {
 				byte[] data = null;
-				if(op == Op.INSERT || op == Op.DELETE) {
-					byte[] rdata = buf.toByteArray();
-					data = new byte[rdata.length];
-					for(int i = 0; i < rdata.length; i++) {
-						data[data.length - i - 1] = rdata[i];
-					}
-				}
+				if(op == Op.INSERT || op == Op.DELETE)
+					data = reversed(buf.toByteArray());
 				ret.add(new Op(op, run, data));
 				run = 0;
 				buf.reset();
@@ -161,16 +156,25 @@ public class EditGraph implements Graph {
 		
 		if(op != Op.STOP) {
 			byte[] data = null;
-			if(op == Op.INSERT || op == Op.DELETE) {
-				byte[] rdata = buf.toByteArray();
-				data = new byte[rdata.length];
-				for(int i = 0; i < rdata.length; i++) {
-					data[data.length - i - 1] = rdata[i];
-				}
-			}
+			if(op == Op.INSERT || op == Op.DELETE)
+				data = reversed(buf.toByteArray());
 			ret.add(new Op(op, run, data));
 		}
 		
 		return ret;
 	}
+	
+	/**
+	 * Reverse an array in place, returning it
+	 * @param data
+	 * @return
+	 */
+	private static byte[] reversed(byte[] data) {
+		for(int i = 0, j = data.length - 1; i < j; i++, j--) {
+			byte b = data[i];
+			data[i] = data[j];
+			data[j] = b;
+		}
+		return data;
+	}
 }
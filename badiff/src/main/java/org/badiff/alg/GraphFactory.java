@@ -20,6 +20,39 @@ public interface GraphFactory {
 			return new AdjustableInertialGraph(capacity);
 		}
 	};
+	public static final GraphFactory PACKED_INERTIAL_GRAPH = new GraphFactory() {
+		@Override
+		public Graph newGraph(int capacity) {
+			return new PackedInertialGraph(capacity);
+		}
+	};
+	public static final GraphFactory BANDED_INERTIAL_GRAPH = new GraphFactory() {
+		@Override
+		public Graph newGraph(int capacity) {
+			return new BandedInertialGraph(capacity);
+		}
+	};
+	public static final GraphFactory PARALLEL_INERTIAL_GRAPH = new GraphFactory() {
+		@Override
+		public Graph newGraph(int capacity) {
+			return new ParallelInertialGraph(capacity);
+		}
+	};
+	public static final GraphFactory MYERS_GRAPH = new GraphFactory() {
+		@Override
+		public Graph newGraph(int capacity) {
+			return new MyersGraph(capacity);
+		}
+	};
+	/**
+	 * Ignores the capacity, since {@link SuffixArrayGraph} diffs whole inputs
+	 */
+	public static final GraphFactory SUFFIX_ARRAY_GRAPH = new GraphFactory() {
+		@Override
+		public Graph newGraph(int capacity) {
+			return new SuffixArrayGraph();
+		}
+	};
 
 	public Graph newGraph(int capacity);
 }
\ No newline at end of file
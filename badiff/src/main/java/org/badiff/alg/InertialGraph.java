@@ -30,11 +30,11 @@
 package org.badiff.alg;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.badiff.Diff;
 import org.badiff.Op;
-import org.badiff.q.CompactingOpQueue;
 import org.badiff.q.ListOpQueue;
 import org.badiff.q.OpQueue;
 
@@ -70,10 +70,10 @@ public class InertialGraph implements Graph {
 	 * 
 	 * Each operation requires 1 byte for the operation itself, plus 1 (or more)
 	 * bytes for the run length.  Additionally, INSERT has 1 byte for each byte in the run.
-	 * 
+	 * {@link PackedInertialGraph} uses the same costs.
 	 */
 
-	private static final int[][] DEFAULT_TRANSITION_COSTS = new int[][] {
+	static final int[][] DEFAULT_TRANSITION_COSTS = new int[][] {
 			{1,	1,	1,	1}, // From STOP to...
 			{3,	1,	3,	4}, // From DELETE to...
 			{2,	2,	1,	3}, // From INSERT to...
@@ -205,79 +205,90 @@ public class InertialGraph implements Graph {
 
 	@Override
 	public OpQueue queue() {
-		OpQueue rq = new GraphOpQueue();
-		List<Op> ops = new ArrayList<Op>();
-		for(Op e = rq.poll(); e != null; e = rq.poll())
-			ops.add(0, e);
-		OpQueue q = new ListOpQueue(ops);
-		q = new CompactingOpQueue(q);
-		return q;
-	}
-
-	protected class GraphOpQueue extends OpQueue {
-		protected int pos;
-		protected byte prev = Op.STOP;
-		protected int x;
-		protected int y;
-
-		public GraphOpQueue() {
-			pos = xval.length * yval.length - 1;
-			x = xval.length-1;
-			y = yval.length-1;
-		}
-
-		@Override
-		protected boolean pull() {
-			if(pos == 0)
-				return false;
-
-			byte op = -1;
-			int cost = Integer.MAX_VALUE;
-			if(x > 0 && y > 0 && xval[x] == yval[y]) {
-				op = Op.NEXT;
-				cost = InertialGraph.this.cost[(pos-1-xval.length)*NUM_FIELDS+NEXT] + cost(Op.NEXT, prev);
-			}
-			
-			if(y > 0 && InertialGraph.this.cost[(pos-xval.length)*NUM_FIELDS+INSERT] + cost(Op.INSERT, prev) < cost) {
-				op = Op.INSERT;
-				cost = InertialGraph.this.cost[(pos-xval.length)*NUM_FIELDS + INSERT] + cost(Op.INSERT, prev);
-			}
-
-			if(x > 0 && InertialGraph.this.cost[(pos-1)*NUM_FIELDS+DELETE] + cost(Op.DELETE, prev) < cost) {
-				op = Op.DELETE;
-				cost = InertialGraph.this.cost[(pos-1)*NUM_FIELDS+DELETE] + cost(Op.DELETE, prev);
-			}
-
-			Op e = null;
-
-			switch(op) {
-			case Op.NEXT:
-				e = new Op(Op.NEXT, 1, null);
-				pos = pos - 1 - xval.length;
+		// walk the path backwards, recording the op of each edge
+		byte[] path = new byte[xval.length + yval.length];
+		int plen = 0;
+		byte prev = Op.STOP;
+		for(int x = xval.length - 1, y = yval.length - 1; x > 0 || y > 0;) {
+			prev = predecessor(x, y, prev);
+			path[plen++] = prev;
+			if(prev != Op.INSERT)
 				x--;
+			if(prev != Op.DELETE)
 				y--;
+		}
+		
+		// emit the path forwards as runs
+		List<Op> ops = new ArrayList<Op>();
+		int x = 1;
+		int y = 1;
+		for(int i = plen - 1; i >= 0;) {
+			byte op = path[i];
+			int run = 0;
+			for(; i >= 0 && path[i] == op; i--)
+				run++;
+			switch(op) {
+			case Op.DELETE:
+				ops.add(new Op(Op.DELETE, run, Arrays.copyOfRange(xval, x, x + run)));
+				x += run;
 				break;
 			case Op.INSERT:
-				e = new Op(Op.INSERT, 1, new byte[] {yval[y]});
-				pos = pos - xval.length;
-				y--;
+				ops.add(new Op(Op.INSERT, run, Arrays.copyOfRange(yval, y, y + run)));
+				y += run;
 				break;
-			case Op.DELETE:
-				e = new Op(Op.DELETE, 1, new byte[] {xval[x]});
-				pos = pos - 1;
-				x--;
+			case Op.NEXT:
+				ops.add(new Op(Op.NEXT, run, null));
+				x += run;
+				y += run;
 				break;
 			}
-			
-			if(e == null)
-				throw new IllegalStateException();
+		}
+		return new ListOpQueue(ops);
+	}
 
-			prepare(e);
-			
-			prev = e.getOp();
+	/**
+	 * Returns the index into {@link #cost} of {@code field} for the node at ({@code x},{@code y}),
+	 * or {@code -1} if that node was not computed
+	 * @param x
+	 * @param y
+	 * @param field
+	 * @return
+	 */
+	protected int index(int x, int y, int field) {
+		return (y * xval.length + x) * NUM_FIELDS + field;
+	}
+
+	/**
+	 * Returns the {@link Op} of the cheapest edge into the node at ({@code x},{@code y}),
+	 * given that the path leaves that node by {@code next}
+	 * @param x
+	 * @param y
+	 * @param next
+	 * @return
+	 */
+	protected byte predecessor(int x, int y, byte next) {
+		byte op = -1;
+		int cost = Integer.MAX_VALUE;
+		int f;
+		if(x > 0 && y > 0 && xval[x] == yval[y] && (f = index(x-1, y-1, NEXT)) >= 0) {
+			op = Op.NEXT;
+			cost = this.cost[f] + cost(Op.NEXT, next);
+		}
+
+		if(y > 0 && (f = index(x, y-1, INSERT)) >= 0 && this.cost[f] + cost(Op.INSERT, next) < cost) {
+			op = Op.INSERT;
+			cost = this.cost[f] + cost(Op.INSERT, next);
+		}
 
-			return true;
+		if(x > 0 && (f = index(x-1, y, DELETE)) >= 0 && this.cost[f] + cost(Op.DELETE, next) < cost) {
+			op = Op.DELETE;
+			cost = this.cost[f] + cost(Op.DELETE, next);
 		}
+
+		if(op == -1)
+			throw new IllegalStateException();
+		
+		return op;
 	}
 
 }
@@ -0,0 +1,271 @@
+/**
+ * badiff - byte array diff - fast pure-java byte-level diffing
+ * 
+ * Copyright (c) 2013, Robin Kirkman All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ * 2) Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 3) Neither the name of the badiff nor the names of its contributors may be 
+ *    used to endorse or promote products derived from this software without 
+ *    specific prior written permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.badiff.alg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.badiff.Op;
+import org.badiff.q.ListOpQueue;
+import org.badiff.q.OpQueue;
+
+/**
+ * {@link Graph} implementing Myers' O(ND) greedy diagonal search with the linear-space
+ * divide-and-conquer refinement described in "An O(ND) Difference Algorithm and Its
+ * Variations".  Rather than filling an (n+1)*(m+1) matrix like {@link EditGraph}, it
+ * repeatedly locates the "middle snake" of the optimal path and recurses on either side
+ * of it, so time grows with the edit distance D and memory with n+m.<p>
+ * 
+ * The result is a shortest edit script, the same length as the one computed by
+ * {@link EditGraph}, which makes {@link MyersGraph} well suited to large chunks of
+ * nearly-identical input.  It does not use the serialization-cost weights of
+ * {@link InertialGraph}.
+ * @author robin
+ *
+ */
+public class MyersGraph implements Graph {
+	/**
+	 * The original byte sequence
+	 */
+	protected byte[] xval;
+	/**
+	 * The target byte sequence
+	 */
+	protected byte[] yval;
+	/**
+	 * Forward furthest-reaching x for each diagonal
+	 */
+	protected int[] vf = new int[0];
+	/**
+	 * Reverse furthest-reaching x for each diagonal
+	 */
+	protected int[] vb = new int[0];
+	/**
+	 * The computed edit script, as (op, start, run) triples in forward order
+	 */
+	protected int[] script = new int[0];
+	/**
+	 * The number of ints used in {@link #script}
+	 */
+	protected int scriptLength;
+	
+	/**
+	 * Create a new {@link MyersGraph}
+	 */
+	public MyersGraph() {
+	}
+	
+	/**
+	 * Create a new {@link MyersGraph}.  The capacity is accepted for compatibility with
+	 * {@link GraphFactory} but is not used, since memory use is linear in the input size.
+	 * @param capacity
+	 */
+	public MyersGraph(int capacity) {
+		this();
+	}
+	
+	@Override
+	public void compute(byte[] orig, byte[] target) {
+		xval = orig;
+		yval = target;
+		scriptLength = 0;
+		
+		int max = (orig.length + target.length + 1) / 2 + 1;
+		if(vf.length < 2 * max) {
+			vf = new int[2 * max];
+			vb = new int[2 * max];
+		}
+		
+		compare(0, orig.length, 0, target.length);
+	}
+	
+	/**
+	 * Compute the shortest edit script between {@code xval[x0..x1)} and {@code yval[y0..y1)}
+	 * @param x0
+	 * @param x1
+	 * @param y0
+	 * @param y1
+	 */
+	protected void compare(int x0, int x1, int y0, int y1) {
+		// strip the common prefix
+		int start = x0;
+		while(x0 < x1 && y0 < y1 && xval[x0] == yval[y0]) {
+			x0++;
+			y0++;
+		}
+		emit(Op.NEXT, start, x0 - start);
+		
+		// strip the common suffix
+		int end = x1;
+		while(x1 > x0 && y1 > y0 && xval[x1 - 1] == yval[y1 - 1]) {
+			x1--;
+			y1--;
+		}
+		
+		if(x0 == x1)
+			emit(Op.INSERT, y0, y1 - y0);
+		else if(y0 == y1)
+			emit(Op.DELETE, x0, x1 - x0);
+		else {
+			long snake = middleSnake(x0, x1, y0, y1);
+			int xmid = (int)(snake >>> 32);
+			int ymid = (int) snake;
+			compare(x0, xmid, y0, ymid);
+			compare(xmid, x1, ymid, y1);
+		}
+		
+		emit(Op.NEXT, x1, end - x1);
+	}
+	
+	/**
+	 * Find the point at which the forward and reverse searches for the shortest
+	 * path between {@code (x0,y0)} and {@code (x1,y1)} overlap.  Both ranges must be non-empty.
+	 * @param x0
+	 * @param x1
+	 * @param y0
+	 * @param y1
+	 * @return The split point, as {@code (x << 32) | y}
+	 */
+	protected long middleSnake(int x0, int x1, int y0, int y1) {
+		int n = x1 - x0;
+		int m = y1 - y0;
+		int max = (n + m + 1) / 2;
+		int offset = max;
+		int vlength = 2 * max;
+		
+		Arrays.fill(vf, 0, vlength, -1);
+		Arrays.fill(vb, 0, vlength, -1);
+		vf[offset + 1] = 0;
+		vb[offset + 1] = 0;
+		
+		int delta = n - m;
+		boolean front = (delta & 1) != 0;
+		
+		int kfstart = 0, kfend = 0, kbstart = 0, kbend = 0;
+		
+		for(int d = 0; d < max; d++) {
+			// forward search
+			for(int k = -d + kfstart; k <= d - kfend; k += 2) {
+				int ko = offset + k;
+				int x;
+				if(k == -d || (k != d && vf[ko - 1] < vf[ko + 1]))
+					x = vf[ko + 1];
+				else
+					x = vf[ko - 1] + 1;
+				int y = x - k;
+				while(x < n && y < m && xval[x0 + x] == yval[y0 + y]) {
+					x++;
+					y++;
+				}
+				vf[ko] = x;
+				if(x > n)
+					kfend += 2;
+				else if(y > m)
+					kfstart += 2;
+				else if(front) {
+					int bo = offset + delta - k;
+					if(bo >= 0 && bo < vlength && vb[bo] != -1 && x >= n - vb[bo])
+						return (((long)(x0 + x)) << 32) | (y0 + y);
+				}
+			}
+			
+			// reverse search
+			for(int k = -d + kbstart; k <= d - kbend; k += 2) {
+				int ko = offset + k;
+				int x;
+				if(k == -d || (k != d && vb[ko - 1] < vb[ko + 1]))
+					x = vb[ko + 1];
+				else
+					x = vb[ko - 1] + 1;
+				int y = x - k;
+				while(x < n && y < m && xval[x1 - x - 1] == yval[y1 - y - 1]) {
+					x++;
+					y++;
+				}
+				vb[ko] = x;
+				if(x > n)
+					kbend += 2;
+				else if(y > m)
+					kbstart += 2;
+				else if(!front) {
+					int fo = offset + delta - k;
+					if(fo >= 0 && fo < vlength && vf[fo] != -1) {
+						int fx = vf[fo];
+						int fy = offset + fx - fo;
+						if(fx >= n - x)
+							return (((long)(x0 + fx)) << 32) | (y0 + fy);
+					}
+				}
+			}
+		}
+		
+		// no overlap found; only possible when there is nothing in common
+		return (((long) x1) << 32) | y0;
+	}
+	
+	/**
+	 * Append a run to the edit script, extending the previous run if it has the same operation
+	 * @param op
+	 * @param start
+	 * @param run
+	 */
+	protected void emit(byte op, int start, int run) {
+		if(run == 0)
+			return;
+		if(scriptLength > 0 && script[scriptLength - 3] == op) {
+			script[scriptLength - 1] += run;
+			return;
+		}
+		if(scriptLength + 3 > script.length)
+			script = Arrays.copyOf(script, Math.max(30, 2 * script.length));
+		script[scriptLength++] = op;
+		script[scriptLength++] = start;
+		script[scriptLength++] = run;
+	}
+
+	@Override
+	public OpQueue queue() {
+		List<Op> ops = new ArrayList<Op>(scriptLength / 3);
+		for(int i = 0; i < scriptLength; i += 3) {
+			byte op = (byte) script[i];
+			int start = script[i + 1];
+			int run = script[i + 2];
+			byte[] data = null;
+			if(op == Op.DELETE)
+				data = Arrays.copyOfRange(xval, start, start + run);
+			else if(op == Op.INSERT)
+				data = Arrays.copyOfRange(yval, start, start + run);
+			ops.add(new Op(op, run, data));
+		}
+		return new ListOpQueue(ops);
+	}
+
+}
@@ -0,0 +1,242 @@
+/**
+ * badiff - byte array diff - fast pure-java byte-level diffing
+ * 
+ * Copyright (c) 2013, Robin Kirkman All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ * 2) Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 3) Neither the name of the badiff nor the names of its contributors may be 
+ *    used to endorse or promote products derived from this software without 
+ *    specific prior written permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.badiff.alg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.badiff.Diff;
+import org.badiff.Op;
+import org.badiff.q.ListOpQueue;
+import org.badiff.q.OpQueue;
+
+/**
+ * {@link Graph} which computes the same diffs as {@link InertialGraph} using a fraction
+ * of the memory.  Rather than keeping all three costs of every node, only two rows of costs
+ * are kept while computing.  For each node, the {@link Op} which best precedes each of
+ * {@link Op#DELETE}, {@link Op#INSERT}, and {@link Op#NEXT} is recorded in two bits,
+ * so the traceback needs one byte per node, six bits of it used, instead of the six bytes
+ * used by {@link InertialGraph}.  A single two-bit predecessor per node is not enough,
+ * since the best path into a node depends on which {@link Op} leaves it.  At the default
+ * capacity a {@link PackedInertialGraph} allocates 4.2MB against 25.2MB.
+ * @author robin
+ *
+ */
+public class PackedInertialGraph implements Graph {
+	/**
+	 * The incremental cost of beginning the next operation given the current operation,
+	 * from {@link InertialGraph#DEFAULT_TRANSITION_COSTS}
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	protected int cost(byte from, byte to) {
+		return InertialGraph.DEFAULT_TRANSITION_COSTS[from][to];
+	}
+	
+	/**
+	 * Cost of an unreachable edge; small enough that adding transition costs won't overflow
+	 */
+	protected static final int UNREACHABLE = Integer.MAX_VALUE / 2;
+	
+	protected static final int DELETE = 0;
+	protected static final int INSERT = 1;
+	protected static final int NEXT = 2;
+	
+	protected static final int NUM_FIELDS = 3;
+	
+	/**
+	 * The predecessors of each node.  Bits {@code 2*field} and {@code 2*field+1} hold the
+	 * {@link Op} which best precedes leaving the node by {@code field}.
+	 */
+	protected final byte[] pred;
+	
+	protected final int capacity;
+	protected byte[] xval;
+	protected byte[] yval;
+	/**
+	 * The {@link Op} which best precedes {@link Op#STOP} at the end of the graph
+	 */
+	protected byte last;
+
+	public PackedInertialGraph() {
+		this((1 + Diff.DEFAULT_CHUNK) * (1 + Diff.DEFAULT_CHUNK));
+	}
+	
+	/**
+	 * Create a new {@link PackedInertialGraph} with the given buffer capacity
+	 * @param capacity
+	 */
+	public PackedInertialGraph(int capacity) {
+		if(capacity < 4)
+			throw new IllegalArgumentException("capacity must be >= 4");
+
+		this.capacity = capacity;
+
+		pred = new byte[capacity];
+	}
+	
+	@Override
+	public void compute(byte[] orig, byte[] target) {
+		if((orig.length + 1) * (target.length + 1) > capacity)
+			throw new IllegalArgumentException("diff axes exceed graph capacity");
+
+		xval = new byte[orig.length + 1]; System.arraycopy(orig, 0, xval, 1, orig.length);
+		yval = new byte[target.length + 1]; System.arraycopy(target, 0, yval, 1, target.length);
+		
+		int xvalLength = xval.length;
+		int yvalLength = yval.length;
+		
+		int[] above = new int[xvalLength * NUM_FIELDS];
+		int[] row = new int[xvalLength * NUM_FIELDS];
+		Arrays.fill(above, UNREACHABLE);
+
+		for(int y = 0; y < yvalLength; y++) {
+			for(int x = 0; x < xvalLength; x++) {
+				int f = x * NUM_FIELDS;
+				
+				// mark entry costs
+				int edc, eic, enc;
+				if(x == 0 && y == 0) {
+					edc = 0;
+					eic = 0;
+					enc = 0;
+				} else {
+					edc = x > 0 ? row[f - NUM_FIELDS + DELETE] : UNREACHABLE;
+					eic = above[f + INSERT];
+					enc = (x > 0 && y > 0 && xval[x] == yval[y]) ? above[f - NUM_FIELDS + NEXT] : UNREACHABLE;
+				}
+				
+				int p = 0;
+				p |= best(edc, eic, enc, Op.DELETE) << (2 * DELETE);
+				p |= best(edc, eic, enc, Op.INSERT) << (2 * INSERT);
+				p |= best(edc, eic, enc, Op.NEXT) << (2 * NEXT);
+				pred[y * xvalLength + x] = (byte) p;
+				
+				row[f + DELETE] = bestCost(edc, eic, enc, Op.DELETE, p >>> (2 * DELETE));
+				row[f + INSERT] = bestCost(edc, eic, enc, Op.INSERT, p >>> (2 * INSERT));
+				row[f + NEXT] = bestCost(edc, eic, enc, Op.NEXT, p >>> (2 * NEXT));
+			}
+			int[] t = above;
+			above = row;
+			row = t;
+		}
+		
+		// the costs of the final row are now in "above", and the row before in "row"
+		int x = xvalLength - 1;
+		int y = yvalLength - 1;
+		int f = x * NUM_FIELDS;
+		int edc = x > 0 ? above[f - NUM_FIELDS + DELETE] : UNREACHABLE;
+		int eic = y > 0 ? row[f + INSERT] : UNREACHABLE;
+		int enc = (x > 0 && y > 0 && xval[x] == yval[y]) ? row[f - NUM_FIELDS + NEXT] : UNREACHABLE;
+		last = best(edc, eic, enc, Op.STOP);
+	}
+	
+	/**
+	 * Returns the {@link Op} which best precedes {@code op}, given the entry costs
+	 * by {@link Op#DELETE}, {@link Op#INSERT}, and {@link Op#NEXT}.  Ties are broken
+	 * in the same order as the {@link InertialGraph} traceback.
+	 * @param edc
+	 * @param eic
+	 * @param enc
+	 * @param op
+	 * @return
+	 */
+	protected byte best(int edc, int eic, int enc, byte op) {
+		byte best = Op.NEXT;
+		int cost = enc + cost(Op.NEXT, op);
+		if(eic + cost(Op.INSERT, op) < cost) {
+			best = Op.INSERT;
+			cost = eic + cost(Op.INSERT, op);
+		}
+		if(edc + cost(Op.DELETE, op) < cost)
+			best = Op.DELETE;
+		return best;
+	}
+	
+	private int bestCost(int edc, int eic, int enc, byte op, int best) {
+		int cost;
+		switch(best & 0x3) {
+		case Op.DELETE: cost = edc + cost(Op.DELETE, op); break;
+		case Op.INSERT: cost = eic + cost(Op.INSERT, op); break;
+		default: cost = enc + cost(Op.NEXT, op); break;
+		}
+		return Math.min(cost, UNREACHABLE);
+	}
+
+	@Override
+	public OpQueue queue() {
+		// walk the path backwards, recording the op of each edge
+		byte[] path = new byte[xval.length + yval.length];
+		int plen = 0;
+		int x = xval.length - 1;
+		int y = yval.length - 1;
+		byte op = last;
+		while(x > 0 || y > 0) {
+			path[plen++] = op;
+			switch(op) {
+			case Op.DELETE: x--; break;
+			case Op.INSERT: y--; break;
+			case Op.NEXT: x--; y--; break;
+			default: throw new IllegalStateException();
+			}
+			op = (byte) ((pred[y * xval.length + x] >>> (2 * (path[plen-1] - 1))) & 0x3);
+		}
+		
+		// emit the path forwards as runs
+		List<Op> ops = new ArrayList<Op>();
+		x = 1;
+		y = 1;
+		for(int i = plen - 1; i >= 0;) {
+			op = path[i];
+			int run = 0;
+			for(; i >= 0 && path[i] == op; i--)
+				run++;
+			switch(op) {
+			case Op.DELETE:
+				ops.add(new Op(Op.DELETE, run, Arrays.copyOfRange(xval, x, x + run)));
+				x += run;
+				break;
+			case Op.INSERT:
+				ops.add(new Op(Op.INSERT, run, Arrays.copyOfRange(yval, y, y + run)));
+				y += run;
+				break;
+			case Op.NEXT:
+				ops.add(new Op(Op.NEXT, run, null));
+				x += run;
+				y += run;
+				break;
+			}
+		}
+		return new ListOpQueue(ops);
+	}
+
+}
@@ -0,0 +1,235 @@
+/**
+ * badiff - byte array diff - fast pure-java byte-level diffing
+ * 
+ * Copyright (c) 2013, Robin Kirkman All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ * 2) Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 3) Neither the name of the badiff nor the names of its contributors may be 
+ *    used to endorse or promote products derived from this software without 
+ *    specific prior written permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.badiff.alg;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.badiff.Diff;
+import org.badiff.Op;
+
+import static org.badiff.util.Integers.*;
+
+/**
+ * {@link InertialGraph} that computes the costs of a single large graph on multiple threads.
+ * The graph is split into square tiles, and tiles on the same anti-diagonal are computed
+ * in parallel, since each tile depends only on the tiles to its left, above it, and above-left.
+ * This lets a single large ({@link Op#DELETE},{@link Op#INSERT}) pair use all the available
+ * processors, which parallelizing across pairs cannot.<p>
+ * 
+ * The computed costs, and so the resulting {@link Op}s, are identical to {@link InertialGraph}.
+ * @author robin
+ *
+ */
+public class ParallelInertialGraph extends InertialGraph {
+	/**
+	 * The default width and height of a tile, chosen so a tile's costs fit in L2 cache
+	 */
+	public static final int DEFAULT_TILE = 128;
+	
+	private static ExecutorService sharedPool;
+	
+	/**
+	 * Returns a pool of daemon threads, sized to the number of available processors,
+	 * shared by all {@link ParallelInertialGraph}s not given their own pool
+	 * @return
+	 */
+	protected static synchronized ExecutorService sharedPool() {
+		if(sharedPool == null) {
+			int workers = Runtime.getRuntime().availableProcessors();
+			sharedPool = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, ParallelInertialGraph.class.getSimpleName());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return sharedPool;
+	}
+	
+	/**
+	 * The pool computing tiles
+	 */
+	protected ExecutorService pool;
+	/**
+	 * The width and height of a tile
+	 */
+	protected int tile;
+
+	public ParallelInertialGraph() {
+		this((1 + Diff.DEFAULT_CHUNK) * (1 + Diff.DEFAULT_CHUNK));
+	}
+	
+	/**
+	 * Create a new {@link ParallelInertialGraph} with the given buffer capacity which
+	 * computes tiles on a shared thread pool
+	 * @param capacity
+	 */
+	public ParallelInertialGraph(int capacity) {
+		this(capacity, DEFAULT_TILE, sharedPool());
+	}
+	
+	/**
+	 * Create a new {@link ParallelInertialGraph} with the given buffer capacity which
+	 * computes tiles of the given size on the argument thread pool.  The pool
+	 * must not be one whose threads are waiting on this graph.
+	 * @param capacity
+	 * @param tile
+	 * @param pool
+	 */
+	public ParallelInertialGraph(int capacity, int tile, ExecutorService pool) {
+		super(capacity);
+		if(tile < 1)
+			throw new IllegalArgumentException("tile must be >= 1");
+		this.tile = tile;
+		this.pool = pool;
+	}
+	
+	@Override
+	public void compute(byte[] orig, byte[] target) {
+		if((orig.length + 1) * (target.length + 1) > capacity)
+			throw new IllegalArgumentException("diff axes exceed graph capacity");
+		
+		int xtiles = (orig.length + tile) / tile;
+		int ytiles = (target.length + tile) / tile;
+		
+		// not worth the hand-off for graphs that are only a few tiles across
+		if(xtiles < 2 || ytiles < 2) {
+			super.compute(orig, target);
+			return;
+		}
+
+		xval = new byte[orig.length + 1]; System.arraycopy(orig, 0, xval, 1, orig.length);
+		yval = new byte[target.length + 1]; System.arraycopy(target, 0, yval, 1, target.length);
+		
+		List<Callable<Object>> wave = new ArrayList<Callable<Object>>();
+		for(int w = 0; w < xtiles + ytiles - 1; w++) {
+			wave.clear();
+			for(int ty = Math.max(0, w - xtiles + 1); ty <= Math.min(w, ytiles - 1); ty++) {
+				final int y0 = ty * tile;
+				final int x0 = (w - ty) * tile;
+				wave.add(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						computeTile(x0, Math.min(x0 + tile, xval.length), y0, Math.min(y0 + tile, yval.length));
+						return null;
+					}
+				});
+			}
+			try {
+				for(Future<Object> f : pool.invokeAll(wave))
+					f.get();
+			} catch(InterruptedException ie) {
+				throw new RuntimeException(ie);
+			} catch(ExecutionException ee) {
+				throw new RuntimeException(ee);
+			}
+		}
+	}
+	
+	/**
+	 * Compute the costs of the nodes with {@code x0 <= x < x1} and {@code y0 <= y < y1}.
+	 * The nodes to the left, above, and above-left of the tile must already be computed.
+	 * @param x0
+	 * @param x1
+	 * @param y0
+	 * @param y1
+	 */
+	protected void computeTile(int x0, int x1, int y0, int y1) {
+		int cdd, cdi, cdn, cid, cii, cin, cnd, cni, cnn;
+		cdd = cost(Op.DELETE, Op.DELETE);
+		cdi = cost(Op.DELETE, Op.INSERT);
+		cdn = cost(Op.DELETE, Op.NEXT);
+		cid = cost(Op.INSERT, Op.DELETE);
+		cii = cost(Op.INSERT, Op.INSERT);
+		cin = cost(Op.INSERT, Op.NEXT);
+		cnd = cost(Op.NEXT, Op.DELETE);
+		cni = cost(Op.NEXT, Op.INSERT);
+		cnn = cost(Op.NEXT, Op.NEXT);
+		
+		int xvalLength = xval.length;
+		
+		for(int y = y0; y < y1; y++) {
+			for(int x = x0; x < x1; x++) {
+				int pos = y * xvalLength + x;
+				
+				// mark entry costs
+				int edc, eic, enc;
+				if(x == 0 && y == 0) {
+					edc = 0;
+					eic = 0;
+					enc = 0;
+				} else {
+					edc = x > 0 ? cost[(pos-1)*NUM_FIELDS + DELETE] : Short.MAX_VALUE;
+					eic = y > 0 ? cost[(pos-xvalLength)*NUM_FIELDS + INSERT] : Short.MAX_VALUE;
+					enc = (x > 0 && y > 0 && xval[x] == yval[y]) ? cost[(pos-1-xvalLength)*NUM_FIELDS + NEXT] : Short.MAX_VALUE;
+				}
+				
+				int cost;
+
+				// compute delete cost
+				cost = edc + cdd;
+				cost = min(cost, eic + cid);
+				cost = min(cost, enc + cnd);
+				this.cost[pos*NUM_FIELDS + DELETE] = (short) min(cost, Short.MAX_VALUE);
+
+				// compute insert cost
+				cost = eic + cii;
+				cost = min(cost, edc + cdi);
+				cost = min(cost, enc + cni);
+				this.cost[pos*NUM_FIELDS + INSERT] = (short) min(cost, Short.MAX_VALUE);
+
+				// compute next cost
+				cost = enc + cnn;
+				cost = min(cost, edc + cdn);
+				cost = min(cost, eic + cin);
+				this.cost[pos*NUM_FIELDS + NEXT] = (short) min(cost, Short.MAX_VALUE);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the width and height of a tile
+	 * @return
+	 */
+	public int getTile() {
+		return tile;
+	}
+}
@@ -0,0 +1,176 @@
+/**
+ * badiff - byte array diff - fast pure-java byte-level diffing
+ * 
+ * Copyright (c) 2013, Robin Kirkman All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ * 2) Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 3) Neither the name of the badiff nor the names of its contributors may be 
+ *    used to endorse or promote products derived from this software without 
+ *    specific prior written permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.badiff.alg;
+
+import java.util.Arrays;
+
+/**
+ * Utility for building suffix arrays in linear time with the SA-IS algorithm
+ * (Nong, Zhang, and Chan, "Linear Suffix Array Construction by Almost Pure Induced-Sorting").
+ * @author robin
+ *
+ */
+public class SuffixArray {
+	
+	/**
+	 * Returns the suffix array of {@code buf}: the offsets of every suffix of {@code buf},
+	 * in lexicographic order of the suffixes, comparing bytes as unsigned
+	 * @param buf
+	 * @return
+	 */
+	public static int[] build(byte[] buf) {
+		int[] s = new int[buf.length];
+		for(int i = 0; i < s.length; i++)
+			s[i] = buf[i] & 0xff;
+		return sais(s, 255);
+	}
+	
+	/**
+	 * Returns the suffix array of {@code s}, whose elements are in {@code [0,upper]}
+	 * @param s
+	 * @param upper
+	 * @return
+	 */
+	private static int[] sais(int[] s, int upper) {
+		int n = s.length;
+		if(n == 0)
+			return new int[0];
+		if(n == 1)
+			return new int[] {0};
+		if(n == 2)
+			return s[0] < s[1] ? new int[] {0, 1} : new int[] {1, 0};
+		
+		int[] sa = new int[n];
+		
+		// classify each suffix as S-type (smaller than the next) or L-type
+		boolean[] ls = new boolean[n];
+		for(int i = n - 2; i >= 0; i--)
+			ls[i] = (s[i] == s[i + 1]) ? ls[i + 1] : (s[i] < s[i + 1]);
+		
+		// bucket boundaries
+		int[] suml = new int[upper + 1];
+		int[] sums = new int[upper + 1];
+		for(int i = 0; i < n; i++) {
+			if(!ls[i])
+				sums[s[i]]++;
+			else if(s[i] + 1 <= upper)
+				suml[s[i] + 1]++;
+		}
+		for(int i = 0; i <= upper; i++) {
+			sums[i] += suml[i];
+			if(i < upper)
+				suml[i + 1] += sums[i];
+		}
+		
+		// the leftmost S-type suffixes (LMS) and their ranks in position order
+		int[] lmsMap = new int[n + 1];
+		Arrays.fill(lmsMap, -1);
+		int m = 0;
+		for(int i = 1; i < n; i++)
+			if(!ls[i - 1] && ls[i])
+				lmsMap[i] = m++;
+		int[] lms = new int[m];
+		for(int i = 1, j = 0; i < n; i++)
+			if(!ls[i - 1] && ls[i])
+				lms[j++] = i;
+		
+		induce(s, upper, sa, ls, suml, sums, lms);
+		
+		if(m > 0) {
+			// name the sorted LMS substrings and sort them recursively
+			int[] sortedLms = new int[m];
+			for(int i = 0, j = 0; i < n; i++)
+				if(lmsMap[sa[i]] != -1)
+					sortedLms[j++] = sa[i];
+			int[] recs = new int[m];
+			int recUpper = 0;
+			recs[lmsMap[sortedLms[0]]] = 0;
+			for(int i = 1; i < m; i++) {
+				int l = sortedLms[i - 1];
+				int r = sortedLms[i];
+				int endl = (lmsMap[l] + 1 < m) ? lms[lmsMap[l] + 1] : n;
+				int endr = (lmsMap[r] + 1 < m) ? lms[lmsMap[r] + 1] : n;
+				boolean same = true;
+				if(endl - l != endr - r)
+					same = false;
+				else {
+					while(l < endl) {
+						if(s[l] != s[r])
+							break;
+						l++;
+						r++;
+					}
+					if(l == n || s[l] != s[r])
+						same = false;
+				}
+				if(!same)
+					recUpper++;
+				recs[lmsMap[sortedLms[i]]] = recUpper;
+			}
+			
+			int[] recsa = sais(recs, recUpper);
+			for(int i = 0; i < m; i++)
+				sortedLms[i] = lms[recsa[i]];
+			induce(s, upper, sa, ls, suml, sums, sortedLms);
+		}
+		
+		return sa;
+	}
+	
+	/**
+	 * Induce the order of all suffixes from the order of the LMS suffixes
+	 */
+	private static void induce(int[] s, int upper, int[] sa, boolean[] ls, int[] suml, int[] sums, int[] lms) {
+		int n = s.length;
+		Arrays.fill(sa, -1);
+		int[] buf = new int[upper + 1];
+		System.arraycopy(sums, 0, buf, 0, upper + 1);
+		for(int d : lms) {
+			if(d == n)
+				continue;
+			sa[buf[s[d]]++] = d;
+		}
+		System.arraycopy(suml, 0, buf, 0, upper + 1);
+		sa[buf[s[n - 1]]++] = n - 1;
+		for(int i = 0; i < n; i++) {
+			int v = sa[i];
+			if(v >= 1 && !ls[v - 1])
+				sa[buf[s[v - 1]]++] = v - 1;
+		}
+		System.arraycopy(suml, 0, buf, 0, upper + 1);
+		for(int i = n - 1; i >= 0; i--) {
+			int v = sa[i];
+			if(v >= 1 && ls[v - 1])
+				sa[--buf[s[v - 1] + 1]] = v - 1;
+		}
+	}
+
+	private SuffixArray() {}
+}
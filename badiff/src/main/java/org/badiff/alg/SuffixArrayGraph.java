@@ -0,0 +1,227 @@
+/**
+ * badiff - byte array diff - fast pure-java byte-level diffing
+ * 
+ * Copyright (c) 2013, Robin Kirkman All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ * 2) Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 3) Neither the name of the badiff nor the names of its contributors may be 
+ *    used to endorse or promote products derived from this software without 
+ *    specific prior written permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.badiff.alg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.badiff.Op;
+import org.badiff.io.Random;
+import org.badiff.q.ListOpQueue;
+import org.badiff.q.OpQueue;
+
+/**
+ * {@link Graph} which diffs whole inputs in the manner of bsdiff, rather than chunks.
+ * A {@link SuffixArray} of the original is searched for the longest match of the target
+ * at each position, so a match can come from anywhere in the original, such as code
+ * relocated within an executable.  Runs where the original and target are aligned but for
+ * a few changed bytes are continued as approximate matches, which are emitted as
+ * {@link Op#NEXT}s separated by ({@link Op#DELETE},{@link Op#INSERT}) pairs.<p>
+ * 
+ * Matches out of order are reached with {@link Op#DELETE}s without data, which may have negative
+ * run lengths (rewinds), so the resulting diff may only be applicable to an original that is {@link Random}.
+ * Building the suffix array takes time linear in the length of the original, and searching
+ * it takes time O(log n) per unmatched byte of the target.
+ * @author robin
+ *
+ */
+public class SuffixArrayGraph implements Graph {
+	/**
+	 * The default minimum length of a match found by searching the suffix array
+	 */
+	public static final int DEFAULT_MIN_MATCH = 16;
+	/**
+	 * The minimum length of a match continuing the alignment of the previous match
+	 */
+	public static final int MIN_ALIGNED_MATCH = 8;
+	
+	protected int minMatch;
+	
+	protected byte[] orig;
+	protected byte[] target;
+	protected int[] sa;
+	
+	protected List<Op> ops;
+	/**
+	 * The position in the original after the computed {@link #ops}
+	 */
+	protected int position;
+	
+	public SuffixArrayGraph() {
+		this(DEFAULT_MIN_MATCH);
+	}
+	
+	/**
+	 * Create a {@link SuffixArrayGraph} that uses matches of at least {@code minMatch} bytes
+	 * @param minMatch
+	 */
+	public SuffixArrayGraph(int minMatch) {
+		if(minMatch < 1)
+			throw new IllegalArgumentException("minMatch must be >= 1");
+		this.minMatch = minMatch;
+	}
+
+	@Override
+	public void compute(byte[] orig, byte[] target) {
+		this.orig = orig;
+		this.target = target;
+		sa = SuffixArray.build(orig);
+		ops = new ArrayList<Op>();
+		position = 0;
+		
+		int literal = 0; // start of unmatched target bytes
+		int offset = 0; // offset from the target to the original of the last match
+		int t = 0;
+		while(t < target.length) {
+			// prefer continuing the alignment of the last match
+			int o = t + offset;
+			int len = (o >= 0 && o < orig.length) ? match(o, t) : 0;
+			if(len < MIN_ALIGNED_MATCH) {
+				long found = search(t);
+				o = (int)(found >>> 32);
+				len = (int) found;
+				if(len < minMatch) {
+					t++;
+					continue;
+				}
+			}
+			
+			if(o - position == t - literal && o > position) {
+				// the unmatched bytes replace the same number of original bytes
+				seek(o);
+				insert(literal, t);
+			} else {
+				insert(literal, t);
+				seek(o);
+			}
+			ops.add(new Op(Op.NEXT, len, null));
+			position += len;
+			
+			offset = o - t;
+			t += len;
+			literal = t;
+		}
+		
+		insert(literal, target.length);
+		seek(orig.length);
+	}
+	
+	/**
+	 * Add {@link Op}s to move from {@link #position} to {@code o} in the original
+	 * @param o
+	 */
+	protected void seek(int o) {
+		if(o > position)
+			ops.add(new Op(Op.DELETE, o - position, Arrays.copyOfRange(orig, position, o)));
+		else if(o < position)
+			ops.add(new Op(Op.DELETE, o - position, null));
+		position = o;
+	}
+	
+	/**
+	 * Add an {@link Op} to insert the target from {@code from} to {@code to}
+	 * @param from
+	 * @param to
+	 */
+	protected void insert(int from, int to) {
+		if(to > from)
+			ops.add(new Op(Op.INSERT, to - from, Arrays.copyOfRange(target, from, to)));
+	}
+	
+	/**
+	 * Returns the length of the common prefix of the original at {@code o} and the target at {@code t}
+	 * @param o
+	 * @param t
+	 * @return
+	 */
+	protected int match(int o, int t) {
+		int len = 0;
+		while(o + len < orig.length && t + len < target.length && orig[o + len] == target[t + len])
+			len++;
+		return len;
+	}
+	
+	/**
+	 * Search the suffix array for the longest match of the target at {@code t}
+	 * @param t
+	 * @return The offset of the match in the original in the high 32 bits, and its length in the low 32 bits
+	 */
+	protected long search(int t) {
+		if(sa.length == 0)
+			return 0;
+		// find the first suffix not less than the target
+		int lo = 0;
+		int hi = sa.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(compare(sa[mid], t) < 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		// the longest match is adjacent to where the target would be
+		int o = -1;
+		int len = 0;
+		if(lo < sa.length) {
+			o = sa[lo];
+			len = match(o, t);
+		}
+		if(lo > 0) {
+			int l = match(sa[lo - 1], t);
+			if(l > len) {
+				o = sa[lo - 1];
+				len = l;
+			}
+		}
+		return (((long) o) << 32) | len;
+	}
+	
+	/**
+	 * Compare the suffix of the original at {@code o} with the suffix of the target at {@code t}
+	 * @param o
+	 * @param t
+	 * @return
+	 */
+	private int compare(int o, int t) {
+		int len = match(o, t);
+		if(o + len == orig.length)
+			return t + len == target.length ? 0 : -1;
+		if(t + len == target.length)
+			return 1;
+		return (orig[o + len] & 0xff) - (target[t + len] & 0xff);
+	}
+
+	@Override
+	public OpQueue queue() {
+		return new ListOpQueue(ops);
+	}
+
+}
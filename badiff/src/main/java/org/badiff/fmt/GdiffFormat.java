@@ -29,11 +29,13 @@
  */
 package org.badiff.fmt;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutput;
 import java.io.IOException;
 
 import org.badiff.Diff;
 import org.badiff.Op;
+import org.badiff.io.HistoryOutputStream;
 import org.badiff.io.RandomInput;
 import org.badiff.io.RuntimeIOException;
 import org.badiff.q.OpQueue;
@@ -44,7 +46,17 @@ import org.badiff.q.OpQueue;
  *
  */
 public class GdiffFormat implements OutputFormat, InputFormat {
+	/**
+	 * The length of the pieces in which the original is read to remember it for {@link Op#COPY}s
+	 */
+	private static final int PIECE = 64 * 1024;
 
+	/**
+	 * Write {@code diff} as GDIFF.  GDIFF cannot copy from the target, so {@link Op#COPY}s without
+	 * data are written as the data they repeat, which is found by remembering the last
+	 * {@link HistoryOutputStream#DEFAULT_WINDOW} bytes of the target.  Finding whether there are any
+	 * such {@link Op#COPY}s takes a first pass over {@code diff}, so it is queued twice.
+	 */
 	@Override
 	public void exportDiff(Diff diff, RandomInput orig, DataOutput out) throws IOException {
 		// magic
@@ -54,6 +66,13 @@ public class GdiffFormat implements OutputFormat, InputFormat {
 		out.writeByte(0xff);
 		// version
 		out.writeByte(4);
+		// GDIFF cannot copy from the target, so COPYs without data are written as the data they repeat
+		ByteArrayOutputStream copied = null;
+		HistoryOutputStream history = null;
+		if(hasBareCopies(diff)) {
+			copied = new ByteArrayOutputStream();
+			history = new HistoryOutputStream(copied);
+		}
 		OpQueue q = diff.queue();
 		long opos = 0;
 		for(Op e = q.poll(); e != null; e = q.poll()) {
@@ -63,16 +82,58 @@ public class GdiffFormat implements OutputFormat, InputFormat {
 				break;
 			case Op.INSERT:
 				data(out, e.getData());
+				if(history != null)
+					history.write(e.getData());
 				break;
 			case Op.NEXT:
 				copy(out, e.getRun(), opos);
+				if(history != null)
+					remember(history, copied, orig, opos, e.getRun());
 				opos += e.getRun();
 				break;
+			case Op.COPY:
+				if(history == null) {
+					data(out, e.getData());
+					break;
+				}
+				history.copy(e.getDistance(), e.getRun());
+				data(out, copied.toByteArray());
+				break;
 			}
+			if(copied != null)
+				copied.reset();
 		}
 		eof(out);
 	}
 	
+	/*
+	 * Write the last bytes of the run bytes of orig at pos that a COPY could reach through
+	 * history, a piece at a time, discarding them from copied
+	 */
+	private static void remember(HistoryOutputStream history, ByteArrayOutputStream copied, RandomInput orig, long pos, int run) throws IOException {
+		int skip = Math.max(0, run - HistoryOutputStream.DEFAULT_WINDOW);
+		byte[] buf = new byte[Math.min(run - skip, PIECE)];
+		orig.seek(pos + skip);
+		for(int n = run - skip; n > 0; n -= buf.length) {
+			int len = Math.min(n, buf.length);
+			orig.readFully(buf, 0, len);
+			history.write(buf, 0, len);
+			copied.reset();
+		}
+	}
+	
+	/*
+	 * Whether any COPY in diff has no data
+	 */
+	private static boolean hasBareCopies(Diff diff) throws IOException {
+		OpQueue q = diff.queue();
+		for(Op e = q.poll(); e != null; e = q.poll()) {
+			if(e.getOp() == Op.COPY && e.getDataArray() == null)
+				return true;
+		}
+		return false;
+	}
+	
 	private void eof(DataOutput out) throws IOException {
 		out.writeByte(0);
 	}
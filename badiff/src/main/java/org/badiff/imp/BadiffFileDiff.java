@@ -46,9 +46,11 @@ import java.util.Iterator;
 import org.badiff.Diff;
 import org.badiff.Op;
 import org.badiff.Queueable;
+import org.badiff.alg.SuffixArrayGraph;
 import org.badiff.io.DataOutputOutputStream;
 import org.badiff.io.DefaultSerialization;
 import org.badiff.io.FileRandomInput;
+import org.badiff.io.HistoryOutputStream;
 import org.badiff.io.Random;
 import org.badiff.io.RandomInput;
 import org.badiff.io.RuntimeIOException;
@@ -58,8 +60,14 @@ import org.badiff.io.SmallNumberSerialization;
 import org.badiff.p.Pipe;
 import org.badiff.p.Pipeline;
 import org.badiff.p.Pipes;
+import org.badiff.q.ChainOpQueue;
 import org.badiff.q.OpQueue;
+import org.badiff.q.PrefetchingChunkingOpQueue;
 import org.badiff.q.RandomChunkingOpQueue;
+import org.badiff.q.ReplaceOpQueue;
+import org.badiff.sig.IndexedOpQueue;
+import org.badiff.sig.OriginIndex;
+import org.badiff.util.Bytes;
 import org.badiff.util.Digests;
 import org.badiff.util.Streams;
 
@@ -72,12 +80,12 @@ import org.badiff.util.Streams;
 public class BadiffFileDiff extends File implements Diff, Serialized {
 	private static final long serialVersionUID = 0;
 
-	public static String PIPELINE_CODE = "s" + "G" + "c" + "c" + "r" + "u" + "C";
+	public static String PIPELINE_CODE = "t" + "s" + "G" + "c" + "c" + "r" + "u" + "C";
 	public static Pipe[] PIPES = Pipes.fromCodes(PIPELINE_CODE);
 	public static Pipe PIPE = new Pipe() {
 		@Override
 		public Pipeline from(OpQueue q) {
-			return new Pipeline(q, PIPES);
+			return new Pipeline(q).compile(PIPES);
 		}
 	};
 	
@@ -89,9 +97,19 @@ public class BadiffFileDiff extends File implements Diff, Serialized {
 	 */
 	public static final byte[] MAGIC = new byte[] {0, (byte)0xde, (byte)0xee, (byte)0xef};
 	/**
-	 * badiff file format version
+	 * The longest original or target, after trimming their common prefix and suffix, that
+	 * {@link #diffWhole(RandomInput, RandomInput, String)} reads whole.  Longer inputs are chunked.
+	 * A {@link SuffixArrayGraph} needs several {@code int}s per byte of the original on top of
+	 * the inputs themselves, so this keeps a whole-input diff to a few hundred MB.
 	 */
-	public static final int VERSION = 1;
+	public static final int MAX_WHOLE_LENGTH = 16 * 1024 * 1024;
+	
+	/**
+	 * badiff file format version.  Version 2 adds {@link Op#COPY}s, which a version 1 reader
+	 * would misread as a {@link Op#NEXT} followed by garbage, so it is only written for diffs
+	 * with {@link #FLAG_TARGET_COPY}; other diffs are still written as version 1.
+	 */
+	public static final int VERSION = 2;
 
 	/**
 	 * Flag to indicate that this diff can only be applied to an {@link InputStream}
@@ -115,6 +133,12 @@ public class BadiffFileDiff extends File implements Diff, Serialized {
 	 * Flag that this badiff diff has an optional data section
 	 */
 	public static final long FLAG_OPTIONAL_DATA = 0x10;
+	/**
+	 * Flag to indicate that this diff contains {@link Op#COPY}s, and so can only be applied
+	 * to a {@link HistoryOutputStream}, which {@link #apply(InputStream, OutputStream)} provides.
+	 * Diffs with this flag are written as {@link #VERSION} 2, which older readers reject.
+	 */
+	public static final long FLAG_TARGET_COPY = 0x20;
 	
 	/**
 	 * A header found at the beginning of every badiff diff
@@ -152,6 +176,10 @@ public class BadiffFileDiff extends File implements Diff, Serialized {
 			 * The size of the output file
 			 */
 			private long outputSize;
+			/**
+			 * The number of COPY operations.  Not serialized; a diff with any has {@link BadiffFileDiff#FLAG_TARGET_COPY}.
+			 */
+			private long copyCount;
 			
 			public Stats() {}
 			
@@ -208,6 +236,14 @@ public class BadiffFileDiff extends File implements Diff, Serialized {
 				return deleteCount;
 			}
 		
+			/**
+			 * Returns the total number of COPY operations, if the diff was just computed
+			 * @return
+			 */
+			public long getCopyCount() {
+				return copyCount;
+			}
+		
 			/**
 			 * Returns the expected input size
 			 * @return
@@ -423,6 +459,11 @@ public class BadiffFileDiff extends File implements Diff, Serialized {
 				osize += e.getRun();
 				tsize += e.getRun();
 				break;
+				
+			case Op.COPY:
+				stats.copyCount++;
+				tsize += e.getRun();
+				break;
 			}
 		}
 		stats.inputSize = osize;
@@ -497,6 +538,8 @@ public class BadiffFileDiff extends File implements Diff, Serialized {
 			flags = 0;
 			if(header.stats.rewindCount > 0)
 				flags |= FLAG_RANDOM_ACCESS;
+			if(header.stats.copyCount > 0)
+				flags |= FLAG_TARGET_COPY;
 
 			if(header.serial instanceof DefaultSerialization)
 				flags |= FLAG_DEFAULT_SERIALIZATION;
@@ -510,7 +553,7 @@ public class BadiffFileDiff extends File implements Diff, Serialized {
 		}
 		
 		out.write(MAGIC);
-		out.writeInt(VERSION);
+		out.writeInt((flags & FLAG_TARGET_COPY) != 0 ? VERSION : 1);
 		out.writeLong(flags);
 		
 		DataOutputOutputStream dout = new DataOutputOutputStream(out);
@@ -542,6 +585,9 @@ public class BadiffFileDiff extends File implements Diff, Serialized {
 		
 		long flags = in.readLong();
 		
+		if((flags & FLAG_TARGET_COPY) != 0 && version < 2)
+			throw new IOException("Target copies require version 2");
+		
 		if((flags & FLAG_DEFAULT_SERIALIZATION) != 0) {
 			if(serial != null && !(serial instanceof DefaultSerialization))
 				throw new IOException(
@@ -631,6 +677,46 @@ public class BadiffFileDiff extends File implements Diff, Serialized {
 	}
 	
 	public void diff(RandomInput orig, RandomInput target, String pipeline) throws IOException {
+		diff(orig, target, pipeline, false);
+	}
+	
+	/**
+	 * Compute a diff from {@code orig} to {@code target} and store in this badiff diff, passing
+	 * the part between their common prefix and suffix through {@code pipeline} as one unchunked
+	 * pair, for whole-input graphs such as {@link SuffixArrayGraph} (pipe code {@code X}, as in
+	 * {@code tXoccruC}).  Both parts are read into memory, so if either is longer than
+	 * {@link #MAX_WHOLE_LENGTH} they are chunked as {@link #diff(File, File, String)} does.
+	 * @param orig
+	 * @param target
+	 * @param pipeline
+	 * @throws IOException
+	 */
+	public void diffWhole(File orig, File target, String pipeline) throws IOException {
+		FileRandomInput oin = new FileRandomInput(orig);
+		try {
+			FileRandomInput tin = new FileRandomInput(target);
+			try {
+				diffWhole(oin, tin, pipeline);
+			} finally {
+				tin.close();
+			}
+		} finally {
+			oin.close();
+		}
+	}
+	
+	/**
+	 * Compute a diff from {@code orig} to {@code target} as {@link #diffWhole(File, File, String)} does
+	 * @param orig
+	 * @param target
+	 * @param pipeline
+	 * @throws IOException
+	 */
+	public void diffWhole(RandomInput orig, RandomInput target, String pipeline) throws IOException {
+		diff(orig, target, pipeline, true);
+	}
+	
+	private void diff(RandomInput orig, RandomInput target, String pipeline, boolean whole) throws IOException {
 	
 		long opos = orig.position();
 		long tpos = target.position();
@@ -638,15 +724,104 @@ public class BadiffFileDiff extends File implements Diff, Serialized {
 		byte[] preHash = Digests.digest(orig, Digests.defaultDigest());
 		byte[] postHash = Digests.digest(target, Digests.defaultDigest());
 		
+		long olen = orig.position() - opos;
+		long tlen = target.position() - tpos;
+		
+		/*
+		 * Only the middle between the common prefix and suffix is chunked and graphed,
+		 * so appending to or truncating the original costs no more than comparing them
+		 */
 		orig.seek(opos);
 		target.seek(tpos);
+		long prefix = Bytes.prefix(orig, target, Math.min(olen, tlen));
+		long suffix = Bytes.suffix(orig, opos + olen, target, tpos + tlen, Math.min(olen, tlen) - prefix);
 		
-		FileDiff tmp = new FileDiff(getParentFile(), getName() + ".tmp");
+		orig.seek(opos + prefix);
+		target.seek(tpos + prefix);
+		
+		olen -= prefix + suffix;
+		tlen -= prefix + suffix;
+		
+		if(whole && olen <= MAX_WHOLE_LENGTH && tlen <= MAX_WHOLE_LENGTH) {
+			byte[] obuf = new byte[(int) olen];
+			byte[] tbuf = new byte[(int) tlen];
+			orig.readFully(obuf);
+			target.readFully(tbuf);
+			OpQueue q = new ReplaceOpQueue(obuf, tbuf);
+			store(new ChainOpQueue(nexts(prefix), q, nexts(suffix)), pipeline, preHash, postHash);
+		} else if(orig instanceof InputStream && target instanceof InputStream) {
+			// read both files ahead of the graphing on their own threads
+			PrefetchingChunkingOpQueue q = new PrefetchingChunkingOpQueue(
+					(InputStream) orig, (InputStream) target, 
+					Diff.DEFAULT_CHUNK, PrefetchingChunkingOpQueue.DEFAULT_DEPTH, olen, tlen);
+			try {
+				store(new ChainOpQueue(nexts(prefix), q, nexts(suffix)), pipeline, preHash, postHash);
+			} finally {
+				q.close();
+			}
+		} else {
+			OpQueue q = new RandomChunkingOpQueue(orig, target, Diff.DEFAULT_CHUNK, olen, tlen);
+			store(new ChainOpQueue(nexts(prefix), q, nexts(suffix)), pipeline, preHash, postHash);
+		}
+	}
+	
+	/*
+	 * Returns an OpQueue of NEXTs skipping count bytes
+	 */
+	private static OpQueue nexts(long count) {
+		OpQueue q = new OpQueue();
+		for(; count > 0; count -= Integer.MAX_VALUE)
+			q.offer(new Op(Op.NEXT, (int) Math.min(count, Integer.MAX_VALUE), null));
+		return q;
+	}
+	
+	/**
+	 * Compute a diff from {@code orig} to {@code target} and store in this badiff diff,
+	 * using the previously computed {@link OriginIndex} of {@code orig}.  {@code orig} is
+	 * still read once to check that its digest matches the index.
+	 * @param index
+	 * @param orig
+	 * @param target
+	 * @throws IOException
+	 */
+	public void diff(OriginIndex index, File orig, File target) throws IOException {
+		diff(index, orig, target, PIPELINE_CODE);
+	}
+	
+	public void diff(OriginIndex index, File orig, File target, String pipeline) throws IOException {
+		FileRandomInput oin = new FileRandomInput(orig);
+		try {
+			FileRandomInput tin = new FileRandomInput(target);
+			try {
+				diff(index, oin, tin, pipeline);
+			} finally {
+				tin.close();
+			}
+		} finally {
+			oin.close();
+		}
+	}
+	
+	public void diff(OriginIndex index, RandomInput orig, RandomInput target, String pipeline) throws IOException {
+		if(!Digests.defaultDigest().getAlgorithm().equals(index.getAlgorithm()))
+			throw new IllegalArgumentException("index digest is not " + Digests.defaultDigest().getAlgorithm());
+		
+		byte[] preHash = index.verify(orig);
 		
-		OpQueue q;
-		q = new RandomChunkingOpQueue(orig, target);
+		long tpos = target.position();
+		byte[] postHash = Digests.digest(target, Digests.defaultDigest());
+		target.seek(tpos);
 		
-		q = new Pipeline(q).into(pipeline).outlet();
+		store(new IndexedOpQueue(index, orig, target), pipeline, preHash, postHash);
+	}
+	
+	/*
+	 * Run the ops through the pipeline and store them with the hashes
+	 */
+	private void store(OpQueue q, String pipeline, byte[] preHash, byte[] postHash) throws IOException {
+		FileDiff tmp = new FileDiff(getParentFile(), getName() + ".tmp");
+		
+		q = new Pipeline(q).compile(pipeline).outlet();
 		
 		tmp.store(q);
 		
@@ -724,9 +899,9 @@ public class BadiffFileDiff extends File implements Diff, Serialized {
 		Header header = header();
 		if((header.flags & FLAG_RANDOM_ACCESS) != 0 && !(orig instanceof Random))
 			throw new IOException(this + " requires a random-access original (" + Random.class + ")");
-		OpQueue q = queue();
-		for(Op e = q.poll(); e != null; e = q.poll())
-			e.apply(orig, target);
+		if((header.flags & FLAG_TARGET_COPY) != 0 && !(target instanceof HistoryOutputStream))
+			target = new HistoryOutputStream(target);
+		queue().apply(orig, target);
 	}
 
 	@Override
@@ -766,8 +941,11 @@ public class BadiffFileDiff extends File implements Diff, Serialized {
 		
 		// Copy the ops
 		OpQueue q = tmp.queue();
-		for(Op e = q.poll(); e != null; e = q.poll())
-			serial.writeObject(dout, Op.class, e);
+		Op[] batch = new Op[OpQueue.DEFAULT_BATCH];
+		for(int n = q.pollBatch(batch, batch.length); n > 0; n = q.pollBatch(batch, batch.length)) {
+			for(int i = 0; i < n; i++)
+				serial.writeObject(dout, Op.class, batch[i]);
+		}
 		serial.writeObject(dout, Op.class, new Op(Op.STOP, 1, null));
 		
 		tmp.delete();
@@ -797,8 +975,11 @@ public class BadiffFileDiff extends File implements Diff, Serialized {
 		
 		// Copy the ops
 		OpQueue q = qq.queue();
-		for(Op e = q.poll(); e != null; e = q.poll())
-			serial.writeObject(dout, Op.class, e);
+		Op[] batch = new Op[OpQueue.DEFAULT_BATCH];
+		for(int n = q.pollBatch(batch, batch.length); n > 0; n = q.pollBatch(batch, batch.length)) {
+			for(int i = 0; i < n; i++)
+				serial.writeObject(dout, Op.class, batch[i]);
+		}
 		serial.writeObject(dout, Op.class, new Op(Op.STOP, 1, null));
 	}
 
@@ -105,9 +105,7 @@ public class FileDiff extends File implements Diff, Serialized {
 	
 	@Override
 	public void apply(InputStream orig, OutputStream target) throws IOException {
-		OpQueue q = queue();
-		for(Op e = q.poll(); e != null; e = q.poll())
-			e.apply(orig, target);
+		queue().apply(orig, target);
 	}
 	
 	@Override
@@ -119,6 +117,14 @@ public class FileDiff extends File implements Diff, Serialized {
 	public void store(Iterator<Op> ops) throws IOException {
 		FileOutputStream out = new FileOutputStream(this);
 		try {
+			if(ops instanceof OpQueue) {
+				OpQueue q = (OpQueue) ops;
+				Op[] batch = new Op[OpQueue.DEFAULT_BATCH];
+				for(int n = q.pollBatch(batch, batch.length); n > 0; n = q.pollBatch(batch, batch.length)) {
+					for(int i = 0; i < n; i++)
+						serial.writeObject(out, Op.class, batch[i]);
+				}
+			}
 			while(ops.hasNext()) {
 				serial.writeObject(out, Op.class, ops.next());
 			}
@@ -32,26 +32,25 @@ package org.badiff.imp;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
 
 import org.badiff.Diff;
 import org.badiff.Op;
 import org.badiff.io.Serialization;
 import org.badiff.io.Serialized;
 import org.badiff.q.ListOpQueue;
+import org.badiff.q.OpBuffer;
 import org.badiff.q.OpQueue;
 
 /**
  * Implementation of {@link Diff} that lives entirely in memory, backed
- * by a {@link List} of {@link Op}.
+ * by an {@link OpBuffer}.
  * @author robin
  *
  */
 public class MemoryDiff implements Diff, Serialized {
 	
-	protected List<Op> ops = new ArrayList<Op>();
+	protected OpBuffer ops = new OpBuffer();
 
 	public MemoryDiff() {}
 	
@@ -63,44 +62,63 @@ public class MemoryDiff implements Diff, Serialized {
 	@Override
 	public void apply(InputStream orig, OutputStream target)
 			throws IOException {
-		for(Op e : ops)
-			e.apply(orig, target);
+		ops.apply(orig, target);
 	}
 
+	/**
+	 * Replaces the stored {@link Op}s.  Fills a new {@link OpBuffer}, so queues
+	 * previously returned by {@link #queue()} may be the argument.
+	 */
 	@Override
 	public void store(Iterator<Op> ops) {
-		this.ops.clear();
+		OpBuffer stored = new OpBuffer();
+		if(ops instanceof OpQueue) {
+			OpQueue q = (OpQueue) ops;
+			Op[] batch = new Op[OpQueue.DEFAULT_BATCH];
+			for(int n = q.pollBatch(batch, batch.length); n > 0; n = q.pollBatch(batch, batch.length)) {
+				for(int i = 0; i < n; i++)
+					stored.add(batch[i]);
+			}
+		}
 		while(ops.hasNext())
-			this.ops.add(ops.next());
+			stored.add(ops.next());
+		this.ops = stored;
 	}
 
 	@Override
 	public OpQueue queue() {
 		return new MemoryOpQueue(ops);
 	}
+	
+	/**
+	 * Returns the {@link OpBuffer} holding this diff's {@link Op}s
+	 * @return
+	 */
+	public OpBuffer buffer() {
+		return ops;
+	}
 
 	@Override
 	public String toString() {
-		return queue().consummerize();
+		return ops.toString();
 	}
 	
 	@Override
 	public void serialize(Serialization serial, OutputStream out)
 			throws IOException {
-		for(Op e : ops)
-			serial.writeObject(out, Op.class, e);
-		serial.writeObject(out, Op.class, new Op(Op.STOP, 1, null));
+		ops.serialize(serial, out);
 	}
 
 	@Override
 	public void deserialize(Serialization serial, InputStream in)
 			throws IOException {
-		for(Op e = serial.readObject(in, Op.class); e.getOp() != Op.STOP; e = serial.readObject(in, Op.class))
-			ops.add(e);
+		OpBuffer read = new OpBuffer();
+		read.deserialize(serial, in);
+		ops = read;
 	}
 
 	private class MemoryOpQueue extends ListOpQueue {
-		private MemoryOpQueue(List<Op> ops) {
+		private MemoryOpQueue(OpBuffer ops) {
 			super(ops);
 		}
 	
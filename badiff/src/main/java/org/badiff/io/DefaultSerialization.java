@@ -46,6 +46,7 @@ import java.util.Map;
 import org.badiff.Op;
 import org.badiff.imp.FileDiff;
 import org.badiff.imp.MemoryDiff;
+import org.badiff.q.OpBuffer;
 import org.badiff.util.Streams;
 
 public class DefaultSerialization implements Serialization {
@@ -209,6 +210,22 @@ public class DefaultSerialization implements Serialization {
 			}
 		});
 		
+		serializers.add(new Serializer<OpBuffer>(OpBuffer.class) {
+
+			@Override
+			public void write(DataOutput out, OpBuffer obj)
+					throws IOException {
+				obj.serialize(DefaultSerialization.this, Streams.asStream(out));
+			}
+
+			@Override
+			public OpBuffer read(DataInput in) throws IOException {
+				OpBuffer buf = new OpBuffer();
+				buf.deserialize(DefaultSerialization.this, Streams.asStream(in));
+				return buf;
+			}
+		});
+		
 	}
 	
 	protected void addSerializer(Serializer<?> s) {
@@ -0,0 +1,152 @@
+/**
+ * badiff - byte array diff - fast pure-java byte-level diffing
+ * 
+ * Copyright (c) 2013, Robin Kirkman All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ * 2) Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 3) Neither the name of the badiff nor the names of its contributors may be 
+ *    used to endorse or promote products derived from this software without 
+ *    specific prior written permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.badiff.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.badiff.Op;
+
+/**
+ * {@link OutputStream} that remembers the last {@link #window} bytes written through it,
+ * so that {@link Op#COPY} operations can repeat them.  The memory for the window is
+ * allocated as the output grows, up to {@link #window} bytes.
+ * @author robin
+ *
+ */
+public class HistoryOutputStream extends FilterOutputStream {
+	/**
+	 * Default number of bytes remembered
+	 */
+	public static final int DEFAULT_WINDOW = 16 * 1024 * 1024;
+
+	protected int window;
+	/**
+	 * The remembered bytes; byte {@code p} of the output is at {@code p % history.length}
+	 */
+	protected byte[] history = new byte[1024];
+	/**
+	 * Total number of bytes written
+	 */
+	protected long written;
+	protected byte[] scratch = new byte[1024];
+	
+	public HistoryOutputStream(OutputStream out) {
+		this(out, DEFAULT_WINDOW);
+	}
+	
+	public HistoryOutputStream(OutputStream out, int window) {
+		super(out);
+		this.window = window;
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		out.write(b);
+		if(written >= history.length && history.length < window)
+			grow((int) Math.min(window, 2L * history.length));
+		history[(int)(written % history.length)] = (byte) b;
+		written++;
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+		remember(b, off, len);
+	}
+	
+	/**
+	 * Write again the {@code run} bytes starting {@code distance} bytes before the end of
+	 * the output.  If {@code distance} is less than {@code run} the repeated bytes overlap
+	 * the bytes being written, as in LZ77.
+	 * @param distance
+	 * @param run
+	 * @throws IOException
+	 */
+	public void copy(long distance, int run) throws IOException {
+		if(distance < 1 || distance > written || distance > window)
+			throw new IOException("copy distance " + distance + " outside the " + Math.min(written, window) + " bytes of history");
+		while(run > 0) {
+			int pos = (int)((written - distance) % history.length);
+			int len = (int) Math.min(Math.min(run, distance), history.length - pos);
+			// the source may be overwritten when the history wraps, so write from a copy
+			if(scratch.length < len)
+				scratch = new byte[Math.max(len, 2 * scratch.length)];
+			System.arraycopy(history, pos, scratch, 0, len);
+			write(scratch, 0, len);
+			run -= len;
+		}
+	}
+	
+	/**
+	 * Returns the number of bytes written
+	 * @return
+	 */
+	public long getWritten() {
+		return written;
+	}
+	
+	protected void remember(byte[] b, int off, int len) {
+		if(len > window) {
+			off += len - window;
+			written += len - window;
+			len = window;
+		}
+		if(written + len > history.length && history.length < window)
+			grow((int) Math.min(window, Math.max(written + len, 2L * history.length)));
+		while(len > 0) {
+			int pos = (int)(written % history.length);
+			int n = Math.min(len, history.length - pos);
+			System.arraycopy(b, off, history, pos, n);
+			off += n;
+			len -= n;
+			written += n;
+		}
+	}
+	
+	/*
+	 * Move the remembered bytes into a larger array
+	 */
+	private void grow(int size) {
+		byte[] grown = new byte[size];
+		long start = Math.max(0, written - history.length);
+		for(long p = start; p < written; ) {
+			int pos = (int)(p % history.length);
+			int n = (int) Math.min(written - p, history.length - pos);
+			int to = (int)(p % size);
+			n = Math.min(n, size - to);
+			System.arraycopy(history, pos, grown, to, n);
+			p += n;
+		}
+		history = grown;
+	}
+	
+}
@@ -1,15 +1,55 @@
 package org.badiff.p;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import org.badiff.Diff;
+import org.badiff.q.FusedOpQueue;
 import org.badiff.q.OpQueue;
 
 public class Pipeline {
 
 	protected OpQueue q;
+	/**
+	 * Shared executor for the parallel {@link Pipes} of this pipeline, or {@code null}
+	 * if each parallel stage should create its own
+	 */
+	protected ExecutorService executor;
+	/**
+	 * The chunk size, in bytes, that the splitting and graphing {@link Pipes} of this pipeline use
+	 */
+	protected int chunk = Diff.DEFAULT_CHUNK;
 	
 	public Pipeline(OpQueue q) {
 		this.q = q;
 	}
 	
+	/**
+	 * Create a {@link Pipeline} whose parallel {@link Pipes} run on {@code executor}
+	 * @param q
+	 * @param executor
+	 */
+	public Pipeline(OpQueue q, ExecutorService executor) {
+		this(q, executor, Diff.DEFAULT_CHUNK);
+	}
+	
+	/**
+	 * Create a {@link Pipeline} whose parallel {@link Pipes} run on {@code executor}, which
+	 * may be {@code null}, and whose splitting and graphing {@link Pipes} use chunks of
+	 * {@code chunk} bytes
+	 * @param q
+	 * @param executor
+	 * @param chunk
+	 */
+	public Pipeline(OpQueue q, ExecutorService executor, int chunk) {
+		if(chunk < 1)
+			throw new IllegalArgumentException("chunk must be >= 1");
+		this.q = q;
+		this.executor = executor;
+		this.chunk = chunk;
+	}
+	
 	public Pipeline(OpQueue q, Pipe... pipes) {
 		this(q);
 		this.q = into(pipes).outlet();
@@ -22,8 +62,12 @@ public class Pipeline {
 	
 	public Pipeline into(Pipe... pipes) {
 		Pipeline pl = this;
-		for(Pipe p : pipes)
-			pl = p.from(pl.outlet());
+		for(Pipe p : pipes) {
+			if(p instanceof Pipes)
+				pl = ((Pipes) p).from(pl.outlet(), executor, chunk);
+			else
+				pl = new Pipeline(p.from(pl.outlet()).outlet(), executor, chunk);
+		}
 		return pl;
 	}
 	
@@ -31,8 +75,52 @@ public class Pipeline {
 		return into(Pipes.fromCodes(codes));
 	}
 
+	/**
+	 * Pipe into {@code pipes} as {@link #into(Pipe...)} does, but run each stretch of
+	 * consecutive {@link Pipes} that have a {@link Pipes#stage()} as one {@link FusedOpQueue}.
+	 * The output is the same as that of {@link #into(Pipe...)}.
+	 * @param pipes
+	 * @return
+	 */
+	public Pipeline compile(Pipe... pipes) {
+		Pipeline pl = this;
+		List<FusedOpQueue.Stage> stages = new ArrayList<FusedOpQueue.Stage>();
+		for(Pipe p : pipes) {
+			FusedOpQueue.Stage s = (p instanceof Pipes) ? ((Pipes) p).stage() : null;
+			if(s != null) {
+				stages.add(s);
+				continue;
+			}
+			pl = pl.fuse(stages).into(p);
+		}
+		return pl.fuse(stages);
+	}
+	
+	public Pipeline compile(String codes) {
+		return compile(Pipes.fromCodes(codes));
+	}
+	
+	/*
+	 * Pipe into a FusedOpQueue of stages, if there are any, and clear them
+	 */
+	private Pipeline fuse(List<FusedOpQueue.Stage> stages) {
+		if(stages.isEmpty())
+			return this;
+		OpQueue fused = new FusedOpQueue(q, stages.toArray(new FusedOpQueue.Stage[stages.size()]));
+		stages.clear();
+		return new Pipeline(fused, executor, chunk);
+	}
+
 	public OpQueue outlet() {
 		return q;
 	}
+	
+	public ExecutorService executor() {
+		return executor;
+	}
+	
+	public int chunk() {
+		return chunk;
+	}
 
 }
@@ -1,30 +1,51 @@
 package org.badiff.p;
 
+import java.util.concurrent.ExecutorService;
+
+import org.badiff.Diff;
 import org.badiff.alg.GraphFactory;
 import org.badiff.alg.InertialGraph;
+import org.badiff.alg.ParallelInertialGraph;
+import org.badiff.alg.SuffixArrayGraph;
+import org.badiff.q.AnchoringOpQueue;
 import org.badiff.q.ChunkingOpQueue;
 import org.badiff.q.CoalescingOpQueue;
 import org.badiff.q.CompactingOpQueue;
+import org.badiff.q.ForwardingOpQueue;
+import org.badiff.q.FusedOpQueue;
 import org.badiff.q.GraphOpQueue;
 import org.badiff.q.OneWayOpQueue;
 import org.badiff.q.OpQueue;
 import org.badiff.q.ParallelGraphOpQueue;
+import org.badiff.q.ParallelPostProcessingOpQueue;
 import org.badiff.q.PumpingOpQueue;
 import org.badiff.q.RewindingOpQueue;
+import org.badiff.q.TargetCopyingOpQueue;
+import org.badiff.q.TrimmingOpQueue;
 import org.badiff.q.UnchunkingOpQueue;
 import org.badiff.q.UndoOpQueue;
 
 public enum Pipes implements Pipe {
+	ANCHOR('A'),
 	SPLIT('s'),
+	CONTENT_SPLIT('S'),
+	BANDED_GRAPH('B'),
 	COALESS('c'),
 	COMPACT('C'),
+	FORWARD('F'),
 	GRAPH('g'),
+	MYERS_GRAPH('M'),
 	ONE_WAY('o'),
 	PARALLEL_GRAPH('G'),
+	PARALLEL_POST_PROCESS('P'),
 	PUMP('p'),
 	REWIND('r'),
 	UNCHUNK('u'),
 	UNDO('U'),
+	WAVEFRONT_GRAPH('W'),
+	SUFFIX_GRAPH('X'),
+	TARGET_COPY('T'),
+	TRIM('t'),
 	;
 	
 	private char code;
@@ -60,9 +81,42 @@ public enum Pipes implements Pipe {
 	
 	@Override
 	public Pipeline from(OpQueue q) {
+		return from(q, null);
+	}
+	
+	/**
+	 * Pipe {@code q} through this pipe, running any parallel graphing on {@code executor}
+	 * instead of a thread pool per queue.  {@code executor} may be {@code null}.
+	 * @param q
+	 * @param executor
+	 * @return
+	 */
+	public Pipeline from(OpQueue q, ExecutorService executor) {
+		return from(q, executor, Diff.DEFAULT_CHUNK);
+	}
+	
+	/**
+	 * Pipe {@code q} through this pipe as {@link #from(OpQueue, ExecutorService)} does, splitting
+	 * into chunks of {@code chunk} bytes and sizing graphs for them.  Tiles of {@link #WAVEFRONT_GRAPH}
+	 * are never computed on {@code executor}, whose threads may be the ones waiting on them.
+	 * @param q
+	 * @param executor
+	 * @param chunk
+	 * @return
+	 */
+	public Pipeline from(OpQueue q, ExecutorService executor, int chunk) {
 		switch(this) {
+		case ANCHOR:
+			q = new AnchoringOpQueue(q);
+			break;
 		case SPLIT:
-			q = new ChunkingOpQueue(q);
+			q = new ChunkingOpQueue(q, chunk);
+			break;
+		case CONTENT_SPLIT:
+			q = new ChunkingOpQueue(q, chunk, true);
+			break;
+		case BANDED_GRAPH:
+			q = parallel(q, GraphFactory.BANDED_INERTIAL_GRAPH, executor, chunk);
 			break;
 		case COALESS:
 			q = new CoalescingOpQueue(q);
@@ -70,14 +124,26 @@ public enum Pipes implements Pipe {
 		case COMPACT:
 			q = new CompactingOpQueue(q);
 			break;
+		case FORWARD:
+			q = new ForwardingOpQueue(q);
+			break;
 		case GRAPH:
-			q = new GraphOpQueue(q, new InertialGraph());
+			q = new GraphOpQueue(q, new InertialGraph((chunk + 1) * (chunk + 1)));
+			break;
+		case MYERS_GRAPH:
+			q = parallel(q, GraphFactory.MYERS_GRAPH, executor, chunk);
 			break;
 		case ONE_WAY:
 			q = new OneWayOpQueue(q);
 			break;
 		case PARALLEL_GRAPH:
-			q = new ParallelGraphOpQueue(q, GraphFactory.INERTIAL_GRAPH);
+			q = parallel(q, GraphFactory.INERTIAL_GRAPH, executor, chunk);
+			break;
+		case PARALLEL_POST_PROCESS:
+			if(executor == null)
+				q = new ParallelPostProcessingOpQueue(q);
+			else
+				q = new ParallelPostProcessingOpQueue(q, executor, 2 * Runtime.getRuntime().availableProcessors(), ParallelPostProcessingOpQueue.DEFAULT_PARTITION);
 			break;
 		case PUMP:
 			q = new PumpingOpQueue(q);
@@ -91,10 +157,53 @@ public enum Pipes implements Pipe {
 		case UNDO:
 			q = new UndoOpQueue(q);
 			break;
+		case WAVEFRONT_GRAPH:
+			q = new GraphOpQueue(q, new ParallelInertialGraph((chunk + 1) * (chunk + 1)));
+			break;
+		case SUFFIX_GRAPH:
+			q = new GraphOpQueue(q, new SuffixArrayGraph());
+			break;
+		case TARGET_COPY:
+			q = new TargetCopyingOpQueue(q);
+			break;
+		case TRIM:
+			q = new TrimmingOpQueue(q);
+			break;
 		default:
 			throw new UnsupportedOperationException();
 		}
-		return new Pipeline(q);
+		return new Pipeline(q, executor, chunk);
+	}
+	
+	/**
+	 * Return a new {@link FusedOpQueue.Stage} that does the work of this pipe,
+	 * or {@code null} if this pipe cannot be fused
+	 * @return
+	 */
+	public FusedOpQueue.Stage stage() {
+		switch(this) {
+		case COALESS:
+			return FusedOpQueue.coalescing();
+		case COMPACT:
+			return FusedOpQueue.compacting();
+		case ONE_WAY:
+			return FusedOpQueue.oneWay();
+		case REWIND:
+			return FusedOpQueue.rewinding();
+		case UNCHUNK:
+			return FusedOpQueue.unchunking();
+		case UNDO:
+			return FusedOpQueue.undo();
+		default:
+			return null;
+		}
+	}
+	
+	private static OpQueue parallel(OpQueue q, GraphFactory graphFactory, ExecutorService executor, int chunk) {
+		int workers = Runtime.getRuntime().availableProcessors();
+		if(executor == null)
+			return new ParallelGraphOpQueue(q, workers, chunk, graphFactory);
+		return new ParallelGraphOpQueue(q, executor, workers, chunk, graphFactory);
 	}
 	
 }
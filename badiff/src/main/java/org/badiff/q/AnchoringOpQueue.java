@@ -0,0 +1,358 @@
+/**
+ * badiff - byte array diff - fast pure-java byte-level diffing
+ * 
+ * Copyright (c) 2013, Robin Kirkman All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ * 2) Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 3) Neither the name of the badiff nor the names of its contributors may be 
+ *    used to endorse or promote products derived from this software without 
+ *    specific prior written permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.badiff.q;
+
+import java.util.Arrays;
+
+import org.badiff.Op;
+
+/**
+ * {@link OpQueue} that lazily finds the unchanged regions of pairs of pending
+ * ({@link Op#DELETE},{@link Op#INSERT}) operations before they are graphed.<p>
+ * 
+ * Substrings of length {@code k} ("k-mers") which occur exactly once in both the original
+ * and the target are used as anchors.  Anchors which are in the same order in both are extended
+ * as far as they match in either direction and emitted as {@link Op#NEXT}, and the gaps between
+ * them are emitted as ({@link Op#DELETE},{@link Op#INSERT}) pairs.  Only the gaps then need
+ * graphing, so this should precede chunking and graphing, such as by {@link ChunkingOpQueue}
+ * and {@link ParallelGraphOpQueue}.<p>
+ * 
+ * To bound memory, only k-mers whose hash is a multiple of the sample rate are considered.
+ * Sampling depends only on content, so the same k-mers are considered in both the original
+ * and the target.  Finding anchors takes time linear in the length of the pair.
+ * @author robin
+ *
+ */
+public class AnchoringOpQueue extends FilterOpQueue {
+	/**
+	 * The default length of an anchor
+	 */
+	public static final int DEFAULT_K = 32;
+	/**
+	 * The default sample rate of k-mers
+	 */
+	public static final int DEFAULT_SAMPLE = 32;
+	
+	private static final long PRIME = 0x100000001B3L;
+	
+	/**
+	 * The length of an anchor
+	 */
+	protected int k;
+	/**
+	 * One in how many k-mers are considered as anchors
+	 */
+	protected int sample;
+	
+	/**
+	 * Create an {@link AnchoringOpQueue} with the default anchor length and sample rate
+	 * @param source
+	 */
+	public AnchoringOpQueue(OpQueue source) {
+		this(source, DEFAULT_K, DEFAULT_SAMPLE);
+	}
+	
+	/**
+	 * Create an {@link AnchoringOpQueue} with the specified anchor length and sample rate
+	 * @param source
+	 * @param k
+	 * @param sample
+	 */
+	public AnchoringOpQueue(OpQueue source, int k, int sample) {
+		super(source);
+		if(k < 1)
+			throw new IllegalArgumentException("k must be >= 1");
+		if(sample < 1)
+			throw new IllegalArgumentException("sample must be >= 1");
+		this.k = k;
+		this.sample = sample;
+	}
+	
+	@Override
+	protected boolean pull() {
+		/*
+		 * Look for a (DELETE,INSERT) or (INSERT,DELETE) pair at the head of the pending queue
+		 */
+		if(!require(2))
+			return flush();
+		
+		Op delete;
+		Op insert;
+		if(filtering.get(0).getOp() == Op.DELETE && filtering.get(1).getOp() == Op.INSERT) {
+			delete = filtering.pop();
+			insert = filtering.pop();
+		} else if(filtering.get(0).getOp() == Op.INSERT && filtering.get(1).getOp() == Op.DELETE) {
+			insert = filtering.pop();
+			delete = filtering.pop();
+		} else {
+			// the second op may begin a pair
+			prepare(filtering.pop());
+			return true;
+		}
+		
+		if(delete.getDataArray() == null) {
+			prepare(delete);
+			prepare(insert);
+			return true;
+		}
+		
+		anchor(delete.getData(), insert.getData());
+		
+		return true;
+	}
+	
+	/**
+	 * Prepare the {@link Op}s transforming {@code orig} into {@code target}
+	 * @param orig
+	 * @param target
+	 */
+	protected void anchor(byte[] orig, byte[] target) {
+		int[] anchors = order(anchors(orig, target));
+		
+		int oend = 0;
+		int tend = 0;
+		for(int i = 0; i < anchors.length; i += 2) {
+			int o = anchors[i];
+			int t = anchors[i+1];
+			if(o < oend || t < tend)
+				continue; // already covered by the previous match
+			
+			// extend the match in both directions
+			while(o > oend && t > tend && orig[o-1] == target[t-1]) {
+				o--;
+				t--;
+			}
+			int len = anchors[i] - o + k;
+			while(o + len < orig.length && t + len < target.length && orig[o + len] == target[t + len])
+				len++;
+			
+			gap(orig, oend, o, target, tend, t);
+			prepare(new Op(Op.NEXT, len, null));
+			
+			oend = o + len;
+			tend = t + len;
+		}
+		
+		gap(orig, oend, orig.length, target, tend, target.length);
+	}
+	
+	/**
+	 * Prepare a ({@link Op#DELETE},{@link Op#INSERT}) pair for unmatched regions
+	 */
+	private void gap(byte[] orig, int ofrom, int oto, byte[] target, int tfrom, int tto) {
+		if(oto > ofrom)
+			prepare(new Op(Op.DELETE, oto - ofrom, Arrays.copyOfRange(orig, ofrom, oto)));
+		if(tto > tfrom)
+			prepare(new Op(Op.INSERT, tto - tfrom, Arrays.copyOfRange(target, tfrom, tto)));
+	}
+	
+	/**
+	 * Returns the positions of anchors as pairs of (original offset, target offset),
+	 * in order of target offset
+	 * @param orig
+	 * @param target
+	 * @return
+	 */
+	protected int[] anchors(byte[] orig, byte[] target) {
+		if(orig.length < k || target.length < k)
+			return new int[0];
+		
+		Index oindex = index(orig);
+		Index tindex = index(target);
+		
+		int[] anchors = new int[16];
+		int count = 0;
+		
+		long pow = pow();
+		long h = 0;
+		for(int i = 0; i < target.length; i++) {
+			h = h * PRIME + (target[i] & 0xff);
+			if(i >= k)
+				h -= (target[i - k] & 0xff) * pow;
+			if(i < k - 1 || !sampled(h))
+				continue;
+			int t = i - k + 1;
+			if(tindex.get(h) != t)
+				continue; // not unique in the target
+			int o = oindex.get(h);
+			if(o < 0 || !equal(orig, o, target, t))
+				continue; // not unique in the original, or a hash collision
+			if(count == anchors.length)
+				anchors = Arrays.copyOf(anchors, anchors.length * 2);
+			anchors[count++] = o;
+			anchors[count++] = t;
+		}
+		
+		return Arrays.copyOf(anchors, count);
+	}
+	
+	/**
+	 * Returns the longest subsequence of the argument anchors which is in order
+	 * in both the original and the target
+	 * @param anchors Pairs of (original offset, target offset) in order of target offset
+	 * @return
+	 */
+	protected static int[] order(int[] anchors) {
+		int n = anchors.length / 2;
+		int[] tails = new int[n]; // index of the smallest tail of a subsequence of each length
+		int[] prev = new int[n];
+		int len = 0;
+		for(int i = 0; i < n; i++) {
+			int o = anchors[2*i];
+			int lo = 0;
+			int hi = len;
+			while(lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if(anchors[2*tails[mid]] < o)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			prev[i] = lo > 0 ? tails[lo - 1] : -1;
+			tails[lo] = i;
+			if(lo == len)
+				len++;
+		}
+		
+		int[] ordered = new int[2 * len];
+		for(int i = len - 1, j = len > 0 ? tails[len - 1] : -1; i >= 0; i--, j = prev[j]) {
+			ordered[2*i] = anchors[2*j];
+			ordered[2*i+1] = anchors[2*j+1];
+		}
+		return ordered;
+	}
+	
+	/**
+	 * Index the sampled k-mers of {@code buf} by their hash
+	 * @param buf
+	 * @return
+	 */
+	private Index index(byte[] buf) {
+		Index index = new Index(buf.length / sample);
+		long pow = pow();
+		long h = 0;
+		for(int i = 0; i < buf.length; i++) {
+			h = h * PRIME + (buf[i] & 0xff);
+			if(i >= k)
+				h -= (buf[i - k] & 0xff) * pow;
+			if(i >= k - 1 && sampled(h))
+				index.put(h, i - k + 1);
+		}
+		return index;
+	}
+	
+	/**
+	 * Returns {@link #PRIME} to the power of {@link #k}
+	 * @return
+	 */
+	private long pow() {
+		long pow = 1;
+		for(int i = 0; i < k; i++)
+			pow *= PRIME;
+		return pow;
+	}
+	
+	private boolean sampled(long h) {
+		return ((h * 0x9E3779B97F4A7C15L) >>> 1) % sample == 0;
+	}
+	
+	private boolean equal(byte[] orig, int o, byte[] target, int t) {
+		for(int i = 0; i < k; i++)
+			if(orig[o + i] != target[t + i])
+				return false;
+		return true;
+	}
+	
+	/**
+	 * Open-addressed map of hashes to the offset of the only k-mer with that hash
+	 * @author robin
+	 *
+	 */
+	private static class Index {
+		private static final int EMPTY = -1;
+		private static final int DUPLICATE = -2;
+		
+		private long[] keys;
+		private int[] values;
+		private int size;
+		
+		public Index(int expected) {
+			int capacity = Integer.highestOneBit(Math.max(16, expected) * 2 + 1);
+			keys = new long[capacity];
+			values = new int[capacity];
+			Arrays.fill(values, EMPTY);
+		}
+		
+		private int slot(long h) {
+			int mask = keys.length - 1;
+			int i = (int)(h ^ (h >>> 32)) & mask;
+			while(values[i] != EMPTY && keys[i] != h)
+				i = (i + 1) & mask;
+			return i;
+		}
+		
+		public void put(long h, int offset) {
+			int i = slot(h);
+			if(values[i] != EMPTY) {
+				values[i] = DUPLICATE;
+				return;
+			}
+			keys[i] = h;
+			values[i] = offset;
+			if(++size * 2 > keys.length)
+				grow();
+		}
+		
+		/**
+		 * Returns the offset of the only k-mer with the hash, or a negative number if there
+		 * is no such k-mer or more than one
+		 * @param h
+		 * @return
+		 */
+		public int get(long h) {
+			return values[slot(h)];
+		}
+		
+		private void grow() {
+			long[] oldKeys = keys;
+			int[] oldValues = values;
+			keys = new long[oldKeys.length * 2];
+			values = new int[oldValues.length * 2];
+			Arrays.fill(values, EMPTY);
+			for(int i = 0; i < oldKeys.length; i++) {
+				if(oldValues[i] == EMPTY)
+					continue;
+				int j = slot(oldKeys[i]);
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+}
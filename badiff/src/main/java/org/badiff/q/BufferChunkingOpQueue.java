@@ -52,22 +52,35 @@ public class BufferChunkingOpQueue extends OpQueue {
 	
 	@Override
 	protected boolean pull() {
-		byte[] obuf = readChunk(orig);
-		byte[] tbuf = readChunk(target);
+		Op delete = readChunk(orig, Op.DELETE);
+		Op insert = readChunk(target, Op.INSERT);
 
-		if(obuf != null)
-			prepare(new Op(Op.DELETE, obuf.length, obuf));
-		if(tbuf != null)
-			prepare(new Op(Op.INSERT, tbuf.length, tbuf));
+		if(delete != null)
+			prepare(delete);
+		if(insert != null)
+			prepare(insert);
 		
-		return obuf != null || tbuf != null;
+		return delete != null || insert != null;
 	}
 	
-	protected byte[] readChunk(ByteBuffer in) {
+	/**
+	 * Read a chunk from the {@link ByteBuffer} as an {@link Op}.  Array-backed buffers
+	 * are sliced in place rather than copied.
+	 * @param in
+	 * @param op
+	 * @return
+	 */
+	protected Op readChunk(ByteBuffer in, byte op) {
 		if(in.remaining() == 0)
 			return null;
-		byte[] buf = new byte[Math.min(chunk, in.remaining())];
+		int len = Math.min(chunk, in.remaining());
+		if(in.hasArray()) {
+			Op e = new Op(op, len, in.array(), in.arrayOffset() + in.position());
+			in.position(in.position() + len);
+			return e;
+		}
+		byte[] buf = new byte[len];
 		in.get(buf);
-		return buf;
+		return new Op(op, len, buf);
 	}
 }
@@ -30,6 +30,7 @@
 package org.badiff.q;
 
 import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Deque;
 
 import org.badiff.Op;
@@ -47,6 +48,11 @@ public class ChainOpQueue extends OpQueue {
 	 * The queue of {@link OpQueue} to draw elements from
 	 */
 	protected Deque<OpQueue> chain = new ArrayDeque<OpQueue>();
+	
+	/**
+	 * Scratch space for batches drawn by {@link #pollBatch(Op[], int)}
+	 */
+	private Op[] rest;
 
 	/**
 	 * Create a new {@link OpQueue} that draws its elements from the argument {@link OpQueue}s
@@ -100,5 +106,28 @@ public class ChainOpQueue extends OpQueue {
 		}
 		return false;
 	}
+	
+	/**
+	 * Draws batches directly from the queues in the chain
+	 */
+	@Override
+	public int pollBatch(Op[] dst, int max) {
+		int n = super.pollBatch(dst, max);
+		if(n == 0 || n == max || !prepared.isEmpty())
+			return n;
+		if(rest == null || rest.length < max - n)
+			rest = new Op[max - n];
+		while(n < max && chain.size() > 0) {
+			int m = chain.peekFirst().pollBatch(rest, max - n);
+			if(m == 0) {
+				chain.pollFirst();
+				continue;
+			}
+			System.arraycopy(rest, 0, dst, n, m);
+			Arrays.fill(rest, 0, m, null);
+			n += m;
+		}
+		return n;
+	}
 
 }
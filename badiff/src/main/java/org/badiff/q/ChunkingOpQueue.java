@@ -29,6 +29,8 @@
  */
 package org.badiff.q;
 
+import java.io.ByteArrayInputStream;
+
 import org.badiff.Diff;
 import org.badiff.Op;
 import org.badiff.alg.EditGraph;
@@ -41,7 +43,8 @@ import org.badiff.alg.EditGraph;
  * whose {@link Op#getRun()} length is no greater than the chunk size.<p>
  * 
  * Chunking is used primarily to pre-process input to other algorithms,
- * such as {@link EditGraph}, into manageable sizes.
+ * such as {@link EditGraph}, into manageable sizes.  Chunks are cut at fixed
+ * offsets, or if content-defined, as by {@link ContentChunkingOpQueue}.
  * @author robin
  *
  */
@@ -51,6 +54,10 @@ public class ChunkingOpQueue extends FilterOpQueue {
 	 * The chunk size
 	 */
 	protected int chunk;
+	/**
+	 * Whether chunk boundaries are chosen by content
+	 */
+	protected boolean contentDefined;
 	
 	/**
 	 * Create a {@link ChunkingOpQueue} with a default chunk size
@@ -66,8 +73,20 @@ public class ChunkingOpQueue extends FilterOpQueue {
 	 * @param chunk
 	 */
 	public ChunkingOpQueue(OpQueue source, int chunk) {
+		this(source, chunk, false);
+	}
+	
+	/**
+	 * Create a {@link ChunkingOpQueue} with a specified chunk size, which
+	 * optionally chooses chunk boundaries by content
+	 * @param source
+	 * @param chunk
+	 * @param contentDefined
+	 */
+	public ChunkingOpQueue(OpQueue source, int chunk, boolean contentDefined) {
 		super(source);
 		this.chunk = chunk;
+		this.contentDefined = contentDefined;
 	}
 
 	@Override
@@ -78,37 +97,56 @@ public class ChunkingOpQueue extends FilterOpQueue {
 		if(!require(2))
 			return flush();
 		
-		if(filtering.get(0).getOp() != Op.DELETE || filtering.get(1).getOp() != Op.INSERT)
-			return flush();
+		if(filtering.get(0).getOp() != Op.DELETE || filtering.get(1).getOp() != Op.INSERT) {
+			// the second op may begin a pair
+			prepare(filtering.pop());
+			return true;
+		}
 		
 		Op delete = filtering.get(0);
 		Op insert = filtering.get(1);
 		
-		filtering.remove(1);
-		filtering.remove(0);
+		filtering.pop();
+		filtering.pop();
 		
 		/*
 		 * Chunk the delete and insert
 		 */
 		
-		byte[] ddata = delete.getData();
-		byte[] idata = insert.getData();
+		if(delete.getDataArray() == null) {
+			prepare(delete);
+			prepare(insert);
+			return true;
+		}
+		
+		byte[] ddata = delete.getDataArray();
+		byte[] idata = insert.getDataArray();
+		int dpos = delete.getDataOffset();
+		int ipos = insert.getDataOffset();
+		int dend = dpos + delete.getDataLength();
+		int iend = ipos + insert.getDataLength();
 		
-		int dpos = 0;
-		int ipos = 0;
+		if(contentDefined) {
+			prepareAll(new ContentChunkingOpQueue(
+					new ByteArrayInputStream(ddata, dpos, dend - dpos), 
+					new ByteArrayInputStream(idata, ipos, iend - ipos), 
+					chunk));
+			return true;
+		}
 		
-		while(dpos < ddata.length || ipos < idata.length) {
-			if(dpos < ddata.length) {
-				byte[] data = new byte[Math.min(chunk, ddata.length - dpos)];
-				System.arraycopy(ddata, dpos, data, 0, data.length);
-				prepare(new Op(Op.DELETE, data.length, data));
-				dpos += data.length;
+		/*
+		 * The chunks are slices of the original data, not copies
+		 */
+		while(dpos < dend || ipos < iend) {
+			if(dpos < dend) {
+				int len = Math.min(chunk, dend - dpos);
+				prepare(new Op(Op.DELETE, len, ddata, dpos));
+				dpos += len;
 			}
-			if(ipos < idata.length) {
-				byte[] data = new byte[Math.min(chunk, idata.length - ipos)];
-				System.arraycopy(idata, ipos, data, 0, data.length);
-				prepare(new Op(Op.INSERT, data.length, data));
-				ipos += data.length;
+			if(ipos < iend) {
+				int len = Math.min(chunk, iend - ipos);
+				prepare(new Op(Op.INSERT, len, idata, ipos));
+				ipos += len;
 			}
 		}
 		
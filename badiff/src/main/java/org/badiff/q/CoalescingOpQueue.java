@@ -59,12 +59,12 @@ public class CoalescingOpQueue extends FilterOpQueue {
 
 				if(Arrays.equals(insert.getData(), delete.getData())) {
 					drop(2);
-					filtering.add(0, new Op(Op.NEXT, insert.getData().length, null));
+					filtering.push(new Op(Op.NEXT, insert.getData().length, null));
 					continue;
 				}
 
 				// bump the pair into the ready queue
-				prepare(filtering.remove(0));
+				prepare(filtering.pop());
 				return true;
 			}
 			if(filtering.get(0).getOp() == Op.DELETE && filtering.get(1).getOp() == Op.INSERT) {
@@ -73,21 +73,21 @@ public class CoalescingOpQueue extends FilterOpQueue {
 
 				if(Arrays.equals(delete.getData(), insert.getData())) {
 					drop(2);
-					filtering.add(0, new Op(Op.NEXT, insert.getData().length, null));
+					filtering.push(new Op(Op.NEXT, insert.getData().length, null));
 					continue;
 				}
 
 				// bump the pair into the ready queue
-				prepare(filtering.remove(0));
+				prepare(filtering.pop());
 				return true;
 			}
 			if(filtering.get(0).getOp() == Op.NEXT && filtering.get(1).getOp() == Op.NEXT) {
-				Op n1 = filtering.remove(0);
-				Op n2 = filtering.remove(0);
-				filtering.add(0, new Op(Op.NEXT, n1.getRun() + n2.getRun(), null));
+				Op n1 = filtering.pop();
+				Op n2 = filtering.pop();
+				filtering.push(new Op(Op.NEXT, n1.getRun() + n2.getRun(), null));
 				continue;
 			}
-			prepare(filtering.remove(0));
+			prepare(filtering.pop());
 		}
 		return flush();
 	}
@@ -1,9 +1,14 @@
 package org.badiff.q;
 
-import java.util.Arrays;
-
 import org.badiff.Op;
 
+/**
+ * {@link OpQueue} that merges runs of adjacent {@link Op}s with the same operation.
+ * The data of a merged run is copied once into an array of its total length, or not at
+ * all if the run's data are adjacent slices of the same array.
+ * @author robin
+ *
+ */
 public class CompactingOpQueue extends FilterOpQueue {
 
 	public CompactingOpQueue(OpQueue source) {
@@ -12,24 +17,78 @@ public class CompactingOpQueue extends FilterOpQueue {
 
 	@Override
 	protected boolean pull() {
-		if(!require(2))
-			return flush();
-
-		while(filtering.get(0).getOp() == filtering.get(1).getOp()) {
-			Op e1 = filtering.remove(0);
-			Op e2 = filtering.remove(0);
-			byte[] data = null;
-			if(e1.getData() != null && e2.getData() != null) {
-				data = Arrays.copyOf(e1.getData(), e1.getData().length + e2.getData().length);
-				System.arraycopy(e2.getData(), 0, data, e1.getData().length, e2.getData().length);
+		if(!require(1))
+			return false;
+		
+		byte op = filtering.get(0).getOp();
+		int count = 1;
+		while(op != Op.COPY && require(count + 1) && filtering.get(count).getOp() == op)
+			count++;
+		
+		prepare(merge(count));
+		return true;
+	}
+	
+	/**
+	 * Remove the first {@code count} elements of {@link #filtering} and return
+	 * a single {@link Op} covering all of them
+	 * @param count
+	 * @return
+	 */
+	protected Op merge(int count) {
+		return merge(filtering, count);
+	}
+	
+	/**
+	 * Remove the first {@code count} elements of {@code ops} and return
+	 * a single {@link Op} covering all of them
+	 * @param ops
+	 * @param count
+	 * @return
+	 */
+	protected static Op merge(OpDeque ops, int count) {
+		if(count == 1)
+			return ops.pop();
+		
+		Op first = ops.get(0);
+		byte[] array = first.getDataArray();
+		int end = first.getDataOffset();
+		boolean hasData = true;
+		boolean adjacent = true;
+		int run = 0;
+		int length = 0;
+		for(int i = 0; i < count; i++) {
+			Op e = ops.get(i);
+			run += e.getRun();
+			if(e.getDataArray() == null) {
+				hasData = false;
+				continue;
 			}
-			filtering.add(0, new Op(e1.getOp(), e1.getRun() + e2.getRun(), data));
-			if(!require(2))
-				return flush();
+			adjacent &= e.getDataArray() == array && e.getDataOffset() == end && e.getDataLength() == e.getRun();
+			end = e.getDataOffset() + e.getDataLength();
+			length += e.getDataLength();
 		}
 		
-		prepare(filtering.remove(0));
-		return true;
+		if(!hasData) {
+			for(int i = 0; i < count; i++)
+				ops.pop();
+			return new Op(first.getOp(), run, null);
+		}
+		
+		if(adjacent && run > 0) {
+			for(int i = 0; i < count; i++)
+				ops.pop();
+			return new Op(first.getOp(), run, array, first.getDataOffset());
+		}
+		
+		byte[] data = new byte[length];
+		int pos = 0;
+		for(int i = 0; i < count; i++) {
+			Op e = ops.pop();
+			System.arraycopy(e.getDataArray(), e.getDataOffset(), data, pos, e.getDataLength());
+			pos += e.getDataLength();
+		}
+		return new Op(first.getOp(), run, data);
 	}
 	
 }
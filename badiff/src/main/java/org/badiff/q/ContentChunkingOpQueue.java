@@ -0,0 +1,249 @@
+/**
+ * badiff - byte array diff - fast pure-java byte-level diffing
+ * 
+ * Copyright (c) 2013, Robin Kirkman All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ * 2) Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 3) Neither the name of the badiff nor the names of its contributors may be 
+ *    used to endorse or promote products derived from this software without 
+ *    specific prior written permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.badiff.q;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.badiff.Diff;
+import org.badiff.Op;
+import org.badiff.io.RandomInput;
+import org.badiff.io.RandomInputStream;
+import org.badiff.io.RuntimeIOException;
+import org.badiff.util.Chunks;
+
+/**
+ * {@link OpQueue} lazily populated with chunks of the original and target whose boundaries
+ * are chosen by their content, as in {@link Chunks}.  Unlike {@link RandomChunkingOpQueue}
+ * and {@link StreamChunkingOpQueue}, which cut at fixed offsets, an insertion or deletion
+ * only changes the chunks around it.  Chunks that are identical in the original and target
+ * are emitted as {@link Op#NEXT}, and the chunks between identical chunks are emitted as
+ * alternating {@link Op#DELETE} and {@link Op#INSERT} for graphing.<p>
+ * 
+ * Chunks are never longer than the chunk size, so graphs sized for the chunk size can graph them.
+ * @author robin
+ *
+ */
+public class ContentChunkingOpQueue extends OpQueue {
+	/**
+	 * How many chunks ahead to look on each side for a chunk common to both sides
+	 */
+	public static final int DEFAULT_WINDOW = 4;
+	
+	protected InputStream orig;
+	protected InputStream target;
+	protected int chunk;
+	protected int window;
+	
+	protected Side origSide;
+	protected Side targetSide;
+	
+	/**
+	 * Create a {@link ContentChunkingOpQueue} with the default chunk size
+	 * @param orig
+	 * @param target
+	 */
+	public ContentChunkingOpQueue(RandomInput orig, RandomInput target) {
+		this(orig, target, Diff.DEFAULT_CHUNK);
+	}
+	
+	/**
+	 * Create a {@link ContentChunkingOpQueue} with the specified maximum chunk size
+	 * @param orig The source of {@link Op#DELETE} chunks
+	 * @param target The source of {@link Op#INSERT} chunks
+	 * @param chunk
+	 */
+	public ContentChunkingOpQueue(RandomInput orig, RandomInput target, int chunk) {
+		this(new RandomInputStream(orig), new RandomInputStream(target), chunk);
+	}
+	
+	/**
+	 * Create a {@link ContentChunkingOpQueue} with the default chunk size
+	 * @param orig
+	 * @param target
+	 */
+	public ContentChunkingOpQueue(InputStream orig, InputStream target) {
+		this(orig, target, Diff.DEFAULT_CHUNK);
+	}
+	
+	/**
+	 * Create a {@link ContentChunkingOpQueue} with the specified maximum chunk size
+	 * @param orig The source of {@link Op#DELETE} chunks
+	 * @param target The source of {@link Op#INSERT} chunks
+	 * @param chunk
+	 */
+	public ContentChunkingOpQueue(InputStream orig, InputStream target, int chunk) {
+		this(orig, target, chunk, DEFAULT_WINDOW);
+	}
+	
+	/**
+	 * Create a {@link ContentChunkingOpQueue} with the specified maximum chunk size
+	 * and number of chunks of look-ahead
+	 * @param orig The source of {@link Op#DELETE} chunks
+	 * @param target The source of {@link Op#INSERT} chunks
+	 * @param chunk
+	 * @param window
+	 */
+	public ContentChunkingOpQueue(InputStream orig, InputStream target, int chunk, int window) {
+		if(chunk < 1)
+			throw new IllegalArgumentException("chunk must be >= 1");
+		if(window < 1)
+			throw new IllegalArgumentException("window must be >= 1");
+		this.orig = orig;
+		this.target = target;
+		this.chunk = chunk;
+		this.window = window;
+		origSide = new Side(orig);
+		targetSide = new Side(target);
+	}
+	
+	@Override
+	protected boolean pull() {
+		origSide.fill();
+		targetSide.fill();
+		
+		List<byte[]> ochunks = origSide.chunks;
+		List<byte[]> tchunks = targetSide.chunks;
+		
+		if(ochunks.isEmpty() && tchunks.isEmpty())
+			return false;
+		
+		/*
+		 * Find the nearest pair of identical chunks
+		 */
+		int oi = -1;
+		int ti = -1;
+		for(int d = 0; d < ochunks.size() + tchunks.size() - 1 && oi == -1; d++) {
+			for(int i = Math.max(0, d - tchunks.size() + 1); i <= d && i < ochunks.size(); i++) {
+				if(Arrays.equals(ochunks.get(i), tchunks.get(d - i))) {
+					oi = i;
+					ti = d - i;
+					break;
+				}
+			}
+		}
+		
+		if(oi == -1) {
+			// nothing in common within the window, so pair the heads
+			oi = Math.min(1, ochunks.size());
+			ti = Math.min(1, tchunks.size());
+		}
+		
+		/*
+		 * Emit the chunks before the identical chunks
+		 */
+		for(int i = 0; i < Math.max(oi, ti); i++) {
+			if(i < oi) {
+				byte[] obuf = ochunks.remove(0);
+				prepare(new Op(Op.DELETE, obuf.length, obuf));
+			}
+			if(i < ti) {
+				byte[] tbuf = tchunks.remove(0);
+				prepare(new Op(Op.INSERT, tbuf.length, tbuf));
+			}
+		}
+		
+		/*
+		 * Emit the identical chunks, if any
+		 */
+		if(!ochunks.isEmpty() && !tchunks.isEmpty() && Arrays.equals(ochunks.get(0), tchunks.get(0))) {
+			tchunks.remove(0);
+			prepare(new Op(Op.NEXT, ochunks.remove(0).length, null));
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * One side of the diff, which is cut into chunks
+	 * @author robin
+	 *
+	 */
+	protected class Side {
+		/**
+		 * The data source, or {@code null} once exhausted.  It is not closed.
+		 */
+		protected InputStream in;
+		/**
+		 * Bytes read but not yet chunked
+		 */
+		protected byte[] buf = new byte[chunk];
+		protected int len;
+		/**
+		 * Chunks cut but not yet emitted
+		 */
+		protected List<byte[]> chunks = new ArrayList<byte[]>();
+		
+		public Side(InputStream in) {
+			this.in = in;
+		}
+		
+		/**
+		 * Cut chunks until the window is full or the input is exhausted
+		 */
+		public void fill() {
+			while(chunks.size() < window) {
+				byte[] c = next();
+				if(c == null)
+					break;
+				chunks.add(c);
+			}
+		}
+		
+		/**
+		 * Returns the next chunk, or {@code null} if the input is exhausted
+		 * @return
+		 */
+		protected byte[] next() {
+			try {
+				while(in != null && len < buf.length) {
+					int r = in.read(buf, len, buf.length - len);
+					if(r == -1)
+						in = null;
+					else
+						len += r;
+				}
+			} catch(IOException ioe) {
+				throw new RuntimeIOException(ioe);
+			}
+			if(len == 0)
+				return null;
+			int cut = Chunks.boundary(buf, 0, len, chunk);
+			byte[] c = Arrays.copyOf(buf, cut);
+			System.arraycopy(buf, cut, buf, 0, len - cut);
+			len -= cut;
+			return c;
+		}
+	}
+	
+}
@@ -29,9 +29,6 @@
  */
 package org.badiff.q;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import org.badiff.Op;
 
 /**
@@ -48,7 +45,12 @@ public class FilterOpQueue extends OpQueue {
 	/**
 	 * Elements from the source currently being filtered
 	 */
-	protected List<Op> filtering = new ArrayList<Op>();
+	protected OpDeque filtering = new OpDeque();
+	
+	/**
+	 * Scratch space for batches drawn from the source by {@link #require(int)}
+	 */
+	private Op[] batch;
 	
 	/**
 	 * Create a new {@link OpQueue} that draws elements into {@link OpQueue#pending}
@@ -69,36 +71,73 @@ public class FilterOpQueue extends OpQueue {
 	
 	
 	/**
-	 * Require that at least {@code count} elements be in the filtering buffer, polling
-	 * from {@link #source} as necessary.  Returns true if the filtering buffer contains
-	 * the required count of elements, false if not.
+	 * Require that at least {@code count} elements be in the filtering buffer, drawing
+	 * batches from {@link #source} as necessary.  Returns true if the filtering buffer contains
+	 * the required count of elements, false if not.  The buffer may hold more than
+	 * {@code count} elements afterward.
 	 * @param count
 	 * @return
 	 */
 	protected boolean require(int count) {
+		return require(source, count);
+	}
+	
+	/**
+	 * Require that at least {@code count} elements be in the filtering buffer, drawing
+	 * batches of up to {@link OpQueue#DEFAULT_BATCH} from {@code from} as necessary
+	 * @param from
+	 * @param count
+	 * @return
+	 */
+	protected boolean require(OpQueue from, int count) {
 		while(filtering.size() < count) {
-			Op e = source.poll();
-			if(e == null)
+			if(batch == null)
+				batch = new Op[DEFAULT_BATCH];
+			int n = from.pollBatch(batch, batch.length);
+			if(n == 0)
 				return false;
-			filtering.add(e);
+			for(int i = 0; i < n; i++) {
+				filtering.add(batch[i]);
+				batch[i] = null;
+			}
 		}
 		return true;
 	}
 	
 	protected void drop(int count) {
 		while(count-- > 0)
-			filtering.remove(0);
+			filtering.pop();
 	}
 	
 	protected boolean flush() {
 		boolean flushed = false;
 		while(filtering.size() > 0) {
-			prepare(filtering.remove(0));
+			prepare(filtering.pop());
 			flushed = true;
 		}
 		return flushed;
 	}
 	
+	/**
+	 * Draws batches of prepared elements, pulling until {@code dst} is full or
+	 * this {@link FilterOpQueue} is empty
+	 */
+	@Override
+	public int pollBatch(Op[] dst, int max) {
+		int n = 0;
+		if(iterNext != null && max > 0) {
+			dst[n++] = iterNext;
+			iterNext = null;
+		}
+		while(n < max) {
+			if(prepared.isEmpty() && !pull() && prepared.isEmpty())
+				break;
+			for(Op e = prepared.pollFirst(); e != null; e = (n < max ? prepared.pollFirst() : null))
+				dst[n++] = e;
+		}
+		return n;
+	}
+	
 	@Override
 	public String toString() {
 		return getClass().getSimpleName() + " <- " + source;
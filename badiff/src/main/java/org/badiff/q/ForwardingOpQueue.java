@@ -0,0 +1,109 @@
+/**
+ * badiff - byte array diff - fast pure-java byte-level diffing
+ * 
+ * Copyright (c) 2013, Robin Kirkman All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ * 2) Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 3) Neither the name of the badiff nor the names of its contributors may be 
+ *    used to endorse or promote products derived from this software without 
+ *    specific prior written permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.badiff.q;
+
+import org.badiff.Op;
+
+/**
+ * {@link OpQueue} that replaces the parts of {@link Op#INSERT}s that repeat data deleted
+ * a little further on in the original with a skip forward to that data, a {@link Op#NEXT}
+ * over it, and a rewind back again.  This is the complement of {@link RewindingOpQueue}
+ * for blocks moved toward the end of the input.  Like rewinds, the diffs it produces
+ * need a random-access original to apply.<p>
+ * 
+ * Reads the source ahead until the {@link Op}s buffered cover {@link #lookahead} bytes
+ * of the original past the current position, indexing their deleted data as
+ * {@link RewindingOpQueue} indexes deleted data behind it.
+ * @author robin
+ *
+ */
+public class ForwardingOpQueue extends RewindingOpQueue {
+
+	/**
+	 * How far past the current position in the original to look for deleted data
+	 */
+	protected long lookahead;
+	/**
+	 * Position in the original just past the last {@link Op} read from the source
+	 */
+	protected long ahead;
+	
+	public ForwardingOpQueue(OpQueue source) {
+		this(source, 1024*1024);
+	}
+	
+	public ForwardingOpQueue(OpQueue source, long lookahead) {
+		this(source, lookahead, 16);
+	}
+	
+	public ForwardingOpQueue(OpQueue source, long lookahead, int minlength) {
+		super(source, 0, minlength, Integer.MAX_VALUE);
+		this.lookahead = lookahead;
+	}
+	
+	@Override
+	protected boolean pull() {
+		while(ahead - pos <= lookahead) {
+			Op e = source.poll();
+			if(e == null)
+				break;
+			filtering.add(e);
+			if(e.getOp() == Op.DELETE && e.getData() != null && e.getData().length >= minlength)
+				remember(ahead, e.getData());
+			if(e.getOp() == Op.NEXT || e.getOp() == Op.DELETE)
+				ahead += e.getRun();
+		}
+		
+		if(filtering.isEmpty())
+			return false;
+		
+		Op e = filtering.pop();
+		switch(e.getOp()) {
+		case Op.NEXT:
+		case Op.DELETE:
+			pos += e.getRun();
+			deletes.subMap(Long.MIN_VALUE, pos).clear();
+			prepare(e);
+			return true;
+			
+		case Op.INSERT:
+			copy(e);
+			return true;
+			
+		case Op.COPY:
+			prepare(e);
+			return true;
+		}
+		
+		// strange switch fallthrough?
+		return false;
+	}
+	
+}
@@ -0,0 +1,254 @@
+/**
+ * badiff - byte array diff - fast pure-java byte-level diffing
+ * 
+ * Copyright (c) 2013, Robin Kirkman All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ * 2) Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 3) Neither the name of the badiff nor the names of its contributors may be 
+ *    used to endorse or promote products derived from this software without 
+ *    specific prior written permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.badiff.q;
+
+import java.util.Arrays;
+
+import org.badiff.Op;
+
+/**
+ * {@link OpQueue} that runs several per-{@link Op} filters in a single pass.  Where a
+ * chain such as {@link CoalescingOpQueue}, {@link RewindingOpQueue}, {@link UnchunkingOpQueue}
+ * and {@link CompactingOpQueue} buffers every {@link Op} once per queue, a {@link FusedOpQueue}
+ * polls its source in batches and pushes each {@link Op} straight through a chain of
+ * {@link Stage}s, each holding only the little state its filter needs.  The output is
+ * the same as that of the chained queues.
+ * @author robin
+ *
+ */
+public class FusedOpQueue extends FilterOpQueue {
+
+	/**
+	 * One filter of a {@link FusedOpQueue}.  {@link Op}s are pushed in with {@link #push(Op)}
+	 * and passed on with {@link #emit(Op)}.
+	 * @author robin
+	 *
+	 */
+	public static abstract class Stage {
+		protected Stage next;
+		protected FusedOpQueue out;
+		
+		/**
+		 * Accept the next {@link Op} from the previous stage
+		 * @param e
+		 */
+		protected abstract void push(Op e);
+		
+		/**
+		 * Emit any {@link Op}s still held at the end of the input
+		 */
+		protected void finish() {
+		}
+		
+		/**
+		 * Pass {@code e} to the next stage, or to the output of the {@link FusedOpQueue}
+		 * @param e
+		 */
+		protected void emit(Op e) {
+			if(next != null)
+				next.push(e);
+			else
+				out.prepare(e);
+		}
+	}
+	
+	/**
+	 * @return A {@link Stage} that does the work of a {@link CoalescingOpQueue}
+	 */
+	public static Stage coalescing() {
+		return new Stage() {
+			protected Op head;
+			
+			@Override
+			protected void push(Op e) {
+				if(head == null) {
+					head = e;
+					return;
+				}
+				byte h = head.getOp();
+				if(h == Op.INSERT && e.getOp() == Op.DELETE || h == Op.DELETE && e.getOp() == Op.INSERT) {
+					Op insert = (h == Op.INSERT) ? head : e;
+					if(Arrays.equals(head.getData(), e.getData())) {
+						head = new Op(Op.NEXT, insert.getData().length, null);
+						return;
+					}
+				} else if(h == Op.NEXT && e.getOp() == Op.NEXT) {
+					head = new Op(Op.NEXT, head.getRun() + e.getRun(), null);
+					return;
+				}
+				emit(head);
+				head = e;
+			}
+			
+			@Override
+			protected void finish() {
+				if(head != null)
+					emit(head);
+				head = null;
+			}
+		};
+	}
+	
+	/**
+	 * @return A {@link Stage} that does the work of a {@link CompactingOpQueue}
+	 */
+	public static Stage compacting() {
+		return new Stage() {
+			protected OpDeque run = new OpDeque();
+			
+			@Override
+			protected void push(Op e) {
+				if(!run.isEmpty() && (run.get(0).getOp() != e.getOp() || e.getOp() == Op.COPY))
+					emit(CompactingOpQueue.merge(run, run.size()));
+				run.add(e);
+			}
+			
+			@Override
+			protected void finish() {
+				if(!run.isEmpty())
+					emit(CompactingOpQueue.merge(run, run.size()));
+			}
+		};
+	}
+	
+	/**
+	 * @return A {@link Stage} that does the work of a {@link OneWayOpQueue}
+	 */
+	public static Stage oneWay() {
+		return new Stage() {
+			@Override
+			protected void push(Op e) {
+				emit(OneWayOpQueue.strip(e));
+			}
+		};
+	}
+	
+	/**
+	 * @return A {@link Stage} that does the work of a default {@link RewindingOpQueue}
+	 */
+	public static Stage rewinding() {
+		return new Stage() {
+			protected RewindingOpQueue state = new RewindingOpQueue(new OpQueue()) {
+				@Override
+				protected void prepare(Op e) {
+					emit(e);
+				}
+			};
+			
+			@Override
+			protected void push(Op e) {
+				state.rewind(e);
+			}
+		};
+	}
+	
+	/**
+	 * @return A {@link Stage} that does the work of a {@link UnchunkingOpQueue}
+	 */
+	public static Stage unchunking() {
+		return new Stage() {
+			protected OpDeque group = new OpDeque();
+			
+			@Override
+			protected void push(Op e) {
+				if(group.isEmpty() && UnchunkingOpQueue.boundary(e)) {
+					emit(e);
+					return;
+				}
+				group.add(e);
+				if(UnchunkingOpQueue.boundary(e))
+					finish();
+			}
+			
+			@Override
+			protected void finish() {
+				group.sort(UnchunkingOpQueue.OP_ORDER);
+				while(!group.isEmpty())
+					emit(group.pop());
+			}
+		};
+	}
+	
+	/**
+	 * @return A {@link Stage} that does the work of a {@link UndoOpQueue}
+	 */
+	public static Stage undo() {
+		return new Stage() {
+			@Override
+			protected void push(Op e) {
+				emit(UndoOpQueue.undo(e));
+			}
+		};
+	}
+	
+	protected Stage[] stages;
+	protected Op[] batch = new Op[DEFAULT_BATCH];
+	protected boolean finished;
+	
+	/**
+	 * Create a {@link FusedOpQueue} that filters {@code source} through {@code stages}, in order.
+	 * Each {@link Stage} may only be used by one {@link FusedOpQueue}.
+	 * @param source
+	 * @param stages
+	 */
+	public FusedOpQueue(OpQueue source, Stage... stages) {
+		super(source);
+		if(stages.length == 0)
+			throw new IllegalArgumentException("No stages to fuse");
+		this.stages = stages.clone();
+		for(int i = 0; i < stages.length; i++) {
+			if(stages[i].out != null)
+				throw new IllegalArgumentException("Stage already fused");
+			stages[i].out = this;
+			stages[i].next = (i + 1 < stages.length) ? stages[i + 1] : null;
+		}
+	}
+	
+	@Override
+	protected boolean pull() {
+		while(prepared.isEmpty()) {
+			if(finished)
+				return false;
+			int n = source.pollBatch(batch, batch.length);
+			if(n == 0) {
+				finished = true;
+				for(Stage s : stages)
+					s.finish();
+				continue;
+			}
+			for(int i = 0; i < n; i++) {
+				stages[0].push(batch[i]);
+				batch[i] = null;
+			}
+		}
+		return true;
+	}
+	
+}
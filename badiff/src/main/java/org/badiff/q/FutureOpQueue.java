@@ -62,13 +62,7 @@ public class FutureOpQueue extends OpQueue {
 	@Override
 	protected boolean pull() {
 		try {
-			Op e;
-			boolean pulled = false;
-			while((e = source.get().poll()) != null) {
-				prepare(e);
-				pulled = true;
-			}
-			return pulled;
+			return prepareAll(source.get());
 		} catch(InterruptedException ie) {
 			throw new RuntimeException(ie);
 		} catch(ExecutionException ee) {
@@ -32,14 +32,26 @@ package org.badiff.q;
 import org.badiff.Op;
 import org.badiff.alg.EditGraph;
 import org.badiff.alg.Graph;
+import org.badiff.util.Bytes;
 
 /**
  * {@link OpQueue} that replaces ({@link Op#DELETE},{@link Op#INSERT}) pairs
- * with their {@link EditGraph}'d equivalents
+ * with their {@link EditGraph}'d equivalents.  Pairs of the same length which
+ * are equal, or differ only in a few bytes, are replaced without graphing;
+ * see {@link #substitute(Op, Op)}.
  * @author robin
  *
  */
 public class GraphOpQueue extends FilterOpQueue {
+	/**
+	 * The maximum number of runs of differing bytes in a pair replaced by {@link #substitute(Op, Op)}
+	 */
+	public static final int MAX_SUBSTITUTIONS = 8;
+	/**
+	 * The maximum fraction, as a divisor of the pair length, of differing bytes in a pair
+	 * replaced by {@link #substitute(Op, Op)}
+	 */
+	public static final int SUBSTITUTION_DIVISOR = 16;
 	
 	protected Graph graph;
 
@@ -66,19 +78,70 @@ public class GraphOpQueue extends FilterOpQueue {
 		} else if(filtering.get(0).getOp() == Op.INSERT && filtering.get(1).getOp() == Op.DELETE) {
 			delete = filtering.get(1);
 			insert = filtering.get(0);
-		} else
-			return flush();
+		} else {
+			// the second op may begin a pair
+			prepare(filtering.pop());
+			return true;
+		}
+		
+		filtering.pop();
+		filtering.pop();
 		
-		filtering.remove(1);
-		filtering.remove(0);
+		OpQueue substituted = substitute(delete, insert);
+		if(substituted != null) {
+			prepareAll(substituted);
+			return true;
+		}
 		
 		graph.compute(delete.getData(), insert.getData());
-		OpQueue q = graph.queue();
-		for(Op e = q.poll(); e != null; e = q.poll())
-			prepare(e);
+		prepareAll(graph.queue());
 		
 		return true;
 	}
-		
 	
+	/**
+	 * Returns the {@link Op}s transforming the data of {@code delete} into the data of {@code insert}
+	 * without graphing them, or {@code null} if they must be graphed.  They need not be graphed if they
+	 * are the same length and differ in at most {@link #MAX_SUBSTITUTIONS} runs of bytes at the same
+	 * offsets, together at most one {@link #SUBSTITUTION_DIVISOR}th of the length.  Equal pairs become
+	 * a single {@link Op#NEXT}, and each differing run a ({@link Op#DELETE},{@link Op#INSERT}) pair
+	 * sliced from the data.  A pair whose differences shift its content is left to the graph,
+	 * since almost every byte after the shift differs.
+	 * @param delete
+	 * @param insert
+	 * @return
+	 */
+	public static OpQueue substitute(Op delete, Op insert) {
+		if(delete.getRun() != insert.getRun() || delete.getDataArray() == null)
+			return null;
+		
+		byte[] ddata = delete.getDataArray();
+		byte[] idata = insert.getDataArray();
+		int doff = delete.getDataOffset();
+		int ioff = insert.getDataOffset();
+		int len = delete.getRun();
+		
+		OpQueue q = new OpQueue();
+		int runs = 0;
+		int budget = len / SUBSTITUTION_DIVISOR;
+		for(int pos = 0; pos < len;) {
+			int same = Bytes.prefix(ddata, doff + pos, idata, ioff + pos, len - pos);
+			if(same > 0)
+				q.offer(new Op(Op.NEXT, same, null));
+			pos += same;
+			if(pos == len)
+				break;
+			
+			int end = pos + 1;
+			while(end < len && ddata[doff + end] != idata[ioff + end])
+				end++;
+			budget -= end - pos;
+			if(++runs > MAX_SUBSTITUTIONS || budget < 0)
+				return null;
+			q.offer(new Op(Op.DELETE, end - pos, ddata, doff + pos));
+			q.offer(new Op(Op.INSERT, end - pos, idata, ioff + pos));
+			pos = end;
+		}
+		return q;
+	}
 }
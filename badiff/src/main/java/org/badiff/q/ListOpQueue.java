@@ -36,11 +36,19 @@ import org.badiff.Op;
 
 /**
  * {@link OpQueue} that initially populates its {@link OpQueue#pending}
- * from a {@link List}
+ * from a {@link List}, or lazily draws its elements from an {@link OpBuffer}
  * @author robin
  *
  */
 public class ListOpQueue extends OpQueue {
+	/**
+	 * The {@link OpBuffer} to draw elements from, if any
+	 */
+	protected OpBuffer buffer;
+	/**
+	 * The index in {@link #buffer} of the next element to draw
+	 */
+	protected int index;
 
 	/**
 	 * Return an {@link OpQueue} with pre-populated {@link OpQueue#pending}
@@ -57,5 +65,24 @@ public class ListOpQueue extends OpQueue {
 			prepare(ops.next());
 		}
 	}
+	
+	/**
+	 * Return an {@link OpQueue} that creates its elements from the argument
+	 * buffer only as they are drawn
+	 * @param buffer
+	 */
+	public ListOpQueue(OpBuffer buffer) {
+		this.buffer = buffer;
+	}
+	
+	@Override
+	protected boolean pull() {
+		if(buffer == null || index >= buffer.size())
+			return false;
+		int end = Math.min(buffer.size(), index + DEFAULT_BATCH);
+		while(index < end)
+			prepare(buffer.get(index++));
+		return true;
+	}
 
 }
@@ -46,14 +46,23 @@ public class OneWayOpQueue extends FilterOpQueue {
 	protected boolean pull() {
 		if(!require(1))
 			return flush();
-		Op e = filtering.remove(0);
+		prepare(strip(filtering.pop()));
+		return true;
+	}
+	
+	/**
+	 * Return {@code e} without the data it does not need to be applied
+	 * @param e
+	 * @return
+	 */
+	protected static Op strip(Op e) {
 		if(e.getOp() == Op.DELETE)
 			e = new Op(Op.DELETE, e.getRun(), null);
 		if(e.getOp() == Op.NEXT)
 			e = new Op(Op.NEXT, e.getRun(), null);
-		
-		prepare(e);
-		return true;
+		if(e.getOp() == Op.COPY && e.getDataArray() != null)
+			e = Op.copy(e.getDistance(), e.getRun(), null, 0);
+		return e;
 	}
 
 }
@@ -0,0 +1,429 @@
+/**
+ * badiff - byte array diff - fast pure-java byte-level diffing
+ * 
+ * Copyright (c) 2013, Robin Kirkman All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ * 2) Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 3) Neither the name of the badiff nor the names of its contributors may be 
+ *    used to endorse or promote products derived from this software without 
+ *    specific prior written permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.badiff.q;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.badiff.Applyable;
+import org.badiff.Op;
+import org.badiff.io.HistoryOutputStream;
+import org.badiff.io.Serialization;
+import org.badiff.io.Serialized;
+import org.badiff.util.Streams;
+
+/**
+ * Columnar storage for a sequence of {@link Op}s.  The operations, run lengths and
+ * payload positions are kept in parallel primitive arrays, and every payload is copied
+ * into one shared byte arena, so a buffer of millions of {@link Op}s costs a handful of
+ * objects instead of two per {@link Op}.<p>
+ * 
+ * Read with a {@link Cursor} to avoid creating {@link Op} instances at all; {@link #get(int)}
+ * and {@link #queue()} create them on demand.  Serializes to the same format as a sequence
+ * of {@link Op}s terminated by {@link Op#STOP}.
+ * @author robin
+ *
+ */
+public class OpBuffer implements Applyable, Serialized {
+	/**
+	 * The operation of each element
+	 */
+	protected byte[] ops;
+	/**
+	 * The run length of each element
+	 */
+	protected int[] runs;
+	/**
+	 * The offset in {@link #arena} of each element's payload
+	 */
+	protected int[] offsets;
+	/**
+	 * The length of each element's payload, or {@code -1} if it has none
+	 */
+	protected int[] lengths;
+	/**
+	 * The distance of each {@link Op#COPY} element, or {@code null} until one is added
+	 */
+	protected int[] distances;
+	/**
+	 * The number of elements
+	 */
+	protected int size;
+	/**
+	 * Shared storage for the payloads
+	 */
+	protected byte[] arena;
+	/**
+	 * The number of bytes used in {@link #arena}
+	 */
+	protected int arenaSize;
+	
+	public OpBuffer() {
+		this(64, 1024);
+	}
+	
+	/**
+	 * Create an {@link OpBuffer} with initial room for {@code capacity} elements
+	 * and {@code arenaCapacity} bytes of payload
+	 * @param capacity
+	 * @param arenaCapacity
+	 */
+	public OpBuffer(int capacity, int arenaCapacity) {
+		capacity = Math.max(1, capacity);
+		ops = new byte[capacity];
+		runs = new int[capacity];
+		offsets = new int[capacity];
+		lengths = new int[capacity];
+		arena = new byte[Math.max(1, arenaCapacity)];
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * Remove all elements
+	 */
+	public void clear() {
+		size = 0;
+		arenaSize = 0;
+	}
+	
+	/**
+	 * Append an {@link Op}, copying its payload into the arena
+	 * @param e
+	 */
+	public void add(Op e) {
+		add(e.getOp(), e.getRun(), e.getDistance(), e.getDataArray(), e.getDataOffset(), e.getDataLength());
+	}
+	
+	/**
+	 * Append an element, copying {@code length} bytes of payload from {@code data}
+	 * into the arena.  {@code data} may be {@code null}, in which case the element
+	 * has no payload.
+	 * @param op
+	 * @param run
+	 * @param data
+	 * @param offset
+	 * @param length
+	 */
+	public void add(byte op, int run, byte[] data, int offset, int length) {
+		if(op == Op.COPY)
+			throw new IllegalArgumentException("use add(Op) for " + Op.class.getSimpleName() + ".COPY");
+		add(op, run, 0, data, offset, length);
+	}
+	
+	private void add(byte op, int run, int distance, byte[] data, int offset, int length) {
+		if(size == ops.length) {
+			int capacity = size * 2;
+			ops = Arrays.copyOf(ops, capacity);
+			runs = Arrays.copyOf(runs, capacity);
+			offsets = Arrays.copyOf(offsets, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			if(distances != null)
+				distances = Arrays.copyOf(distances, capacity);
+		}
+		if(op == Op.COPY && distances == null)
+			distances = new int[ops.length];
+		ops[size] = op;
+		runs[size] = run;
+		if(distances != null)
+			distances[size] = distance;
+		if(data != null) {
+			reserve(length);
+			System.arraycopy(data, offset, arena, arenaSize, length);
+			offsets[size] = arenaSize;
+			lengths[size] = length;
+			arenaSize += length;
+		} else {
+			offsets[size] = arenaSize;
+			lengths[size] = -1;
+		}
+		size++;
+	}
+	
+	private void reserve(int length) {
+		if(arena.length - arenaSize >= length)
+			return;
+		long need = (long) arenaSize + length;
+		if(need > Integer.MAX_VALUE - 8)
+			throw new IllegalStateException("payload arena full");
+		arena = Arrays.copyOf(arena, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(need, 2L * arena.length)));
+	}
+	
+	/**
+	 * Returns the operation of element {@code index}
+	 * @param index
+	 * @return
+	 */
+	public byte op(int index) {
+		return ops[check(index)];
+	}
+	
+	/**
+	 * Returns the run length of element {@code index}
+	 * @param index
+	 * @return
+	 */
+	public int run(int index) {
+		return runs[check(index)];
+	}
+	
+	/**
+	 * Returns the distance of element {@code index} if it is a {@link Op#COPY}, otherwise 0
+	 * @param index
+	 * @return
+	 */
+	public int distance(int index) {
+		check(index);
+		return distances == null ? 0 : distances[index];
+	}
+	
+	/**
+	 * Returns the offset in {@link #arena()} of the payload of element {@code index}
+	 * @param index
+	 * @return
+	 */
+	public int offset(int index) {
+		return offsets[check(index)];
+	}
+	
+	/**
+	 * Returns the payload length of element {@code index}, or {@code -1} if it has no payload
+	 * @param index
+	 * @return
+	 */
+	public int length(int index) {
+		return lengths[check(index)];
+	}
+	
+	/**
+	 * Returns the shared payload storage.  Valid until the next call to {@link #add(byte, int, byte[], int, int)}.
+	 * @return
+	 */
+	public byte[] arena() {
+		return arena;
+	}
+	
+	/**
+	 * Create an {@link Op} for element {@code index}, copying its payload
+	 * @param index
+	 * @return
+	 */
+	public Op get(int index) {
+		check(index);
+		byte[] data = null;
+		if(lengths[index] >= 0)
+			data = Arrays.copyOfRange(arena, offsets[index], offsets[index] + lengths[index]);
+		if(ops[index] == Op.COPY)
+			return Op.copy(distances[index], runs[index], data, 0);
+		return new Op(ops[index], runs[index], data);
+	}
+	
+	private int check(int index) {
+		if(index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("index:" + index + " size:" + size);
+		return index;
+	}
+	
+	/**
+	 * Returns a new {@link Cursor} positioned before the first element
+	 * @return
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+	
+	/**
+	 * Returns an {@link OpQueue} that creates {@link Op}s from this buffer as they are polled
+	 * @return
+	 */
+	public OpQueue queue() {
+		return new ListOpQueue(this);
+	}
+	
+	@Override
+	public void apply(InputStream orig, OutputStream target) throws IOException {
+		if(distances != null && !(target instanceof HistoryOutputStream))
+			target = new HistoryOutputStream(target);
+		for(int i = 0; i < size; i++) {
+			switch(ops[i]) {
+			case Op.DELETE:
+				orig.skip(runs[i]);
+				break;
+			case Op.NEXT:
+				Streams.copy(orig, target, runs[i]);
+				break;
+			case Op.INSERT:
+				target.write(arena, offsets[i], runs[i]);
+				break;
+			case Op.COPY:
+				((HistoryOutputStream) target).copy(distances[i], runs[i]);
+				break;
+			}
+		}
+	}
+	
+	@Override
+	public void serialize(Serialization serial, OutputStream out)
+			throws IOException {
+		for(int i = 0; i < size; i++) {
+			if(ops[i] == Op.COPY) {
+				get(i).serialize(serial, out);
+				continue;
+			}
+			boolean hasData = lengths[i] >= 0;
+			long oprun = ops[i] | (hasData ? 0x4 : 0) | (((long) runs[i]) << 3);
+			serial.writeObject(out, Long.class, oprun);
+			if((ops[i] == Op.INSERT || ops[i] == Op.DELETE) && hasData)
+				serial.writeObject(out, byte[].class, Arrays.copyOfRange(arena, offsets[i], offsets[i] + lengths[i]));
+		}
+		serial.writeObject(out, Op.class, new Op(Op.STOP, 1, null));
+	}
+	
+	@Override
+	public void deserialize(Serialization serial, InputStream in)
+			throws IOException {
+		clear();
+		for(;;) {
+			long oprun = serial.readObject(in, Long.class);
+			byte op = (byte)(oprun & 0x3);
+			if(op == Op.STOP)
+				break;
+			boolean hasData = (oprun & 0x4) != 0;
+			int run = (int)(oprun >>> 3);
+			byte[] data = null;
+			int distance = 0;
+			if((op == Op.INSERT || op == Op.DELETE) && hasData)
+				data = serial.readObject(in, byte[].class);
+			if(op == Op.NEXT && hasData) {
+				op = Op.COPY;
+				long dist = serial.readObject(in, Long.class);
+				distance = (int)(dist >>> 1);
+				if((dist & 1) != 0)
+					data = serial.readObject(in, byte[].class);
+			}
+			add(op, run, distance, data, 0, data != null ? data.length : -1);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for(Cursor c = cursor(); c.next();)
+			sb.append(c);
+		sb.append(new Op(Op.STOP, 1, null));
+		return sb.toString();
+	}
+	
+	/**
+	 * Forward-only view of the elements of an {@link OpBuffer}, which reads the
+	 * columns in place without creating {@link Op}s
+	 * @author robin
+	 *
+	 */
+	public class Cursor {
+		protected int index = -1;
+		
+		/**
+		 * Advance to the next element, returning {@code false} if there are no more
+		 * @return
+		 */
+		public boolean next() {
+			if(index + 1 >= size)
+				return false;
+			index++;
+			return true;
+		}
+		
+		public int index() {
+			return index;
+		}
+		
+		public byte op() {
+			return ops[index];
+		}
+		
+		public int run() {
+			return runs[index];
+		}
+		
+		public int distance() {
+			return distances == null ? 0 : distances[index];
+		}
+		
+		public boolean hasData() {
+			return lengths[index] >= 0;
+		}
+		
+		/**
+		 * Returns the shared payload storage; the current payload is at
+		 * {@link #offset()} for {@link #length()} bytes
+		 * @return
+		 */
+		public byte[] arena() {
+			return arena;
+		}
+		
+		public int offset() {
+			return offsets[index];
+		}
+		
+		public int length() {
+			return lengths[index];
+		}
+		
+		/**
+		 * Create an {@link Op} for the current element
+		 * @return
+		 */
+		public Op get() {
+			return OpBuffer.this.get(index);
+		}
+		
+		@Override
+		public String toString() {
+			switch(op()) {
+			case Op.STOP: return ";";
+			case Op.DELETE: return "-" + run();
+			case Op.INSERT: return "+" + run();
+			case Op.NEXT: return ">" + run();
+			case Op.COPY: return "<" + run() + "@" + distance();
+			}
+			return "?";
+		}
+	}
+}
@@ -0,0 +1,249 @@
+/**
+ * badiff - byte array diff - fast pure-java byte-level diffing
+ * 
+ * Copyright (c) 2013, Robin Kirkman All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ * 2) Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 3) Neither the name of the badiff nor the names of its contributors may be 
+ *    used to endorse or promote products derived from this software without 
+ *    specific prior written permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.badiff.q;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+
+import org.badiff.Op;
+
+/**
+ * Double-ended queue of {@link Op}s in a ring buffer, with constant-time access
+ * to either end and to any index.  Used by {@link FilterOpQueue} to hold the
+ * {@link Op}s being filtered, which are mostly consumed from the front.
+ * It is a {@link java.util.List}, so filters written against a list of {@link Op}s
+ * still work, though inserting or removing in the middle is linear.
+ * @author robin
+ *
+ */
+public class OpDeque extends AbstractList<Op> {
+	/**
+	 * The ring buffer, whose length is always a power of two
+	 */
+	protected Op[] ops;
+	/**
+	 * The index in {@link #ops} of the first element
+	 */
+	protected int head;
+	protected int size;
+	
+	public OpDeque() {
+		this(16);
+	}
+	
+	/**
+	 * Create an {@link OpDeque} with room for at least {@code capacity} elements before growing
+	 * @param capacity
+	 */
+	public OpDeque(int capacity) {
+		ops = new Op[Integer.highestOneBit(Math.max(2, capacity - 1) << 1)];
+	}
+	
+	@Override
+	public int size() {
+		return size;
+	}
+	
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * Returns the element at {@code index} from the front, without removing it
+	 * @param index
+	 * @return
+	 */
+	@Override
+	public Op get(int index) {
+		if(index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("index:" + index + " size:" + size);
+		return ops[(head + index) & (ops.length - 1)];
+	}
+	
+	@Override
+	public Op set(int index, Op e) {
+		Op prev = get(index);
+		ops[(head + index) & (ops.length - 1)] = e;
+		return prev;
+	}
+	
+	/**
+	 * Inserts an element at {@code index}, shifting the elements after it toward the back
+	 * @param index
+	 * @param e
+	 */
+	@Override
+	public void add(int index, Op e) {
+		if(index < 0 || index > size)
+			throw new IndexOutOfBoundsException("index:" + index + " size:" + size);
+		if(index == 0) {
+			push(e);
+			return;
+		}
+		if(size == ops.length)
+			grow();
+		int mask = ops.length - 1;
+		for(int i = size; i > index; i--)
+			ops[(head + i) & mask] = ops[(head + i - 1) & mask];
+		ops[(head + index) & mask] = e;
+		size++;
+		modCount++;
+	}
+	
+	/**
+	 * Removes the element at {@code index}, shifting the elements after it toward the front
+	 * @param index
+	 * @return
+	 */
+	@Override
+	public Op remove(int index) {
+		if(index == 0 && size > 0)
+			return pop();
+		Op e = get(index);
+		int mask = ops.length - 1;
+		for(int i = index; i < size - 1; i++)
+			ops[(head + i) & mask] = ops[(head + i + 1) & mask];
+		ops[(head + size - 1) & mask] = null;
+		size--;
+		modCount++;
+		return e;
+	}
+	
+	/**
+	 * Returns the first element without removing it, or {@code null} if empty
+	 * @return
+	 */
+	public Op peek() {
+		return size > 0 ? ops[head] : null;
+	}
+	
+	/**
+	 * Removes and returns the first element
+	 * @return
+	 */
+	public Op pop() {
+		if(size == 0)
+			throw new NoSuchElementException();
+		Op e = ops[head];
+		ops[head] = null;
+		head = (head + 1) & (ops.length - 1);
+		size--;
+		modCount++;
+		return e;
+	}
+	
+	/**
+	 * Adds an element to the front
+	 * @param e
+	 */
+	public void push(Op e) {
+		if(size == ops.length)
+			grow();
+		head = (head - 1) & (ops.length - 1);
+		ops[head] = e;
+		size++;
+		modCount++;
+	}
+	
+	/**
+	 * Adds an element to the back
+	 * @param e
+	 * @return {@code true}
+	 */
+	@Override
+	public boolean add(Op e) {
+		if(size == ops.length)
+			grow();
+		ops[(head + size) & (ops.length - 1)] = e;
+		size++;
+		modCount++;
+		return true;
+	}
+	
+	/**
+	 * Removes all elements
+	 */
+	@Override
+	public void clear() {
+		Arrays.fill(ops, null);
+		head = 0;
+		size = 0;
+		modCount++;
+	}
+	
+	/**
+	 * Stably sorts the elements
+	 * @param order
+	 */
+	public void sort(Comparator<? super Op> order) {
+		sort(size, order);
+	}
+	
+	/**
+	 * Stably sorts the first {@code count} elements
+	 * @param count
+	 * @param order
+	 */
+	public void sort(int count, Comparator<? super Op> order) {
+		if(count < 0 || count > size)
+			throw new IndexOutOfBoundsException("count:" + count + " size:" + size);
+		Op[] sorted = Arrays.copyOf(toArray(), count);
+		Arrays.sort(sorted, order);
+		for(int i = 0; i < count; i++)
+			ops[(head + i) & (ops.length - 1)] = sorted[i];
+	}
+	
+	/**
+	 * Returns the elements from front to back
+	 * @return
+	 */
+	@Override
+	public Op[] toArray() {
+		Op[] a = new Op[size];
+		int first = Math.min(size, ops.length - head);
+		System.arraycopy(ops, head, a, 0, first);
+		System.arraycopy(ops, 0, a, first, size - first);
+		return a;
+	}
+	
+	private void grow() {
+		Op[] a = toArray();
+		ops = Arrays.copyOf(a, ops.length * 2);
+		head = 0;
+	}
+	
+	@Override
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+}
@@ -33,6 +33,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
@@ -58,6 +59,12 @@ import org.badiff.Op;
  */
 public class OpQueue implements Applyable, Iterator<Op> {
 
+	/**
+	 * Default number of {@link Op}s moved per call to {@link #pollBatch(Op[], int)}
+	 * by the bulk methods of {@link OpQueue}
+	 */
+	public static final int DEFAULT_BATCH = 256;
+
 	/**
 	 * The next {@link Op} to be returned by the iterator.
 	 */
@@ -81,6 +88,37 @@ public class OpQueue implements Applyable, Iterator<Op> {
 		return e;
 	}
 	
+	/**
+	 * Draw up to {@code max} {@link Op}s from this {@link OpQueue} into {@code dst},
+	 * starting at index 0, and return how many were drawn.  Returns 0 only if this
+	 * {@link OpQueue} is empty.<p>
+	 * 
+	 * Moves whole runs of {@link #prepared} elements per call rather than one element
+	 * per {@link #poll()}.  Subclasses that only override {@link #pull()} get this for
+	 * free; subclasses that override {@link #poll()} should override this method as well.
+	 * @param dst
+	 * @param max
+	 * @return
+	 */
+	public int pollBatch(Op[] dst, int max) {
+		int n = 0;
+		if(iterNext != null && max > 0) {
+			dst[n++] = iterNext;
+			iterNext = null;
+		}
+		while(n < max) {
+			Op e = prepared.pollFirst();
+			if(e == null) {
+				pull();
+				e = prepared.pollFirst();
+				if(e == null)
+					break;
+			}
+			dst[n++] = e;
+		}
+		return n;
+	}
+	
 	/**
 	 * Place a {@link Op} in {@link #pending}
 	 * @param e
@@ -101,8 +139,9 @@ public class OpQueue implements Applyable, Iterator<Op> {
 	 * @return
 	 */
 	public <T extends List<Op>> T drainTo(T c) {
-		for(Op e = poll(); e != null; e = poll())
-			c.add(e);
+		Op[] batch = new Op[DEFAULT_BATCH];
+		for(int n = pollBatch(batch, batch.length); n > 0; n = pollBatch(batch, batch.length))
+			c.addAll(Arrays.asList(batch).subList(0, n));
 		return c;
 	}
 	
@@ -112,8 +151,11 @@ public class OpQueue implements Applyable, Iterator<Op> {
 	 * @return
 	 */
 	public <T extends OpQueue> T drainTo(T q) {
-		for(Op e = poll(); e != null; e = poll())
-			q.offer(e);
+		Op[] batch = new Op[DEFAULT_BATCH];
+		for(int n = pollBatch(batch, batch.length); n > 0; n = pollBatch(batch, batch.length)) {
+			for(int i = 0; i < n; i++)
+				q.offer(batch[i]);
+		}
 		return q;
 	}
 	
@@ -145,11 +187,31 @@ public class OpQueue implements Applyable, Iterator<Op> {
 		prepared.offerLast(e);
 	}
 	
+	/**
+	 * Call to add all the remaining elements of another {@link OpQueue} to the queue
+	 * of prepared elements, drawing them in batches.  Returns true if any were added.
+	 * @param q
+	 * @return
+	 */
+	protected boolean prepareAll(OpQueue q) {
+		boolean added = false;
+		Op[] batch = new Op[DEFAULT_BATCH];
+		for(int n = q.pollBatch(batch, batch.length); n > 0; n = q.pollBatch(batch, batch.length)) {
+			for(int i = 0; i < n; i++)
+				prepare(batch[i]);
+			added = true;
+		}
+		return added;
+	}
+	
 	@Override
 	public void apply(InputStream orig, OutputStream target)
 			throws IOException {
-		for(Op e = poll(); e != null; e = poll())
-			e.apply(orig, target);
+		Op[] batch = new Op[DEFAULT_BATCH];
+		for(int n = pollBatch(batch, batch.length); n > 0; n = pollBatch(batch, batch.length)) {
+			for(int i = 0; i < n; i++)
+				batch[i].apply(orig, target);
+		}
 	}
 
 	@Override
@@ -0,0 +1,234 @@
+/**
+ * badiff - byte array diff - fast pure-java byte-level diffing
+ * 
+ * Copyright (c) 2013, Robin Kirkman All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ * 2) Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 3) Neither the name of the badiff nor the names of its contributors may be 
+ *    used to endorse or promote products derived from this software without 
+ *    specific prior written permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.badiff.q;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.badiff.Op;
+
+/**
+ * Bounded ring of {@link Op}s handed from exactly one producer thread to exactly one
+ * consumer thread without locks.  {@link Op}s move in batches with {@link #put(Op[], int)}
+ * and {@link #take(Op[], int)}; a side that must wait spins briefly, then parks until
+ * the other side moves its index.  The producer ends the stream with {@link #close()}.<p>
+ * 
+ * The ring is bounded both by a count of {@link Op}s and by the total length of their data,
+ * although a single {@link Op} is always accepted into an empty ring, whatever its length.
+ * @author robin
+ *
+ */
+public class OpRing {
+	/**
+	 * Number of times a waiting side checks again before parking; none on a single processor,
+	 * where the other side cannot make progress while this one spins
+	 */
+	protected static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 1000 : 0;
+
+	protected Op[] ring;
+	protected int mask;
+	protected long maxBytes;
+	
+	/**
+	 * Index of the next {@link Op} to be taken; written only by the consumer
+	 */
+	protected AtomicLong head = new AtomicLong();
+	/**
+	 * Index of the next {@link Op} to be put; written only by the producer
+	 */
+	protected AtomicLong tail = new AtomicLong();
+	/**
+	 * Total data length of the {@link Op}s in the ring
+	 */
+	protected AtomicLong bytes = new AtomicLong();
+	protected volatile boolean closed;
+	
+	protected volatile Thread waitingProducer;
+	protected volatile Thread waitingConsumer;
+	
+	/**
+	 * Create a ring holding at least {@code capacity} {@link Op}s, with no limit on their data
+	 * @param capacity
+	 */
+	public OpRing(int capacity) {
+		this(capacity, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Create a ring holding at least {@code capacity} {@link Op}s, and no more than
+	 * {@code maxBytes} of their data
+	 * @param capacity
+	 * @param maxBytes
+	 */
+	public OpRing(int capacity, long maxBytes) {
+		if(capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive");
+		if(maxBytes < 1)
+			throw new IllegalArgumentException("maxBytes must be positive");
+		int size = Integer.highestOneBit(capacity);
+		if(size < capacity)
+			size <<= 1;
+		ring = new Op[size];
+		mask = size - 1;
+		this.maxBytes = maxBytes;
+	}
+	
+	/**
+	 * Put the first {@code n} elements of {@code src} into the ring, waiting for room as
+	 * necessary.  Called only by the producer.
+	 * @param src
+	 * @param n
+	 */
+	public void put(Op[] src, int n) {
+		if(closed)
+			throw new IllegalStateException("ring is closed");
+		int i = 0;
+		while(i < n) {
+			long t = tail.get();
+			awaitRoom(t);
+			long room = ring.length - (t - head.get());
+			long used = bytes.get();
+			long added = 0;
+			int start = i;
+			while(i < n && i - start < room) {
+				long length = length(src[i]);
+				if(i > start && used + added + length > maxBytes)
+					break;
+				ring[(int) (t + i - start) & mask] = src[i];
+				added += length;
+				i++;
+			}
+			bytes.addAndGet(added);
+			tail.set(t + i - start);
+			wake(waitingConsumer);
+		}
+	}
+	
+	/**
+	 * Take up to {@code max} {@link Op}s from the ring into {@code dst}, starting at index 0,
+	 * waiting for at least one.  Returns the number taken, which is 0 only once the ring
+	 * has been {@link #close()}d and emptied.  Called only by the consumer.
+	 * @param dst
+	 * @param max
+	 * @return
+	 */
+	public int take(Op[] dst, int max) {
+		long h = head.get();
+		if(!awaitOps(h))
+			return 0;
+		int n = (int) Math.min(max, tail.get() - h);
+		long removed = 0;
+		for(int i = 0; i < n; i++) {
+			int slot = (int) (h + i) & mask;
+			dst[i] = ring[slot];
+			ring[slot] = null;
+			removed += length(dst[i]);
+		}
+		bytes.addAndGet(-removed);
+		head.set(h + n);
+		wake(waitingProducer);
+		return n;
+	}
+	
+	/**
+	 * Mark the end of the stream.  Called only by the producer, after its last {@link #put(Op[], int)}.
+	 */
+	public void close() {
+		closed = true;
+		wake(waitingConsumer);
+	}
+	
+	public boolean isClosed() {
+		return closed;
+	}
+	
+	/**
+	 * Wait until the producer, whose next index is {@code t}, may put at least one {@link Op}
+	 * @param t
+	 */
+	protected void awaitRoom(long t) {
+		boolean interrupted = false;
+		for(int spins = 0; !hasRoom(t); spins++) {
+			if(spins < SPINS)
+				continue;
+			waitingProducer = Thread.currentThread();
+			if(hasRoom(t))
+				break;
+			LockSupport.park(this);
+			interrupted |= Thread.interrupted();
+		}
+		waitingProducer = null;
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+	
+	/**
+	 * Wait until there is an {@link Op} at index {@code h}, returning false if there is none
+	 * and the ring is closed
+	 * @param h
+	 * @return
+	 */
+	protected boolean awaitOps(long h) {
+		boolean interrupted = false;
+		try {
+			for(int spins = 0; tail.get() == h; spins++) {
+				if(closed)
+					return tail.get() != h;
+				if(spins < SPINS)
+					continue;
+				waitingConsumer = Thread.currentThread();
+				if(tail.get() != h || closed)
+					continue;
+				LockSupport.park(this);
+				interrupted |= Thread.interrupted();
+			}
+			return true;
+		} finally {
+			waitingConsumer = null;
+			if(interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+	
+	protected boolean hasRoom(long t) {
+		long h = head.get();
+		return t - h < ring.length && (t == h || bytes.get() < maxBytes);
+	}
+	
+	protected static void wake(Thread waiting) {
+		if(waiting != null)
+			LockSupport.unpark(waiting);
+	}
+	
+	protected static long length(Op e) {
+		return Math.max(0, e.getDataLength());
+	}
+	
+}
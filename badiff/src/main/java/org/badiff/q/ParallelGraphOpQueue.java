@@ -29,14 +29,16 @@
  */
 package org.badiff.q;
 
+import java.io.Closeable;
+import java.util.Queue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.badiff.Diff;
 import org.badiff.Op;
@@ -47,11 +49,15 @@ import org.badiff.alg.GraphFactory;
  * {@link OpQueue} that locates pairs of ({@link Op#DELETE},{@link Op#INSERT}) and
  * applies {@link Graph} to them, in parallel.  This {@link OpQueue} is <b>PARTIALLY LAZY</b>.
  * Partially lazy means that it will eagerly draw elements until all worker threads are active
- * any time a lazy element request is made.
+ * any time a lazy element request is made.<p>
+ * 
+ * By default each instance creates its own thread pool, which is shut down when the input is
+ * exhausted or the queue is {@link #close()}d.  Pass an {@link ExecutorService} to share one pool
+ * between many queues instead; a shared pool is never shut down by the queue.
  * @author robin
  *
  */
-public class ParallelGraphOpQueue extends FilterOpQueue {
+public class ParallelGraphOpQueue extends FilterOpQueue implements Closeable {
 
 	/**
 	 * @deprecated Use {@link GraphFactory#EDIT_GRAPH} instead
@@ -69,6 +75,11 @@ public class ParallelGraphOpQueue extends FilterOpQueue {
 	public static final GraphFactory ADJUSTABLE_GRAPH = GraphFactory.ADJUSTABLE_GRAPH;
 
 	private static final GraphFactory DEFAULT_GRAPH = GraphFactory.INERTIAL_GRAPH;
+	
+	/**
+	 * The default {@link #lookahead}, as a multiple of {@link #workers}
+	 */
+	public static final int DEFAULT_LOOKAHEAD = 4;
 
 	/**
 	 * The real source of elements
@@ -82,23 +93,39 @@ public class ParallelGraphOpQueue extends FilterOpQueue {
 	 * Thread pool for parallelization
 	 */
 	protected ExecutorService pool;
+	/**
+	 * Whether {@link #pool} was created by, and should be shut down by, this queue
+	 */
+	protected boolean ownsPool;
 	
+	/**
+	 * The number of graph tasks expected to run at once
+	 */
 	protected int workers;
+	
+	/**
+	 * The maximum number of graph tasks submitted but not yet consumed.  Tasks beyond
+	 * {@link #workers} wait in the pool, so workers stay busy while the consumer waits
+	 * on a slow task at the head of {@link #chain}, and at most this many results are buffered.
+	 */
+	protected int lookahead;
+	
+	/**
+	 * The number of graph tasks submitted but not yet consumed
+	 */
+	protected int outstanding;
 
 	protected ChainOpQueue chain;
 
 	protected GraphFactory graphFactory;
-	
-	protected AtomicInteger tasks = new AtomicInteger(0);
 
 	/**
-	 * Thread-local of {@link Graph} to avoid allocating ridonkulous amounts of memory
+	 * {@link Graph}s not in use by a graph task, kept to avoid allocating ridonkulous amounts of memory.
+	 * There are never more than the number of tasks that have run at once.  They belong to this queue
+	 * rather than to the threads running its tasks, so a shared pool's threads hold no graphs once the
+	 * queue is gone, and {@link #close()} releases them.
 	 */
-	protected ThreadLocal<Graph> graphs = new ThreadLocal<Graph>() {
-		protected Graph initialValue() {
-			return graphFactory.newGraph((chunk+1) * (chunk+1));
-		}
-	};
+	protected final Queue<Graph> graphs = new ConcurrentLinkedQueue<Graph>();
 
 	/**
 	 * Create a new parallel graphing {@link OpQueue} with {@link Runtime#availableProcessors()}
@@ -123,8 +150,9 @@ public class ParallelGraphOpQueue extends FilterOpQueue {
 		this.input = source;
 		this.chunk = chunk;
 		this.workers = workers;
+		this.lookahead = DEFAULT_LOOKAHEAD * workers;
 		this.graphFactory = graphFactory;
-		pool = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(workers, workers, 1L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
 			@Override
 			public Thread newThread(Runnable r) {
 				Thread t = new Thread(r, ParallelGraphOpQueue.this.toString());
@@ -132,8 +160,64 @@ public class ParallelGraphOpQueue extends FilterOpQueue {
 				return t;
 			}
 		});
+		// let the threads of an abandoned queue die off
+		pool.allowCoreThreadTimeOut(true);
+		this.pool = pool;
+		ownsPool = true;
+		chain = (ChainOpQueue) super.source;
+	}
+	
+	/**
+	 * Create a new parallel graphing {@link OpQueue} that runs its graph tasks on a shared
+	 * {@link ExecutorService}, expecting {@link Runtime#availableProcessors()} tasks to run at once.
+	 * @param source
+	 * @param pool
+	 * @param graphFactory
+	 */
+	public ParallelGraphOpQueue(OpQueue source, ExecutorService pool, GraphFactory graphFactory) {
+		this(source, pool, Runtime.getRuntime().availableProcessors(), Diff.DEFAULT_CHUNK, graphFactory);
+	}
+	
+	/**
+	 * Create a new parallel graphing {@link OpQueue} that runs its graph tasks on a shared
+	 * {@link ExecutorService}, expecting {@code workers} tasks to run at once.  The pool is
+	 * not shut down by this queue.
+	 * @param source
+	 * @param pool
+	 * @param workers
+	 * @param chunk
+	 * @param graphFactory
+	 */
+	public ParallelGraphOpQueue(OpQueue source, ExecutorService pool, int workers, int chunk, GraphFactory graphFactory) {
+		super(new ChainOpQueue());
+		this.input = source;
+		this.chunk = chunk;
+		this.workers = workers;
+		this.lookahead = DEFAULT_LOOKAHEAD * workers;
+		this.graphFactory = graphFactory;
+		this.pool = pool;
+		ownsPool = false;
 		chain = (ChainOpQueue) super.source;
 	}
+	
+	/**
+	 * Cancel any outstanding graph tasks and discard the remaining elements.
+	 * Shuts down the thread pool if it is not shared.
+	 */
+	@Override
+	public void close() {
+		for(OpQueue q : chain.getChain()) {
+			if(q instanceof FutureOpQueue)
+				((FutureOpQueue) q).source.cancel(true);
+		}
+		chain.getChain().clear();
+		graphs.clear();
+		filtering.clear();
+		prepared.clear();
+		input = new OpQueue();
+		if(ownsPool)
+			pool.shutdownNow();
+	}
 
 	@Override
 	public String toString() {
@@ -152,13 +236,7 @@ public class ParallelGraphOpQueue extends FilterOpQueue {
 
 	@Override
 	protected boolean require(int count) {
-		while(filtering.size() < count) {
-			Op e = input.poll();
-			if(e == null)
-				return false;
-			filtering.add(e);
-		}
-		return true;
+		return require(input, count);
 	}
 
 	@Override
@@ -167,21 +245,68 @@ public class ParallelGraphOpQueue extends FilterOpQueue {
 	}
 
 	protected void prepare(Future<OpQueue> f) {
-		chain.offer(new FutureOpQueue(f));
+		outstanding++;
+		chain.offer(new FutureOpQueue(f) {
+			private boolean consumed;
+			
+			@Override
+			protected boolean pull() {
+				if(!consumed) {
+					consumed = true;
+					outstanding--;
+				}
+				return super.pull();
+			}
+		});
 		chain.offer(new OpQueue());
 	}
+	
+	public int getLookahead() {
+		return lookahead;
+	}
+	
+	/**
+	 * Set the maximum number of graph tasks submitted but not yet consumed
+	 * @param lookahead
+	 */
+	public void setLookahead(int lookahead) {
+		this.lookahead = Math.max(1, lookahead);
+	}
+
+	/**
+	 * Takes an idle {@link Graph} for this queue's factory and chunk size, creating one if
+	 * there is none.  Give it back with {@link #release(Graph)}.
+	 * @return
+	 */
+	protected Graph graph() {
+		Graph graph = graphs.poll();
+		if(graph == null)
+			graph = graphFactory.newGraph((chunk+1) * (chunk+1));
+		return graph;
+	}
+	
+	/**
+	 * Returns a {@link Graph} taken with {@link #graph()} to the idle graphs
+	 * @param graph
+	 */
+	protected void release(Graph graph) {
+		graphs.offer(graph);
+	}
 
 	protected Callable<OpQueue> newTask(final Op delete, final Op insert) {
 		return new Callable<OpQueue>() {
 			@Override
 			public OpQueue call() throws Exception {
+				// equal and nearly equal pairs need no graph
+				OpQueue substituted = GraphOpQueue.substitute(delete, insert);
+				if(substituted != null)
+					return substituted;
+				Graph graph = graph();
 				try {
-					OpQueue graphed = new ReplaceOpQueue(delete.getData(), insert.getData());
-					graphed = new GraphOpQueue(graphed, graphs.get());
-					graphed = new ListOpQueue(graphed);
-					return graphed;
+					graph.compute(delete.getData(), insert.getData());
+					return new ListOpQueue(graph.queue());
 				} finally {
-					tasks.decrementAndGet();
+					release(graph);
 				}
 			}
 		};
@@ -193,31 +318,37 @@ public class ParallelGraphOpQueue extends FilterOpQueue {
 		return super.poll();
 	}
 	
+	@Override
+	public int pollBatch(Op[] dst, int max) {
+		pump();
+		return super.pollBatch(dst, max);
+	}
+	
 	protected void pump() {
 		if(require(2)) {
-			while(require(2) && tasks.get() < workers) {
+			while(require(2) && outstanding < lookahead) {
 				Op delete;
 				Op insert;
 
 				if(filtering.get(0).getOp() == Op.DELETE && filtering.get(1).getOp() == Op.INSERT) {
-					delete = filtering.remove(0);
-					insert = filtering.remove(0);
+					delete = filtering.pop();
+					insert = filtering.pop();
 				} else if(filtering.get(0).getOp() == Op.INSERT && filtering.get(1).getOp() == Op.DELETE) {
-					insert = filtering.remove(0);
-					delete = filtering.remove(0);
+					insert = filtering.pop();
+					delete = filtering.pop();
 				} else {
-					prepare(filtering.remove(0));
+					prepare(filtering.pop());
 					continue;
 				}
 
 				// construct a task and submit it to the pool
-				tasks.incrementAndGet();
 				prepare(pool.submit(newTask(delete, insert)));
 			}
 
 			if(!require(2)) {
 				flush();
-				pool.shutdown();
+				if(ownsPool)
+					pool.shutdown();
 			}
 		} else
 			flush();
@@ -0,0 +1,301 @@
+/**
+ * badiff - byte array diff - fast pure-java byte-level diffing
+ * 
+ * Copyright (c) 2013, Robin Kirkman All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ * 2) Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 3) Neither the name of the badiff nor the names of its contributors may be 
+ *    used to endorse or promote products derived from this software without 
+ *    specific prior written permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.badiff.q;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.badiff.Op;
+
+/**
+ * {@link OpQueue} that post-processes graphed {@link Op}s in parallel, producing exactly
+ * the output of the serial chain {@link CoalescingOpQueue}, {@link CoalescingOpQueue},
+ * {@link RewindingOpQueue}, {@link UnchunkingOpQueue}, {@link CompactingOpQueue}
+ * (pipe codes {@code "ccruC"}).<p>
+ * 
+ * The source is cut into partitions of about {@link #partition} {@link Op}s, each starting
+ * at an {@link Op#DELETE} or {@link Op#INSERT} that follows an {@link Op#NEXT} and that does not
+ * coalesce with the {@link Op} after it.  None of the stages carries anything across such a cut
+ * except {@link RewindingOpQueue}, whose position and recent deletes are tracked serially (which
+ * is cheap) and handed to the partition's own {@link RewindingOpQueue}.  Each partition is
+ * coalesced, then rewound, unchunked and compacted on the pool, and the partitions
+ * are emitted in order.
+ * @author robin
+ *
+ */
+public class ParallelPostProcessingOpQueue extends FilterOpQueue implements Closeable {
+	/**
+	 * The default target number of {@link Op}s per partition
+	 */
+	public static final int DEFAULT_PARTITION = 8192;
+	
+	protected ExecutorService pool;
+	/**
+	 * Whether {@link #pool} was created by, and should be shut down by, this queue
+	 */
+	protected boolean ownsPool;
+	/**
+	 * The target number of {@link Op}s per partition
+	 */
+	protected int partition;
+	/**
+	 * The maximum number of partitions read but not yet emitted
+	 */
+	protected int lookahead;
+	/**
+	 * The {@link RewindingOpQueue} state at the start of the next partition to be rewound
+	 */
+	protected RewindingOpQueue tracker = new RewindingOpQueue(new OpQueue());
+	/**
+	 * Partitions read but not yet emitted, in order
+	 */
+	protected Deque<Part> parts = new ArrayDeque<Part>();
+	/**
+	 * {@link Op}s read from the source but not yet cut into a partition
+	 */
+	protected List<Op> next = new ArrayList<Op>();
+	protected boolean exhausted;
+	
+	/**
+	 * Create a new parallel post-processing {@link OpQueue} with {@link Runtime#availableProcessors()}
+	 * worker threads of its own
+	 * @param source
+	 */
+	public ParallelPostProcessingOpQueue(OpQueue source) {
+		this(source, Runtime.getRuntime().availableProcessors(), DEFAULT_PARTITION);
+	}
+	
+	/**
+	 * Create a new parallel post-processing {@link OpQueue} with its own pool of {@code workers} threads
+	 * @param source
+	 * @param workers
+	 * @param partition
+	 */
+	public ParallelPostProcessingOpQueue(OpQueue source, int workers, int partition) {
+		this(source, newPool(workers), 2 * workers, partition);
+		ownsPool = true;
+	}
+	
+	/**
+	 * Create a new parallel post-processing {@link OpQueue} on a shared {@link ExecutorService},
+	 * which is not shut down by this queue
+	 * @param source
+	 * @param pool
+	 * @param lookahead The maximum number of partitions in flight
+	 * @param partition The target number of {@link Op}s per partition
+	 */
+	public ParallelPostProcessingOpQueue(OpQueue source, ExecutorService pool, int lookahead, int partition) {
+		super(source);
+		this.pool = pool;
+		this.lookahead = Math.max(1, lookahead);
+		this.partition = Math.max(1, partition);
+	}
+	
+	private static ExecutorService newPool(int workers) {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(workers, workers, 1L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, ParallelPostProcessingOpQueue.class.getSimpleName());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+	
+	@Override
+	protected boolean pull() {
+		while(true) {
+			fill();
+			if(parts.isEmpty()) {
+				if(ownsPool)
+					pool.shutdown();
+				return false;
+			}
+			rewind(true);
+			List<Op> processed = get(parts.pollFirst().processed);
+			fill();
+			rewind(false);
+			if(processed.size() > 0) {
+				for(Op e : processed)
+					prepare(e);
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * Cut partitions from the source and submit them for coalescing until
+	 * {@link #lookahead} partitions are in flight
+	 */
+	protected void fill() {
+		while(parts.size() < lookahead && !exhausted) {
+			final List<Op> ops = cut();
+			if(ops.isEmpty())
+				continue;
+			Part p = new Part();
+			p.coalesced = pool.submit(new Callable<List<Op>>() {
+				@Override
+				public List<Op> call() throws Exception {
+					OpQueue q = new ListOpQueue(ops);
+					q = new CoalescingOpQueue(q);
+					q = new CoalescingOpQueue(q);
+					return q.drainTo(new ArrayList<Op>(ops.size()));
+				}
+			});
+			parts.offerLast(p);
+		}
+	}
+	
+	/**
+	 * Read the next partition from the source
+	 * @return
+	 */
+	protected List<Op> cut() {
+		for(Op e = source.poll(); e != null; e = source.poll()) {
+			next.add(e);
+			int k = next.size() - 2;
+			if(k >= partition && cuttable(next.get(k - 1), next.get(k), next.get(k + 1))) {
+				List<Op> ops = new ArrayList<Op>(next.subList(0, k));
+				next = new ArrayList<Op>(next.subList(k, k + 2));
+				return ops;
+			}
+		}
+		exhausted = true;
+		List<Op> ops = next;
+		next = new ArrayList<Op>();
+		return ops;
+	}
+	
+	/**
+	 * Returns whether a partition may start at {@code first}, given the {@link Op}s before and after it
+	 * @param prev
+	 * @param first
+	 * @param second
+	 * @return
+	 */
+	protected static boolean cuttable(Op prev, Op first, Op second) {
+		if(prev.getOp() != Op.NEXT)
+			return false;
+		if(first.getOp() != Op.DELETE && first.getOp() != Op.INSERT)
+			return false;
+		if(first.getOp() + second.getOp() == Op.DELETE + Op.INSERT
+				&& Arrays.equals(first.getData(), second.getData()))
+			return false;
+		return true;
+	}
+	
+	/**
+	 * Submit coalesced partitions for rewinding, unchunking and compacting, tracking
+	 * the {@link RewindingOpQueue} state across them.  Waits for the head partition
+	 * to be coalesced if {@code block}, otherwise stops at the first partition that isn't.
+	 * @param block
+	 */
+	protected void rewind(boolean block) {
+		boolean head = true;
+		for(Part p : parts) {
+			if(p.processed != null) {
+				head = false;
+				continue;
+			}
+			if(!p.coalesced.isDone() && !(block && head))
+				return;
+			head = false;
+			final List<Op> ops = get(p.coalesced);
+			p.coalesced = null;
+			final RewindingOpQueue start = new RewindingOpQueue(new OpQueue(), tracker.lookbehind, tracker.minlength, tracker.maxkeys);
+			start.resume(tracker);
+			for(Op e : ops)
+				tracker.advance(e);
+			p.processed = pool.submit(new Callable<List<Op>>() {
+				@Override
+				public List<Op> call() throws Exception {
+					RewindingOpQueue r = new RewindingOpQueue(new ListOpQueue(ops), start.lookbehind, start.minlength, start.maxkeys);
+					r.resume(start);
+					OpQueue q = new UnchunkingOpQueue(r);
+					q = new CompactingOpQueue(q);
+					return q.drainTo(new ArrayList<Op>(ops.size()));
+				}
+			});
+		}
+	}
+	
+	private static <T> T get(Future<T> f) {
+		try {
+			return f.get();
+		} catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ie);
+		} catch(ExecutionException ee) {
+			throw new RuntimeException(ee.getCause());
+		}
+	}
+	
+	/**
+	 * Cancel any outstanding tasks and discard the remaining elements.
+	 * Shuts down the thread pool if it is not shared.
+	 */
+	@Override
+	public void close() {
+		for(Part p : parts) {
+			if(p.coalesced != null)
+				p.coalesced.cancel(true);
+			if(p.processed != null)
+				p.processed.cancel(true);
+		}
+		parts.clear();
+		next.clear();
+		prepared.clear();
+		exhausted = true;
+		if(ownsPool)
+			pool.shutdownNow();
+	}
+	
+	/**
+	 * A partition in flight
+	 */
+	protected static class Part {
+		protected Future<List<Op>> coalesced;
+		protected Future<List<Op>> processed;
+	}
+}
@@ -0,0 +1,236 @@
+/**
+ * badiff - byte array diff - fast pure-java byte-level diffing
+ * 
+ * Copyright (c) 2013, Robin Kirkman All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ * 2) Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 3) Neither the name of the badiff nor the names of its contributors may be 
+ *    used to endorse or promote products derived from this software without 
+ *    specific prior written permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.badiff.q;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.badiff.Diff;
+import org.badiff.Op;
+import org.badiff.io.RuntimeIOException;
+
+/**
+ * {@link OpQueue} that produces the same alternating chunks as {@link StreamChunkingOpQueue},
+ * but reads the original and target concurrently on two daemon threads, up to {@code depth}
+ * chunks ahead of the consumer.  Reading from disk then overlaps with the graphing
+ * done downstream instead of adding to it.<p>
+ * 
+ * Chunks are read into blocks of {@link #BLOCK_CHUNKS} chunks and handed out as
+ * slices of the blocks ({@link Op#Op(byte, int, byte[], int)}), so each reading
+ * thread fills a block at a time.  Graphs downstream still copy each slice out
+ * with {@link Op#getData()}.  Blocks are not recycled, because the slices may be
+ * held downstream for as long as the {@link Op}s live.<p>
+ * 
+ * The streams are not closed.  Each may be limited to a length, such as when
+ * a common prefix and suffix have already been found.
+ * @author robin
+ *
+ */
+public class PrefetchingChunkingOpQueue extends OpQueue implements Closeable {
+	/**
+	 * The default number of chunks read ahead on each side
+	 */
+	public static final int DEFAULT_DEPTH = 16;
+	/**
+	 * The number of chunks read into each block
+	 */
+	public static final int BLOCK_CHUNKS = 16;
+	
+	protected Side orig;
+	protected Side target;
+	protected int chunk;
+	/**
+	 * Whether the reader threads have been started; they start on the first {@link #pull()}
+	 */
+	protected boolean started;
+	
+	/**
+	 * Create a {@link PrefetchingChunkingOpQueue} with the default chunk size and depth
+	 * @param orig
+	 * @param target
+	 */
+	public PrefetchingChunkingOpQueue(InputStream orig, InputStream target) {
+		this(orig, target, Diff.DEFAULT_CHUNK, DEFAULT_DEPTH);
+	}
+	
+	/**
+	 * Create an {@link OpQueue} populated with alternating chunks of data read ahead
+	 * from the streams.
+	 * @param orig The source of {@link Op#DELETE} chunks
+	 * @param target The source of {@link Op#INSERT} chunks
+	 * @param chunk
+	 * @param depth The maximum number of chunks read ahead on each side
+	 */
+	public PrefetchingChunkingOpQueue(InputStream orig, InputStream target, int chunk, int depth) {
+		this(orig, target, chunk, depth, Long.MAX_VALUE, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Create an {@link OpQueue} populated with alternating chunks of at most the
+	 * specified lengths of data read ahead from the streams.
+	 * @param orig The source of {@link Op#DELETE} chunks
+	 * @param target The source of {@link Op#INSERT} chunks
+	 * @param chunk
+	 * @param depth The maximum number of chunks read ahead on each side
+	 * @param origLength The maximum number of bytes to read from {@code orig}
+	 * @param targetLength The maximum number of bytes to read from {@code target}
+	 */
+	public PrefetchingChunkingOpQueue(InputStream orig, InputStream target, int chunk, int depth, long origLength, long targetLength) {
+		this.chunk = chunk;
+		this.orig = new Side(orig, Op.DELETE, depth, origLength);
+		this.target = new Side(target, Op.INSERT, depth, targetLength);
+	}
+	
+	@Override
+	protected boolean pull() {
+		if(!started) {
+			started = true;
+			orig.reader.start();
+			target.reader.start();
+		}
+		Op delete = orig.take();
+		Op insert = target.take();
+		
+		if(delete != null)
+			prepare(delete);
+		if(insert != null)
+			prepare(insert);
+		
+		return delete != null || insert != null;
+	}
+	
+	/**
+	 * Stop the reader threads.  Chunks already read are discarded.
+	 */
+	@Override
+	public void close() {
+		orig.close();
+		target.close();
+	}
+	
+	@Override
+	public String toString() {
+		return getClass().getSimpleName();
+	}
+	
+	/**
+	 * One input, read ahead on its own thread
+	 * @author robin
+	 *
+	 */
+	protected class Side implements Runnable {
+		protected InputStream in;
+		protected byte op;
+		protected BlockingQueue<Op> chunks;
+		protected Thread reader;
+		protected volatile IOException error;
+		protected boolean ended;
+		/**
+		 * The number of bytes left to read from {@link #in}
+		 */
+		protected long remaining;
+		
+		public Side(InputStream in, byte op, int depth, long length) {
+			this.in = in;
+			this.op = op;
+			remaining = length;
+			chunks = new ArrayBlockingQueue<Op>(Math.max(1, depth) + 1);
+			reader = new Thread(this, PrefetchingChunkingOpQueue.this + " " + (op == Op.DELETE ? "orig" : "target"));
+			reader.setDaemon(true);
+		}
+		
+		@Override
+		public void run() {
+			try {
+				byte[] block = new byte[chunk * BLOCK_CHUNKS];
+				int pos = 0;
+				for(;;) {
+					if(block.length - pos < chunk) {
+						block = new byte[chunk * BLOCK_CHUNKS];
+						pos = 0;
+					}
+					int len = 0;
+					while(len < chunk && remaining > 0) {
+						int r = in.read(block, pos + len, (int) Math.min(chunk - len, remaining));
+						if(r == -1)
+							break;
+						len += r;
+						remaining -= r;
+					}
+					if(len == 0)
+						break;
+					chunks.put(new Op(op, len, block, pos));
+					pos += len;
+					if(len < chunk)
+						break;
+				}
+			} catch(IOException ioe) {
+				error = ioe;
+			} catch(InterruptedException ie) {
+				return;
+			}
+			try {
+				chunks.put(new Op(Op.STOP, 1, null));
+			} catch(InterruptedException ie) {
+			}
+		}
+		
+		/**
+		 * Returns the next chunk, waiting for it to be read, or {@code null} at the end of the input
+		 * @return
+		 */
+		public Op take() {
+			if(ended)
+				return null;
+			Op e;
+			try {
+				e = chunks.take();
+			} catch(InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(ie);
+			}
+			if(e.getOp() != Op.STOP)
+				return e;
+			ended = true;
+			if(error != null)
+				throw new RuntimeIOException(error);
+			return null;
+		}
+		
+		public void close() {
+			ended = true;
+			reader.interrupt();
+			chunks.clear();
+		}
+	}
+}
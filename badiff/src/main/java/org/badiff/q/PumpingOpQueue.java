@@ -29,8 +29,6 @@
  */
 package org.badiff.q;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
@@ -39,7 +37,7 @@ import org.badiff.Op;
 
 /**
  * {@link OpQueue} that aggressively pulls elements from its source in a separate thread,
- * and places them in a {@link BlockingQueue} for retrieval by {@link #pull()}.
+ * and hands them in batches through an {@link OpRing} for retrieval by {@link #pull()}.
  * @author robin
  *
  */
@@ -58,16 +56,32 @@ public class PumpingOpQueue extends OpQueue {
 	protected ExecutorService worker;
 	protected Runnable task;
 	protected OpQueue source;
-	protected BlockingQueue<Op> pipe;
+	protected OpRing pipe;
+	protected Op[] batch = new Op[DEFAULT_BATCH];
+	/**
+	 * What the worker threw while pulling from {@link #source}, rethrown by {@link #pull()}
+	 */
+	protected volatile Throwable failure;
 	
 	public PumpingOpQueue(OpQueue source) {
 		this(source, 1024);
 	}
 	
 	public PumpingOpQueue(OpQueue source, int capacity) {
+		this(source, capacity, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Create a {@link PumpingOpQueue} that buffers at most {@code capacity} {@link Op}s
+	 * and, beyond the first, at most {@code maxBytes} of their data
+	 * @param source
+	 * @param capacity
+	 * @param maxBytes
+	 */
+	public PumpingOpQueue(OpQueue source, int capacity, long maxBytes) {
 		this.source = source;
 		worker = Executors.newSingleThreadExecutor(workerFactory(source));
-		pipe = new ArrayBlockingQueue<Op>(capacity);
+		pipe = new OpRing(capacity, maxBytes);
 	}
 
 	protected Runnable createTask() {
@@ -75,19 +89,16 @@ public class PumpingOpQueue extends OpQueue {
 			@Override
 			public void run() {
 				try {
-					for(Op e = source.poll(); e != null; e = source.poll())
-						pipe.put(e);
-				} catch(InterruptedException ie) {
-					Thread.currentThread().interrupt();
+					Op[] batch = new Op[DEFAULT_BATCH];
+					for(int n = source.pollBatch(batch, batch.length); n > 0; n = source.pollBatch(batch, batch.length))
+						pipe.put(batch, n);
+				} catch(RuntimeException re) {
+					failure = re;
+				} catch(Error e) {
+					failure = e;
 				} finally {
 					worker.shutdown();
-					while(true) {
-						try {
-							pipe.put(new Op(Op.STOP, 1, null));
-							break;
-						} catch(InterruptedException ie2) {
-						}
-					}
+					pipe.close();
 				}
 			}
 		};
@@ -98,27 +109,19 @@ public class PumpingOpQueue extends OpQueue {
 		if(task == null) {
 			worker.execute(task = createTask());
 		}
-		Op e = pipe.poll();
-		if(e != null) {
-			if(e.getOp() == Op.STOP)
-				return false;
-			prepare(e);
-			return true;
+		int n = pipe.take(batch, batch.length);
+		if(n == 0) {
+			if(failure instanceof RuntimeException)
+				throw (RuntimeException) failure;
+			if(failure instanceof Error)
+				throw (Error) failure;
+			return false;
 		}
-		if(!worker.isShutdown()) {
-			while(true) {
-				try {
-					e = pipe.take();
-					break;
-				} catch(InterruptedException ie) {
-				}
-			}
-			if(e.getOp() == Op.STOP)
-				return false;
-			prepare(e);
-			return true;
+		for(int i = 0; i < n; i++) {
+			prepare(batch[i]);
+			batch[i] = null;
 		}
-		return false;
+		return true;
 	}
 	
 	@Override
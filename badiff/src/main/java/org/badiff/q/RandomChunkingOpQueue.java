@@ -30,7 +30,6 @@
 package org.badiff.q;
 
 import java.io.IOException;
-import java.util.Arrays;
 
 import org.badiff.Diff;
 import org.badiff.Op;
@@ -39,7 +38,8 @@ import org.badiff.io.RuntimeIOException;
 
 /**
  * {@link OpQueue} that lazily reads from two input streams (original and target)
- * and produces chunked output similar to {@link ChunkingOpQueue}.
+ * and produces chunked output similar to {@link ChunkingOpQueue}.  Chunks are cut at
+ * fixed offsets; see {@link ContentChunkingOpQueue} for chunks cut by content.
  * @author robin
  *
  */
@@ -47,6 +47,14 @@ public class RandomChunkingOpQueue extends OpQueue {
 	protected RandomInput orig;
 	protected RandomInput target;
 	protected int chunk;
+	/**
+	 * The number of bytes left to read from {@link #orig}
+	 */
+	protected long origRemaining;
+	/**
+	 * The number of bytes left to read from {@link #target}
+	 */
+	protected long targetRemaining;
 	
 	/**
 	 * Create a {@link RandomChunkingOpQueue} with the default chunk size
@@ -65,9 +73,24 @@ public class RandomChunkingOpQueue extends OpQueue {
 	 * @param chunk
 	 */
 	public RandomChunkingOpQueue(RandomInput orig, RandomInput target, int chunk) {
+		this(orig, target, chunk, Long.MAX_VALUE, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Create an {@link OpQueue} lazily populated with alternating chunks of at most
+	 * the specified lengths of data read from the streams.
+	 * @param orig The source of {@link Op#DELETE} chunks
+	 * @param target The source of {@link Op#INSERT} chunks
+	 * @param chunk
+	 * @param origLength The maximum number of bytes to read from {@code orig}
+	 * @param targetLength The maximum number of bytes to read from {@code target}
+	 */
+	public RandomChunkingOpQueue(RandomInput orig, RandomInput target, int chunk, long origLength, long targetLength) {
 		this.orig = orig;
 		this.target = target;
 		this.chunk = chunk;
+		origRemaining = origLength;
+		targetRemaining = targetLength;
 	}
 	
 	@Override
@@ -75,31 +98,48 @@ public class RandomChunkingOpQueue extends OpQueue {
 		/*
 		 * Lazily offer new chunks if available
 		 */
-		byte[] obuf = readChunk(orig);
-		byte[] tbuf = readChunk(target);
+		Op delete = readChunk(orig, Op.DELETE, origRemaining);
+		Op insert = readChunk(target, Op.INSERT, targetRemaining);
 
-		if(obuf != null)
-			prepare(new Op(Op.DELETE, obuf.length, obuf));
-		if(tbuf != null)
-			prepare(new Op(Op.INSERT, tbuf.length, tbuf));
+		if(delete != null) {
+			origRemaining -= delete.getRun();
+			prepare(delete);
+		}
+		if(insert != null) {
+			targetRemaining -= insert.getRun();
+			prepare(insert);
+		}
 		
-		return obuf != null || tbuf != null;
+		return delete != null || insert != null;
 	}
 
 	/**
-	 * Read a chunk from the {@link RandomInput}
+	 * Read a chunk from the {@link RandomInput} as an {@link Op}.  A short final chunk
+	 * is a slice of the read buffer rather than a copy.
+	 * @param in
+	 * @param op
+	 * @return
+	 */
+	protected Op readChunk(RandomInput in, byte op) {
+		return readChunk(in, op, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Read a chunk of at most {@code remaining} bytes from the {@link RandomInput} as an {@link Op}
 	 * @param in
+	 * @param op
+	 * @param remaining
 	 * @return
 	 */
-	protected byte[] readChunk(RandomInput in) {
+	protected Op readChunk(RandomInput in, byte op, long remaining) {
+		if(remaining <= 0)
+			return null;
 		try {
-			byte[] buf = new byte[chunk];
+			byte[] buf = new byte[(int) Math.min(chunk, remaining)];
 			int r = in.read(buf);
 			if(r == -1)
 				return null;
-			if(r == chunk)
-				return buf;
-			return Arrays.copyOf(buf, r);
+			return new Op(op, r, buf, 0);
 		} catch(IOException ioe) {
 			throw new RuntimeIOException(ioe);
 		}
@@ -35,13 +35,42 @@ import java.util.TreeMap;
 
 import org.badiff.Op;
 
+/**
+ * {@link OpQueue} that replaces the parts of {@link Op#INSERT}s that repeat recently
+ * deleted data with a rewind to that data, a {@link Op#NEXT} over it, and a skip forward
+ * again.  The deleted data within {@link #lookbehind} of the current position is indexed
+ * by the hash of each aligned block of {@link #block} bytes, so any run of at least
+ * {@link #minlength} bytes of an {@link Op#INSERT} that matches it is found with one
+ * table lookup per byte of the {@link Op#INSERT}, however much data is remembered.
+ * @author robin
+ *
+ */
 public class RewindingOpQueue extends FilterOpQueue {
 
+	protected static final long EMPTY = Long.MIN_VALUE;
+	protected static final int PRIME = 0x01000193;
+	
 	protected int maxkeys;
 	protected int minlength;
 	protected long lookbehind;
 	protected long pos;
 	protected TreeMap<Long, byte[]> deletes = new TreeMap<Long, byte[]>();
+	/**
+	 * Length of the indexed blocks; any match of {@link #minlength} bytes contains an aligned block
+	 */
+	protected int block;
+	/**
+	 * {@link #PRIME} to the power {@link #block}{@code - 1}, for rolling the hash
+	 */
+	protected int power;
+	/**
+	 * Position of the latest indexed block for each hash slot, or {@link #EMPTY}
+	 */
+	protected long[] index;
+	/**
+	 * Number of blocks added to {@link #index} since it was last rebuilt
+	 */
+	protected int indexed;
 	
 	public RewindingOpQueue(OpQueue source) {
 		this(source, 1024*1024);
@@ -60,6 +89,12 @@ public class RewindingOpQueue extends FilterOpQueue {
 		this.lookbehind = lookbehind;
 		this.minlength = minlength;
 		this.maxkeys = maxkeys;
+		block = Math.max(1, (minlength + 1) / 2);
+		power = 1;
+		for(int i = 1; i < block; i++)
+			power *= PRIME;
+		index = new long[1024];
+		Arrays.fill(index, EMPTY);
 	}
 
 	@Override
@@ -67,46 +102,29 @@ public class RewindingOpQueue extends FilterOpQueue {
 		if(!require(1))
 			return flush();
 		
-		Op e = filtering.remove(0);
-		
+		return rewind(filtering.pop());
+	}
+	
+	/**
+	 * Prepare {@code e}, or the rewinds that replace the parts of it that are
+	 * recently deleted data if it is an {@link Op#INSERT}
+	 * @param e
+	 * @return
+	 */
+	protected boolean rewind(Op e) {
 		switch(e.getOp()) {
 		case Op.NEXT:
-			pos += e.getRun();
-			deletes.subMap(Long.MIN_VALUE, pos - lookbehind).clear();
-			prepare(e);
-			return true;
-
 		case Op.DELETE:
-			if(e.getData() != null && e.getData().length >= minlength) {
-				deletes.put(pos, e.getData());
-				deletes.subMap(Long.MIN_VALUE, pos - lookbehind).clear();
-				while(deletes.size() > maxkeys)
-					deletes.remove(deletes.firstKey());
-			}
-			pos += e.getRun();
+			advance(e);
 			prepare(e);
 			return true;
 			
 		case Op.INSERT:
-			long dpos = -1;
-			
-			if(e.getData().length >= minlength) {
-				for(Map.Entry<Long, byte[]> en : deletes.entrySet()) {
-					if(!Arrays.equals(e.getData(), en.getValue()))
-						continue;
-					dpos = en.getKey();
-					break;
-				}
-			}
-			
-			if(dpos == -1) {
-				prepare(e);
-				return true;
-			}
+			copy(e);
+			return true;
 			
-			prepare(new Op(Op.DELETE, (int) (dpos - pos), null));
-			prepare(new Op(Op.NEXT, e.getRun(), null));
-			prepare(new Op(Op.DELETE, (int)(-(dpos - pos) - e.getRun()), null));
+		case Op.COPY:
+			prepare(e);
 			return true;
 		}
 		
@@ -114,4 +132,181 @@ public class RewindingOpQueue extends FilterOpQueue {
 		return false;
 	}
 	
+	/**
+	 * Prepare the {@link Op#INSERT} {@code e}, replacing the parts of it that match
+	 * {@link #deletes} with a seek to the match, a {@link Op#NEXT} over it, and a seek
+	 * back to {@link #pos}
+	 * @param e
+	 */
+	protected void copy(Op e) {
+		if(e.getDataLength() < minlength || deletes.isEmpty()) {
+			prepare(e);
+			return;
+		}
+		
+		byte[] data = e.getDataArray();
+		int start = e.getDataOffset();
+		int end = start + e.getDataLength();
+		int lit = start;
+		int h = 0;
+		boolean rolling = false;
+		for(int i = start; i + block <= end; i++) {
+			h = rolling ? roll(h, data[i - 1], data[i + block - 1]) : hash(data, i, block);
+			rolling = true;
+			
+			long p = index[slot(h)];
+			if(p == EMPTY)
+				continue;
+			Map.Entry<Long, byte[]> en = deletes.floorEntry(p);
+			if(en == null)
+				continue;
+			byte[] seg = en.getValue();
+			int off = (int)(p - en.getKey());
+			int fwd = 0;
+			while(i + fwd < end && off + fwd < seg.length && data[i + fwd] == seg[off + fwd])
+				fwd++;
+			if(fwd < block)
+				continue;
+			int back = 0;
+			while(i - back > lit && off - back > 0 && data[i - back - 1] == seg[off - back - 1])
+				back++;
+			int run = back + fwd;
+			if(run < minlength || !reachable(p - back, i - back - start))
+				continue;
+			
+			if(i - back > lit)
+				prepare(new Op(Op.INSERT, i - back - lit, data, lit));
+			reference(p - back, i - back - start, run);
+			lit = i + fwd;
+			i = lit - 1;
+			rolling = false;
+		}
+		
+		if(lit == start)
+			prepare(e);
+		else if(lit < end)
+			prepare(new Op(Op.INSERT, end - lit, data, lit));
+	}
+	
+	/**
+	 * Whether the data at {@code dpos} may replace the part of an {@link Op#INSERT}
+	 * starting {@code at} bytes into it
+	 * @param dpos
+	 * @param at
+	 * @return
+	 */
+	protected boolean reachable(long dpos, int at) {
+		return true;
+	}
+	
+	/**
+	 * Prepare the {@link Op}s that replace the {@code run} bytes of an {@link Op#INSERT}
+	 * starting {@code at} bytes into it with the same bytes at {@code dpos}: a seek to
+	 * {@code dpos}, a {@link Op#NEXT}, and a seek back to {@link #pos}
+	 * @param dpos
+	 * @param at
+	 * @param run
+	 */
+	protected void reference(long dpos, int at, int run) {
+		if(dpos != pos)
+			prepare(new Op(Op.DELETE, (int) (dpos - pos), null));
+		prepare(new Op(Op.NEXT, run, null));
+		if(dpos + run != pos)
+			prepare(new Op(Op.DELETE, (int)(-(dpos - pos) - run), null));
+	}
+	
+	/**
+	 * Update {@link #pos}, {@link #deletes} and {@link #index} for an {@link Op#NEXT} or
+	 * {@link Op#DELETE} read from the source.  {@link Op#INSERT}s do not change the state.
+	 * @param e
+	 */
+	protected void advance(Op e) {
+		switch(e.getOp()) {
+		case Op.NEXT:
+			pos += e.getRun();
+			deletes.subMap(Long.MIN_VALUE, pos - lookbehind).clear();
+			break;
+			
+		case Op.DELETE:
+			if(e.getData() != null && e.getData().length >= minlength)
+				remember(pos, e.getData());
+			pos += e.getRun();
+			break;
+		}
+	}
+	
+	/**
+	 * Add {@code data}, deleted at {@code dpos}, to {@link #deletes} and {@link #index},
+	 * forgetting what has fallen out of {@link #lookbehind} or past {@link #maxkeys}
+	 * @param dpos
+	 * @param data
+	 */
+	protected void remember(long dpos, byte[] data) {
+		deletes.put(dpos, data);
+		deletes.subMap(Long.MIN_VALUE, pos - lookbehind).clear();
+		while(deletes.size() > maxkeys)
+			deletes.remove(deletes.firstKey());
+		index(dpos, data);
+	}
+	
+	/**
+	 * Start from the state of another {@link RewindingOpQueue} with the same parameters,
+	 * as if this queue's source continued that queue's source
+	 * @param other
+	 */
+	protected void resume(RewindingOpQueue other) {
+		pos = other.pos;
+		deletes = new TreeMap<Long, byte[]>(other.deletes);
+		index = other.index.clone();
+		indexed = other.indexed;
+	}
+	
+	/**
+	 * Add the aligned blocks of {@code data}, deleted at {@code dpos}, to {@link #index}.
+	 * Blocks of data since forgotten are left in place and fail to match; the index is
+	 * rebuilt from {@link #deletes} alone once it is three quarters full.
+	 * @param dpos
+	 * @param data
+	 */
+	protected void index(long dpos, byte[] data) {
+		for(int off = 0; off + block <= data.length; off += block) {
+			index[slot(hash(data, off, block))] = dpos + off;
+			indexed++;
+		}
+		if(indexed <= index.length / 4 * 3)
+			return;
+		
+		int live = 0;
+		for(byte[] d : deletes.values())
+			live += d.length / block;
+		int size = 1024;
+		while(size < 2 * live)
+			size <<= 1;
+		index = new long[size];
+		Arrays.fill(index, EMPTY);
+		indexed = 0;
+		for(Map.Entry<Long, byte[]> en : deletes.entrySet()) {
+			byte[] d = en.getValue();
+			for(int off = 0; off + block <= d.length; off += block) {
+				index[slot(hash(d, off, block))] = en.getKey() + off;
+				indexed++;
+			}
+		}
+	}
+	
+	protected static int hash(byte[] data, int off, int len) {
+		int h = 0;
+		for(int i = off; i < off + len; i++)
+			h = h * PRIME + (data[i] & 0xff);
+		return h;
+	}
+	
+	protected int roll(int h, byte out, byte in) {
+		return (h - (out & 0xff) * power) * PRIME + (in & 0xff);
+	}
+	
+	protected int slot(int h) {
+		return ((h * 0x9E3779B9) >>> 16 ^ h) & (index.length - 1);
+	}
+	
 }
@@ -31,7 +31,6 @@ package org.badiff.q;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Arrays;
 
 import org.badiff.Diff;
 import org.badiff.Op;
@@ -39,7 +38,8 @@ import org.badiff.io.RuntimeIOException;
 
 /**
  * {@link OpQueue} that lazily reads from two input streams (original and target)
- * and produces chunked output similar to {@link ChunkingOpQueue}.
+ * and produces chunked output similar to {@link ChunkingOpQueue}.  Chunks are cut at
+ * fixed offsets; see {@link ContentChunkingOpQueue} for chunks cut by content.
  * @author robin
  *
  */
@@ -75,27 +75,29 @@ public class StreamChunkingOpQueue extends OpQueue {
 		/*
 		 * Lazily offer new chunks if available
 		 */
-		byte[] obuf = orig != null ? readChunk(orig) : null;
-		byte[] tbuf = target != null ? readChunk(target) : null;
+		Op delete = orig != null ? readChunk(orig, Op.DELETE) : null;
+		Op insert = target != null ? readChunk(target, Op.INSERT) : null;
 
-		if(obuf != null)
-			prepare(new Op(Op.DELETE, obuf.length, obuf));
+		if(delete != null)
+			prepare(delete);
 		else
 			orig = null;
-		if(tbuf != null)
-			prepare(new Op(Op.INSERT, tbuf.length, tbuf));
+		if(insert != null)
+			prepare(insert);
 		else
 			target = null;
 		
-		return obuf != null || tbuf != null;
+		return delete != null || insert != null;
 	}
 
 	/**
-	 * Read a chunk from the {@link InputStream}
+	 * Read a chunk from the {@link InputStream} as an {@link Op}.  A short read
+	 * is a slice of the read buffer rather than a copy.
 	 * @param in
+	 * @param op
 	 * @return
 	 */
-	protected byte[] readChunk(InputStream in) {
+	protected Op readChunk(InputStream in, byte op) {
 		try {
 			byte[] buf = new byte[chunk];
 			int r = in.read(buf);
@@ -103,9 +105,7 @@ public class StreamChunkingOpQueue extends OpQueue {
 				in.close();
 				return null;
 			}
-			if(r == chunk)
-				return buf;
-			return Arrays.copyOf(buf, r);
+			return new Op(op, r, buf, 0);
 		} catch(IOException ioe) {
 			throw new RuntimeIOException(ioe);
 		}
@@ -0,0 +1,96 @@
+/**
+ * badiff - byte array diff - fast pure-java byte-level diffing
+ * 
+ * Copyright (c) 2013, Robin Kirkman All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ * 2) Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 3) Neither the name of the badiff nor the names of its contributors may be 
+ *    used to endorse or promote products derived from this software without 
+ *    specific prior written permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.badiff.q;
+
+import org.badiff.Op;
+import org.badiff.io.HistoryOutputStream;
+
+/**
+ * {@link OpQueue} that replaces the parts of {@link Op#INSERT}s that repeat data inserted
+ * earlier with a {@link Op#COPY} of the target already written, like a VCDIFF target window,
+ * so repeated content of the target is stored once.<p>
+ * 
+ * The data of {@link Op#INSERT}s within {@link #lookbehind} bytes of the target is indexed
+ * as {@link RewindingOpQueue} indexes deleted data; here {@link #pos} is the position in the
+ * target and {@link #deletes} holds inserted data.  The {@link Op#COPY}s it produces have no
+ * data, and can reach back no further than the {@link HistoryOutputStream#DEFAULT_WINDOW}
+ * used to apply them.  Place it after any stage that reorders {@link Op}s, as in {@code sGccruTC}.
+ * @author robin
+ *
+ */
+public class TargetCopyingOpQueue extends RewindingOpQueue {
+
+	public TargetCopyingOpQueue(OpQueue source) {
+		this(source, 1024*1024);
+	}
+	
+	public TargetCopyingOpQueue(OpQueue source, int window) {
+		this(source, window, 16);
+	}
+	
+	public TargetCopyingOpQueue(OpQueue source, int window, int minlength) {
+		super(source, Math.min(window, HistoryOutputStream.DEFAULT_WINDOW), minlength, Integer.MAX_VALUE);
+	}
+	
+	@Override
+	protected boolean pull() {
+		if(!require(1))
+			return flush();
+		
+		Op e = filtering.pop();
+		switch(e.getOp()) {
+		case Op.INSERT:
+			copy(e);
+			if(e.getDataLength() >= minlength)
+				remember(pos, e.getData());
+			pos += e.getRun();
+			return true;
+			
+		case Op.NEXT:
+		case Op.COPY:
+			pos += e.getRun();
+			deletes.subMap(Long.MIN_VALUE, pos - lookbehind).clear();
+			break;
+		}
+		prepare(e);
+		return true;
+	}
+	
+	@Override
+	protected boolean reachable(long dpos, int at) {
+		return pos + at - dpos <= lookbehind;
+	}
+	
+	@Override
+	protected void reference(long dpos, int at, int run) {
+		prepare(Op.copy((int)(pos + at - dpos), run, null, 0));
+	}
+	
+}
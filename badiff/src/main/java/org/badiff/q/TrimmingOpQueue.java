@@ -0,0 +1,104 @@
+/**
+ * badiff - byte array diff - fast pure-java byte-level diffing
+ * 
+ * Copyright (c) 2013, Robin Kirkman All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ * 2) Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 3) Neither the name of the badiff nor the names of its contributors may be 
+ *    used to endorse or promote products derived from this software without 
+ *    specific prior written permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.badiff.q;
+
+import org.badiff.Op;
+import org.badiff.util.Bytes;
+
+/**
+ * {@link OpQueue} that trims the common prefix and suffix from pairs of pending
+ * ({@link Op#DELETE},{@link Op#INSERT}) operations, emitting each as a single {@link Op#NEXT}.
+ * Only the middle of the pair is left as a ({@link Op#DELETE},{@link Op#INSERT}) pair to be
+ * chunked and graphed, and a pair which is entirely equal becomes one {@link Op#NEXT}.
+ * The prefix and suffix are found with {@link Bytes#prefix(byte[], int, byte[], int, int)} and
+ * {@link Bytes#suffix(byte[], int, byte[], int, int)}, so appending to or truncating
+ * the original costs a comparison rather than a graph.<p>
+ * 
+ * The ops emitted are slices of the pair's data, not copies.  This should precede chunking,
+ * such as by {@link ChunkingOpQueue}.
+ * @author robin
+ *
+ */
+public class TrimmingOpQueue extends FilterOpQueue {
+	
+	public TrimmingOpQueue(OpQueue source) {
+		super(source);
+	}
+	
+	@Override
+	protected boolean pull() {
+		/*
+		 * Look for a (DELETE,INSERT) pair at the head of the pending queue
+		 */
+		if(!require(2))
+			return flush();
+		
+		if(filtering.get(0).getOp() != Op.DELETE || filtering.get(1).getOp() != Op.INSERT
+				|| filtering.get(0).getDataArray() == null) {
+			// the second op may begin a pair
+			prepare(filtering.pop());
+			return true;
+		}
+		
+		Op delete = filtering.pop();
+		Op insert = filtering.pop();
+		
+		trim(delete, insert);
+		
+		return true;
+	}
+	
+	/**
+	 * Prepare the {@link Op}s transforming the data of {@code delete} into the data of {@code insert}
+	 * @param delete
+	 * @param insert
+	 */
+	protected void trim(Op delete, Op insert) {
+		byte[] ddata = delete.getDataArray();
+		byte[] idata = insert.getDataArray();
+		int doff = delete.getDataOffset();
+		int ioff = insert.getDataOffset();
+		int dlen = delete.getDataLength();
+		int ilen = insert.getDataLength();
+		
+		int max = Math.min(dlen, ilen);
+		int prefix = Bytes.prefix(ddata, doff, idata, ioff, max);
+		int suffix = Bytes.suffix(ddata, doff + dlen, idata, ioff + ilen, max - prefix);
+		
+		if(prefix > 0)
+			prepare(new Op(Op.NEXT, prefix, null));
+		if(dlen - prefix - suffix > 0)
+			prepare(new Op(Op.DELETE, dlen - prefix - suffix, ddata, doff + prefix));
+		if(ilen - prefix - suffix > 0)
+			prepare(new Op(Op.INSERT, ilen - prefix - suffix, idata, ioff + prefix));
+		if(suffix > 0)
+			prepare(new Op(Op.NEXT, suffix, null));
+	}
+}
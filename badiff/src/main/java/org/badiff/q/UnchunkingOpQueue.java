@@ -1,6 +1,5 @@
 package org.badiff.q;
 
-import java.util.Collections;
 import java.util.Comparator;
 
 import org.badiff.Op;
@@ -23,21 +22,27 @@ public class UnchunkingOpQueue extends FilterOpQueue {
 	@Override
 	protected boolean pull() {
 		if(!require(1))
-			return flush();
+			return false;
 		
-		if(filtering.get(0).getOp() == Op.NEXT)
-			return flush();
+		// the group runs up to and including the first boundary
+		int count = 1;
+		while(!boundary(filtering.get(count - 1)) && require(count + 1))
+			count++;
 		
-		for(Op e = source.poll(); e != null; e = source.poll()) {
-			filtering.add(e);
-			if(e.getOp() == Op.NEXT) {
-				Collections.sort(filtering, OP_ORDER);
-				return flush();
-			}
-		}
-		
-		Collections.sort(filtering, OP_ORDER);
-		return flush();
+		filtering.sort(count, OP_ORDER);
+		while(count-- > 0)
+			prepare(filtering.pop());
+		return true;
+	}
+	
+	/**
+	 * Whether {@code e} ends a group of {@link Op}s that may be reordered.  {@link Op#COPY}s
+	 * read the target written before them, so they may not be moved past an {@link Op#INSERT}.
+	 * @param e
+	 * @return
+	 */
+	protected static boolean boundary(Op e) {
+		return e.getOp() == Op.NEXT || e.getOp() == Op.COPY;
 	}
 	
 }
@@ -41,16 +41,23 @@ public class UndoOpQueue extends FilterOpQueue {
 	protected boolean pull() {
 		if(!require(1))
 			return flush();
-		Op e = filtering.remove(0);
-		Op u;
-		if(e.getOp() == Op.DELETE)
-			u = new Op(Op.INSERT, e.getRun(), e.getData());
-		else if(e.getOp() == Op.INSERT)
-			u = new Op(Op.DELETE, e.getRun(), e.getData());
-		else
-			u = e;
-		prepare(u);
+		prepare(undo(filtering.pop()));
 		return true;
 	}
+	
+	/**
+	 * Return the {@link Op} that reverses {@code e}
+	 * @param e
+	 * @return
+	 */
+	protected static Op undo(Op e) {
+		if(e.getOp() == Op.DELETE)
+			return new Op(Op.INSERT, e.getRun(), e.getData());
+		if(e.getOp() == Op.INSERT)
+			return new Op(Op.DELETE, e.getRun(), e.getData());
+		if(e.getOp() == Op.COPY)
+			return new Op(Op.DELETE, e.getRun(), e.getData());
+		return e;
+	}
 
 }
@@ -0,0 +1,262 @@
+/**
+ * badiff - byte array diff - fast pure-java byte-level diffing
+ * 
+ * Copyright (c) 2013, Robin Kirkman All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ * 2) Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 3) Neither the name of the badiff nor the names of its contributors may be 
+ *    used to endorse or promote products derived from this software without 
+ *    specific prior written permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.badiff.sig;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.badiff.Diff;
+import org.badiff.Op;
+import org.badiff.io.RandomInput;
+import org.badiff.io.RuntimeIOException;
+import org.badiff.q.OpQueue;
+import org.badiff.q.RandomChunkingOpQueue;
+
+/**
+ * {@link OpQueue} lazily computed from an original, its {@link OriginIndex}, and a target.
+ * The target is scanned for anchors of the original; each anchor found after the previous match
+ * is extended as far as it matches and emitted as {@link Op#NEXT}.  The regions between
+ * matches are emitted as alternating chunks of {@link Op#DELETE} and {@link Op#INSERT},
+ * as by {@link RandomChunkingOpQueue}, for graphing.<p>
+ * 
+ * Matches are only taken in order, so the diff never rewinds.  If no anchor is found within
+ * the look-ahead window the pending regions are emitted anyway, so memory is bounded.
+ * @author robin
+ *
+ */
+public class IndexedOpQueue extends OpQueue {
+	protected OriginIndex index;
+	protected RandomInput orig;
+	protected RandomInput target;
+	protected int chunk;
+	/**
+	 * The maximum number of unmatched target bytes to hold while looking for an anchor
+	 */
+	protected int window;
+	
+	/**
+	 * The position of the original relative to where it was indexed
+	 */
+	protected long opos;
+	protected long obase;
+	
+	/**
+	 * Unmatched target bytes
+	 */
+	protected byte[] gap;
+	protected int glen;
+	/**
+	 * The hash of the last {@link OriginIndex#getK()} bytes of {@link #gap}
+	 */
+	protected long hash;
+	
+	protected byte[] tbuf = new byte[8192];
+	protected int tpos;
+	protected int tlen;
+	
+	protected boolean done;
+	
+	/**
+	 * Create an {@link IndexedOpQueue} with the default chunk size.  {@code orig} must be
+	 * positioned where it was when {@code index} was built.
+	 * @param index
+	 * @param orig
+	 * @param target
+	 */
+	public IndexedOpQueue(OriginIndex index, RandomInput orig, RandomInput target) {
+		this(index, orig, target, Diff.DEFAULT_CHUNK);
+	}
+	
+	/**
+	 * Create an {@link IndexedOpQueue} with the specified chunk size.  {@code orig} must be
+	 * positioned where it was when {@code index} was built.
+	 * @param index
+	 * @param orig
+	 * @param target
+	 * @param chunk
+	 */
+	public IndexedOpQueue(OriginIndex index, RandomInput orig, RandomInput target, int chunk) {
+		this.index = index;
+		this.orig = orig;
+		this.target = target;
+		this.chunk = chunk;
+		window = Math.max(256 * chunk, 2 * index.getK());
+		gap = new byte[Math.min(window, 8192)];
+		obase = orig.position();
+		if(orig.last() - obase != index.getLength())
+			throw new IllegalArgumentException("original does not match index");
+	}
+	
+	@Override
+	protected boolean pull() {
+		if(done)
+			return false;
+		try {
+			int k = index.getK();
+			for(int b = readTarget(); b != -1; b = readTarget()) {
+				if(glen == gap.length)
+					gap = Arrays.copyOf(gap, Math.min(window, gap.length * 2));
+				gap[glen++] = (byte) b;
+				hash = index.roll(hash, (byte) b, glen > k ? gap[glen - k - 1] : 0, glen > k);
+				
+				if(glen >= k && index.sampled(hash) && anchor())
+					return true;
+				
+				if(glen == window) {
+					// no anchor in sight, so emit what's pending
+					long len = Math.min(glen, index.getLength() - opos);
+					emitGap(opos + len, glen);
+					hash = 0;
+					return true;
+				}
+			}
+			emitGap(index.getLength(), glen);
+			done = true;
+			return true;
+		} catch(IOException ioe) {
+			throw new RuntimeIOException(ioe);
+		}
+	}
+	
+	/**
+	 * Try to match the k-mer at the end of {@link #gap} with an anchor of the original,
+	 * and if it matches, emit the gap and the match
+	 * @return Whether there was a match
+	 * @throws IOException
+	 */
+	protected boolean anchor() throws IOException {
+		int k = index.getK();
+		long o = index.offset(hash);
+		int t = glen - k;
+		if(o < opos)
+			return false;
+		
+		byte[] obuf = new byte[k];
+		readOrig(o, obuf, k);
+		for(int i = 0; i < k; i++)
+			if(obuf[i] != gap[t + i])
+				return false;
+		
+		// extend backwards over the gap
+		int back = (int) Math.min(t, o - opos);
+		if(back > 0) {
+			obuf = new byte[back];
+			readOrig(o - back, obuf, back);
+			while(back > 0 && obuf[back - 1] == gap[t - 1]) {
+				back--;
+				o--;
+				t--;
+			}
+		}
+		
+		emitGap(o, t);
+		
+		// extend forwards through the target; the gap now starts with the match
+		long len = glen;
+		obuf = new byte[8192];
+		orig.seek(obase + o + len);
+		extend: for(int r = orig.read(obuf); r != -1; r = orig.read(obuf)) {
+			for(int i = 0; i < r; i++) {
+				int b = readTarget();
+				if(b == -1)
+					break extend;
+				if((byte) b != obuf[i]) {
+					tpos--; // push back the mismatch
+					break extend;
+				}
+				len++;
+			}
+		}
+		
+		for(long run = len; run > 0; run -= Integer.MAX_VALUE)
+			prepare(new Op(Op.NEXT, (int) Math.min(run, Integer.MAX_VALUE), null));
+		opos = o + len;
+		glen = 0;
+		hash = 0;
+		return true;
+	}
+	
+	/**
+	 * Emit the original from {@link #opos} to {@code oend} and the first {@code tend} bytes of {@link #gap}
+	 * as alternating chunks of {@link Op#DELETE} and {@link Op#INSERT}
+	 * @param oend
+	 * @param tend
+	 * @throws IOException
+	 */
+	protected void emitGap(long oend, int tend) throws IOException {
+		// don't hold more of the original than the window
+		if(oend - opos > window) {
+			long skip = oend - opos - window;
+			for(long run = skip; run > 0; run -= Integer.MAX_VALUE)
+				prepare(new Op(Op.DELETE, (int) Math.min(run, Integer.MAX_VALUE), null));
+			opos += skip;
+		}
+		
+		int olen = (int)(oend - opos);
+		byte[] odata = new byte[olen];
+		readOrig(opos, odata, olen);
+		
+		int dpos = 0;
+		int ipos = 0;
+		while(dpos < olen || ipos < tend) {
+			if(dpos < olen) {
+				int run = Math.min(chunk, olen - dpos);
+				prepare(new Op(Op.DELETE, run, Arrays.copyOfRange(odata, dpos, dpos + run)));
+				dpos += run;
+			}
+			if(ipos < tend) {
+				int run = Math.min(chunk, tend - ipos);
+				prepare(new Op(Op.INSERT, run, Arrays.copyOfRange(gap, ipos, ipos + run)));
+				ipos += run;
+			}
+		}
+		
+		opos = oend;
+		System.arraycopy(gap, tend, gap, 0, glen - tend);
+		glen -= tend;
+	}
+	
+	private void readOrig(long pos, byte[] buf, int len) throws IOException {
+		orig.seek(obase + pos);
+		orig.readFully(buf, 0, len);
+	}
+	
+	private int readTarget() throws IOException {
+		if(tpos == tlen) {
+			tlen = target.read(tbuf);
+			tpos = 0;
+			if(tlen == -1) {
+				tlen = 0;
+				return -1;
+			}
+		}
+		return tbuf[tpos++] & 0xff;
+	}
+}
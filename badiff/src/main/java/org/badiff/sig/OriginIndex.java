@@ -0,0 +1,439 @@
+/**
+ * badiff - byte array diff - fast pure-java byte-level diffing
+ * 
+ * Copyright (c) 2013, Robin Kirkman All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ * 2) Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 3) Neither the name of the badiff nor the names of its contributors may be 
+ *    used to endorse or promote products derived from this software without 
+ *    specific prior written permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.badiff.sig;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import org.badiff.Diff;
+import org.badiff.io.DefaultSerialization;
+import org.badiff.io.RandomInput;
+import org.badiff.io.RandomInputStream;
+import org.badiff.io.Serialization;
+import org.badiff.io.Serialized;
+import org.badiff.util.Digests;
+
+/**
+ * Reusable index of an original, built once and then used by every diff against that original
+ * instead of re-reading and re-analyzing it.  Holds the original's length and digest,
+ * its {@link Signature}, and a table of its anchors: sampled k-mers which occur only once,
+ * by rolling hash.  An {@link IndexedOpQueue} uses the anchors to find unchanged regions.<p>
+ * 
+ * As a {@link Serialized} the anchor table is read into memory.  An index saved with {@link #write(File)}
+ * instead keeps the table at a fixed, aligned offset in the file, and {@link #map(File)} memory-maps it,
+ * so opening even a large index reads only its header and {@link Signature}.
+ * @author robin
+ *
+ */
+public class OriginIndex implements Serialized {
+	/**
+	 * The default length of an anchor
+	 */
+	public static final int DEFAULT_K = 32;
+	/**
+	 * The default sample rate of anchors
+	 */
+	public static final int DEFAULT_SAMPLE = 256;
+	
+	private static final long PRIME = 0x100000001B3L;
+	
+	private static final long EMPTY = -1;
+	private static final long DUPLICATE = -2;
+	
+	/**
+	 * Magic number at the start of an index file written by {@link #write(File)}
+	 */
+	public static final int FILE_MAGIC = 0x62616449;
+	
+	/**
+	 * The length of the original
+	 */
+	protected long length;
+	/**
+	 * The digest algorithm of {@link #digest}
+	 */
+	protected String algorithm;
+	/**
+	 * The digest of the original
+	 */
+	protected byte[] digest;
+	/**
+	 * The block signature of the original
+	 */
+	protected Signature signature;
+	/**
+	 * The length of an anchor
+	 */
+	protected int k;
+	/**
+	 * One in how many k-mers are anchors
+	 */
+	protected int sample;
+	/**
+	 * Open-addressed table of anchor hashes, in memory or mapped from a file
+	 */
+	protected LongBuffer keys;
+	/**
+	 * The offset of the anchor with each hash in {@link #keys}
+	 */
+	protected LongBuffer offsets;
+	
+	/**
+	 * {@link #PRIME} to the power of {@link #k}, computed on first use; volatile
+	 * so that an index shared between threads never sees a torn value
+	 */
+	private transient volatile long pow;
+	
+	/*
+	 * Required for deserialization
+	 */
+	public OriginIndex() {}
+	
+	/**
+	 * Index {@code orig} from its current position to its end, with the default
+	 * block size, anchor length, and sample rate
+	 * @param orig
+	 * @throws IOException
+	 */
+	public OriginIndex(RandomInput orig) throws IOException {
+		this(orig, Diff.DEFAULT_CHUNK, DEFAULT_K, DEFAULT_SAMPLE);
+	}
+	
+	/**
+	 * Index {@code orig} from its current position to its end.  The position of {@code orig}
+	 * is restored afterwards.
+	 * @param orig
+	 * @param blockSize The block size of the {@link Signature}
+	 * @param k The length of an anchor
+	 * @param sample One in how many k-mers are anchors
+	 * @throws IOException
+	 */
+	public OriginIndex(RandomInput orig, int blockSize, int k, int sample) throws IOException {
+		if(k < 1)
+			throw new IllegalArgumentException("k must be >= 1");
+		if(sample < 1)
+			throw new IllegalArgumentException("sample must be >= 1");
+		this.k = k;
+		this.sample = sample;
+		
+		long start = orig.position();
+		
+		MessageDigest md = Digests.defaultDigest();
+		DigestInputStream in = new DigestInputStream(new RandomInputStream(orig), md);
+		signature = new Signature(in, blockSize);
+		algorithm = md.getAlgorithm();
+		digest = md.digest();
+		length = signature.getLength();
+		
+		orig.seek(start);
+		
+		int capacity = Integer.highestOneBit((int) Math.min(1 << 29, Math.max(16, length / sample)) * 2 + 1);
+		keys = LongBuffer.wrap(new long[capacity]);
+		offsets = LongBuffer.wrap(empty(capacity));
+		
+		long size = 0;
+		long h = 0;
+		byte[] window = new byte[k];
+		byte[] buf = new byte[8192];
+		long pos = 0;
+		for(int r = orig.read(buf); r != -1; r = orig.read(buf)) {
+			for(int i = 0; i < r; i++, pos++) {
+				h = roll(h, buf[i], window[(int)(pos % k)], pos >= k);
+				window[(int)(pos % k)] = buf[i];
+				if(pos < k - 1 || !sampled(h))
+					continue;
+				int slot = slot(h);
+				if(offsets.get(slot) == EMPTY) {
+					keys.put(slot, h);
+					offsets.put(slot, pos - k + 1);
+					if(++size * 2 > keys.capacity())
+						grow();
+				} else
+					offsets.put(slot, DUPLICATE);
+			}
+		}
+		
+		orig.seek(start);
+	}
+	
+	/**
+	 * Returns the k-mer hash {@code h} rolled forward by {@code in}, removing {@code out} if {@code full}
+	 * @param h
+	 * @param in
+	 * @param out
+	 * @param full
+	 * @return
+	 */
+	public long roll(long h, byte in, byte out, boolean full) {
+		long pow = this.pow;
+		if(pow == 0) {
+			pow = 1;
+			for(int i = 0; i < k; i++)
+				pow *= PRIME;
+			this.pow = pow;
+		}
+		h = h * PRIME + (in & 0xff);
+		if(full)
+			h -= (out & 0xff) * pow;
+		return h;
+	}
+	
+	/**
+	 * Returns whether a k-mer with the argument hash could be an anchor
+	 * @param h
+	 * @return
+	 */
+	public boolean sampled(long h) {
+		return ((h * 0x9E3779B97F4A7C15L) >>> 1) % sample == 0;
+	}
+	
+	/**
+	 * Returns the offset in the original of the only k-mer with the argument hash,
+	 * or {@code -1} if there is no such k-mer
+	 * @param h
+	 * @return
+	 */
+	public long offset(long h) {
+		long offset = offsets.get(slot(h));
+		return offset >= 0 ? offset : -1;
+	}
+	
+	private int slot(long h) {
+		int mask = keys.capacity() - 1;
+		int i = (int)(h ^ (h >>> 32)) & mask;
+		while(offsets.get(i) != EMPTY && keys.get(i) != h)
+			i = (i + 1) & mask;
+		return i;
+	}
+	
+	private void grow() {
+		LongBuffer oldKeys = keys;
+		LongBuffer oldOffsets = offsets;
+		keys = LongBuffer.wrap(new long[oldKeys.capacity() * 2]);
+		offsets = LongBuffer.wrap(empty(oldOffsets.capacity() * 2));
+		for(int i = 0; i < oldKeys.capacity(); i++) {
+			if(oldOffsets.get(i) == EMPTY)
+				continue;
+			int j = slot(oldKeys.get(i));
+			keys.put(j, oldKeys.get(i));
+			offsets.put(j, oldOffsets.get(i));
+		}
+	}
+	
+	private static long[] empty(int capacity) {
+		long[] empty = new long[capacity];
+		Arrays.fill(empty, EMPTY);
+		return empty;
+	}
+	
+	/**
+	 * Returns {@code len} elements of {@code buf} starting at {@code from} as a buffer of their own
+	 */
+	private static LongBuffer slice(LongBuffer buf, int from, int len) {
+		LongBuffer d = buf.duplicate();
+		d.limit(from + len);
+		d.position(from);
+		return d.slice();
+	}
+	
+	/**
+	 * Returns the length of the original
+	 * @return
+	 */
+	public long getLength() {
+		return length;
+	}
+	
+	/**
+	 * Returns the digest algorithm of {@link #getDigest()}
+	 * @return
+	 */
+	public String getAlgorithm() {
+		return algorithm;
+	}
+	
+	/**
+	 * Returns the digest of the original
+	 * @return
+	 */
+	public byte[] getDigest() {
+		return digest;
+	}
+	
+	/**
+	 * Check that {@code orig}, from its current position, is the original this index was computed
+	 * from, and return its digest.  A stale index of a different original of the same length would
+	 * otherwise produce a wrong diff.  {@code orig} is read to the end and then seeked back.
+	 * @param orig
+	 * @return
+	 * @throws IOException
+	 * @throws IllegalArgumentException if {@code orig} does not match this index
+	 */
+	public byte[] verify(RandomInput orig) throws IOException {
+		long pos = orig.position();
+		byte[] actual = Digests.digest(orig, Digests.digest(algorithm));
+		orig.seek(pos);
+		if(!Arrays.equals(actual, digest))
+			throw new IllegalArgumentException("original does not match index");
+		return actual;
+	}
+	
+	/**
+	 * Returns the block signature of the original
+	 * @return
+	 */
+	public Signature getSignature() {
+		return signature;
+	}
+	
+	/**
+	 * Returns the length of an anchor
+	 * @return
+	 */
+	public int getK() {
+		return k;
+	}
+
+	/**
+	 * Write this index to {@code file} so that {@link #map(File)} can memory-map its anchor table.
+	 * The file holds {@link #FILE_MAGIC}, the length of the header, the capacity of the table, the header
+	 * (everything but the table, with {@link DefaultSerialization}), padding to a multiple of 8 bytes,
+	 * then the keys and the offsets of the table as big-endian longs.
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		serializeHeader(DefaultSerialization.newInstance(), header);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(header.size());
+			out.writeInt(keys.capacity());
+			header.writeTo(out);
+			out.write(new byte[(int)(tableStart(header.size()) - 12 - header.size())]);
+			for(int i = 0; i < keys.capacity(); i++)
+				out.writeLong(keys.get(i));
+			for(int i = 0; i < offsets.capacity(); i++)
+				out.writeLong(offsets.get(i));
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Open an index written by {@link #write(File)}, memory-mapping its anchor table rather than reading it.
+	 * The mapping remains valid after this returns, until the index is garbage collected.
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static OriginIndex map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if(raf.readInt() != FILE_MAGIC)
+				throw new IOException("Not an origin index file: " + file);
+			byte[] header = new byte[raf.readInt()];
+			int capacity = raf.readInt();
+			if(capacity < 0 || capacity > Integer.MAX_VALUE / 8)
+				throw new IOException("Anchor table too large to map: " + capacity);
+			raf.readFully(header);
+			
+			OriginIndex index = new OriginIndex();
+			index.deserializeHeader(DefaultSerialization.newInstance(), new ByteArrayInputStream(header));
+			
+			long start = tableStart(header.length);
+			FileChannel channel = raf.getChannel();
+			index.keys = channel.map(FileChannel.MapMode.READ_ONLY, start, 8L * capacity).asLongBuffer();
+			index.offsets = channel.map(FileChannel.MapMode.READ_ONLY, start + 8L * capacity, 8L * capacity).asLongBuffer();
+			return index;
+		} finally {
+			raf.close();
+		}
+	}
+	
+	/*
+	 * The offset in a file written by write(File) of its table, aligned to 8 bytes
+	 */
+	private static long tableStart(int headerLength) {
+		return (12L + headerLength + 7) / 8 * 8;
+	}
+	
+	@Override
+	public void serialize(Serialization serial, OutputStream out) throws IOException {
+		serializeHeader(serial, out);
+		ByteBuffer table = ByteBuffer.allocate(keys.capacity() * 16);
+		table.asLongBuffer().put(keys.duplicate()).put(offsets.duplicate());
+		serial.writeObject(out, byte[].class, table.array());
+	}
+
+	@Override
+	public void deserialize(Serialization serial, InputStream in) throws IOException {
+		deserializeHeader(serial, in);
+		byte[] table = serial.readObject(in, byte[].class);
+		LongBuffer longs = ByteBuffer.wrap(table).asLongBuffer();
+		keys = slice(longs, 0, longs.capacity() / 2);
+		offsets = slice(longs, longs.capacity() / 2, longs.capacity() / 2);
+	}
+	
+	private void serializeHeader(Serialization serial, OutputStream out) throws IOException {
+		serial.writeObject(out, Long.class, length);
+		serial.writeObject(out, String.class, algorithm);
+		serial.writeObject(out, byte[].class, digest);
+		signature.serialize(serial, out);
+		serial.writeObject(out, Integer.class, k);
+		serial.writeObject(out, Integer.class, sample);
+	}
+	
+	private void deserializeHeader(Serialization serial, InputStream in) throws IOException {
+		length = serial.readObject(in, Long.class);
+		algorithm = serial.readObject(in, String.class);
+		digest = serial.readObject(in, byte[].class);
+		signature = new Signature();
+		signature.deserialize(serial, in);
+		k = serial.readObject(in, Integer.class);
+		sample = serial.readObject(in, Integer.class);
+		pow = 0;
+	}
+}
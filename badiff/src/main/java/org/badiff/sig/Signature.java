@@ -0,0 +1,351 @@
+/**
+ * badiff - byte array diff - fast pure-java byte-level diffing
+ * 
+ * Copyright (c) 2013, Robin Kirkman All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ * 2) Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 3) Neither the name of the badiff nor the names of its contributors may be 
+ *    used to endorse or promote products derived from this software without 
+ *    specific prior written permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.badiff.sig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import org.badiff.Diff;
+import org.badiff.io.Serialization;
+import org.badiff.io.Serialized;
+import org.badiff.util.Digests;
+
+/**
+ * Signature of an original, rsync-style: the original is cut into fixed-size blocks, and each block
+ * is described by a weak rolling checksum and a (truncated) strong hash.  A {@link SignatureOpQueue}
+ * can compute a diff from the signature and the target, without the original.<p>
+ * 
+ * The signature is much smaller than the original; with the default block size and strong hash length
+ * it is about 1/85th the size: 12 bytes for each 1024 byte block.
+ * @author robin
+ *
+ */
+public class Signature implements Serialized {
+	/**
+	 * The default strong hash algorithm
+	 */
+	public static final String DEFAULT_ALGORITHM = "MD5";
+	/**
+	 * The default number of bytes of the strong hash kept per block
+	 */
+	public static final int DEFAULT_STRONG_LENGTH = 8;
+	
+	/**
+	 * The length of each block, except possibly the last
+	 */
+	protected int blockSize;
+	/**
+	 * The length of the original
+	 */
+	protected long length;
+	/**
+	 * The strong hash algorithm
+	 */
+	protected String algorithm;
+	/**
+	 * The number of bytes of the strong hash kept per block
+	 */
+	protected int strongLength;
+	/**
+	 * The weak checksum of each block
+	 */
+	protected int[] weak;
+	/**
+	 * The truncated strong hashes of each block, concatenated
+	 */
+	protected byte[] strong;
+	
+	/**
+	 * Index of the first block with each weak checksum.  Published after {@link #chain},
+	 * so a thread that sees it also sees the matching {@link #chain}.
+	 */
+	private transient volatile int[] heads;
+	/**
+	 * Index of the next block in the same bucket of {@link #heads}
+	 */
+	private transient volatile int[] chain;
+	
+	/*
+	 * Required for deserialization
+	 */
+	public Signature() {}
+	
+	/**
+	 * Compute the signature of {@code orig} with the default block size
+	 * @param orig
+	 * @throws IOException
+	 */
+	public Signature(InputStream orig) throws IOException {
+		this(orig, Diff.DEFAULT_CHUNK);
+	}
+	
+	/**
+	 * Compute the signature of {@code orig}, which is read until exhausted but not closed
+	 * @param orig
+	 * @param blockSize
+	 * @throws IOException
+	 */
+	public Signature(InputStream orig, int blockSize) throws IOException {
+		this(orig, blockSize, DEFAULT_ALGORITHM, DEFAULT_STRONG_LENGTH);
+	}
+	
+	/**
+	 * Compute the signature of {@code orig}, which is read until exhausted but not closed
+	 * @param orig
+	 * @param blockSize
+	 * @param algorithm
+	 * @param strongLength
+	 * @throws IOException
+	 */
+	public Signature(InputStream orig, int blockSize, String algorithm, int strongLength) throws IOException {
+		if(blockSize < 1)
+			throw new IllegalArgumentException("blockSize must be >= 1");
+		MessageDigest digest = Digests.digest(algorithm);
+		if(strongLength < 1 || strongLength > digest.getDigestLength())
+			throw new IllegalArgumentException("invalid strongLength");
+		this.blockSize = blockSize;
+		this.algorithm = algorithm;
+		this.strongLength = strongLength;
+		
+		weak = new int[16];
+		strong = new byte[16 * strongLength];
+		int count = 0;
+		byte[] buf = new byte[blockSize];
+		for(int r = fill(orig, buf); r > 0; r = fill(orig, buf)) {
+			if(count == weak.length) {
+				weak = Arrays.copyOf(weak, count * 2);
+				strong = Arrays.copyOf(strong, count * 2 * strongLength);
+			}
+			weak[count] = weak(buf, 0, r);
+			digest.update(buf, 0, r);
+			System.arraycopy(digest.digest(), 0, strong, count * strongLength, strongLength);
+			length += r;
+			count++;
+		}
+		weak = Arrays.copyOf(weak, count);
+		strong = Arrays.copyOf(strong, count * strongLength);
+	}
+	
+	private static int fill(InputStream in, byte[] buf) throws IOException {
+		int len = 0;
+		while(len < buf.length) {
+			int r = in.read(buf, len, buf.length - len);
+			if(r == -1)
+				break;
+			len += r;
+		}
+		return len;
+	}
+	
+	/**
+	 * Returns the weak checksum of a block, which can be rolled forward
+	 * one byte at a time with {@link #roll(int, int, byte, byte)}
+	 * @param buf
+	 * @param off
+	 * @param len
+	 * @return
+	 */
+	public static int weak(byte[] buf, int off, int len) {
+		int a = 0;
+		int b = 0;
+		for(int i = 0; i < len; i++) {
+			a += buf[off + i] & 0xff;
+			b += (len - i) * (buf[off + i] & 0xff);
+		}
+		return (a & 0xffff) | (b << 16);
+	}
+	
+	/**
+	 * Returns the weak checksum of a block of length {@code len} with {@code out} removed
+	 * from the front and {@code in} appended to the back
+	 * @param weak
+	 * @param len
+	 * @param out
+	 * @param in
+	 * @return
+	 */
+	public static int roll(int weak, int len, byte out, byte in) {
+		int a = weak & 0xffff;
+		int b = weak >>> 16;
+		a = a - (out & 0xff) + (in & 0xff);
+		b = b - len * (out & 0xff) + a;
+		return (a & 0xffff) | (b << 16);
+	}
+	
+	/**
+	 * Returns the index of a block whose checksum and hash match {@code len} bytes of {@code buf},
+	 * or {@code -1} if there is no such block.  If {@code preferred} matches it is returned.
+	 * @param digest The strong hash, as from {@link #newDigest()}
+	 * @param weak The weak checksum of the bytes
+	 * @param buf
+	 * @param off
+	 * @param len
+	 * @param preferred
+	 * @return
+	 */
+	public int find(MessageDigest digest, int weak, byte[] buf, int off, int len, int preferred) {
+		int[] heads = this.heads;
+		if(heads == null)
+			heads = index();
+		int[] chain = this.chain;
+		int found = -1;
+		byte[] hash = null;
+		for(int i = heads[weak & (heads.length - 1)]; i != -1; i = chain[i]) {
+			if(this.weak[i] != weak || blockLength(i) != len)
+				continue;
+			if(hash == null) {
+				digest.update(buf, off, len);
+				hash = digest.digest();
+			}
+			if(!strongEquals(i, hash))
+				continue;
+			if(i == preferred)
+				return i;
+			if(found == -1)
+				found = i;
+		}
+		return found;
+	}
+	
+	private boolean strongEquals(int block, byte[] hash) {
+		for(int i = 0; i < strongLength; i++)
+			if(strong[block * strongLength + i] != hash[i])
+				return false;
+		return true;
+	}
+	
+	private synchronized int[] index() {
+		if(this.heads != null)
+			return this.heads;
+		int[] heads = new int[Integer.highestOneBit(Math.max(16, weak.length) * 2 - 1)];
+		int[] chain = new int[weak.length];
+		Arrays.fill(heads, -1);
+		for(int i = weak.length - 1; i >= 0; i--) {
+			int h = weak[i] & (heads.length - 1);
+			chain[i] = heads[h];
+			heads[h] = i;
+		}
+		this.chain = chain;
+		this.heads = heads;
+		return heads;
+	}
+	
+	/**
+	 * Returns a new instance of the strong hash algorithm
+	 * @return
+	 */
+	public MessageDigest newDigest() {
+		return Digests.digest(algorithm);
+	}
+	
+	/**
+	 * Returns the length of the argument block
+	 * @param block
+	 * @return
+	 */
+	public int blockLength(int block) {
+		return (int) Math.min(blockSize, length - (long) block * blockSize);
+	}
+	
+	/**
+	 * Returns the number of blocks
+	 * @return
+	 */
+	public int getBlockCount() {
+		return weak.length;
+	}
+	
+	/**
+	 * Returns the length of each block, except possibly the last
+	 * @return
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+	
+	/**
+	 * Returns the length of the original
+	 * @return
+	 */
+	public long getLength() {
+		return length;
+	}
+	
+	/**
+	 * Returns the strong hash algorithm
+	 * @return
+	 */
+	public String getAlgorithm() {
+		return algorithm;
+	}
+	
+	/**
+	 * Returns the number of bytes of the strong hash kept per block
+	 * @return
+	 */
+	public int getStrongLength() {
+		return strongLength;
+	}
+
+	@Override
+	public void serialize(Serialization serial, OutputStream out) throws IOException {
+		serial.writeObject(out, Integer.class, blockSize);
+		serial.writeObject(out, Long.class, length);
+		serial.writeObject(out, String.class, algorithm);
+		serial.writeObject(out, Integer.class, strongLength);
+		byte[] w = new byte[weak.length * 4];
+		for(int i = 0; i < weak.length; i++) {
+			w[4*i] = (byte)(weak[i] >>> 24);
+			w[4*i+1] = (byte)(weak[i] >>> 16);
+			w[4*i+2] = (byte)(weak[i] >>> 8);
+			w[4*i+3] = (byte) weak[i];
+		}
+		serial.writeObject(out, byte[].class, w);
+		serial.writeObject(out, byte[].class, strong);
+	}
+
+	@Override
+	public void deserialize(Serialization serial, InputStream in) throws IOException {
+		blockSize = serial.readObject(in, Integer.class);
+		length = serial.readObject(in, Long.class);
+		algorithm = serial.readObject(in, String.class);
+		strongLength = serial.readObject(in, Integer.class);
+		byte[] w = serial.readObject(in, byte[].class);
+		weak = new int[w.length / 4];
+		for(int i = 0; i < weak.length; i++)
+			weak[i] = ((w[4*i] & 0xff) << 24) | ((w[4*i+1] & 0xff) << 16) | ((w[4*i+2] & 0xff) << 8) | (w[4*i+3] & 0xff);
+		strong = serial.readObject(in, byte[].class);
+		heads = null;
+		chain = null;
+	}
+}
@@ -0,0 +1,244 @@
+/**
+ * badiff - byte array diff - fast pure-java byte-level diffing
+ * 
+ * Copyright (c) 2013, Robin Kirkman All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ * 2) Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 3) Neither the name of the badiff nor the names of its contributors may be 
+ *    used to endorse or promote products derived from this software without 
+ *    specific prior written permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.badiff.sig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+import org.badiff.Op;
+import org.badiff.io.Random;
+import org.badiff.io.RuntimeIOException;
+import org.badiff.q.OpQueue;
+
+/**
+ * {@link OpQueue} lazily computed from a target and the {@link Signature} of an original,
+ * without the original itself.  The target is scanned with a rolling checksum for blocks of
+ * the original.  Matched blocks are emitted as {@link Op#NEXT}, and unmatched bytes as
+ * {@link Op#INSERT}.<p>
+ * 
+ * Blocks matched out of order are reached with {@link Op#DELETE}s without data, which may have
+ * negative run lengths (rewinds), so the resulting diff may only be applicable to an original
+ * that is {@link Random}.  {@link Op#DELETE}s without data also cannot be undone.
+ * @author robin
+ *
+ */
+public class SignatureOpQueue extends OpQueue {
+	protected InputStream target;
+	protected Signature signature;
+	protected MessageDigest digest;
+	protected int blockSize;
+	
+	/**
+	 * The unprocessed bytes of the target, from {@link #start} to {@link #end}
+	 */
+	protected byte[] buf;
+	protected int start;
+	protected int end;
+	protected boolean eof;
+	
+	/**
+	 * Whether {@link #weak} is the checksum of the block at {@link #start}
+	 */
+	protected boolean rolling;
+	protected int weak;
+	
+	/**
+	 * Unmatched bytes not yet emitted
+	 */
+	protected ByteArrayOutputStream literal = new ByteArrayOutputStream();
+	/**
+	 * Run of matched bytes not yet emitted
+	 */
+	protected int next;
+	/**
+	 * The position in the original after the emitted {@link Op}s and {@link #next}
+	 */
+	protected long position;
+	
+	protected boolean pulled;
+	protected boolean done;
+	
+	/**
+	 * Create an {@link OpQueue} from {@code target} and the {@link Signature} of the original.
+	 * {@code target} is read until exhausted but not closed.
+	 * @param target
+	 * @param signature
+	 */
+	public SignatureOpQueue(InputStream target, Signature signature) {
+		this.target = target;
+		this.signature = signature;
+		digest = signature.newDigest();
+		blockSize = signature.getBlockSize();
+		buf = new byte[4 * blockSize];
+	}
+	
+	@Override
+	protected boolean pull() {
+		pulled = false;
+		try {
+			while(!pulled && !done)
+				step();
+		} catch(IOException ioe) {
+			throw new RuntimeIOException(ioe);
+		}
+		return pulled;
+	}
+	
+	/**
+	 * Match or skip one block or byte of the target
+	 * @throws IOException
+	 */
+	protected void step() throws IOException {
+		ensure(blockSize);
+		
+		if(end - start < blockSize) {
+			/*
+			 * Only the last block of the original can be shorter than a block
+			 */
+			int len = end - start;
+			int last = signature.getBlockCount() - 1;
+			int block = -1;
+			if(len > 0 && last >= 0 && signature.blockLength(last) == len)
+				block = signature.find(digest, Signature.weak(buf, start, len), buf, start, len, last);
+			if(block != -1)
+				match(block, len);
+			else
+				literal.write(buf, start, len);
+			start = end;
+			
+			flushLiteral();
+			flushNext();
+			// skip the rest of the original
+			seek(signature.getLength());
+			done = true;
+			return;
+		}
+
+		if(!rolling) {
+			weak = Signature.weak(buf, start, blockSize);
+			rolling = true;
+		}
+		
+		int block = signature.find(digest, weak, buf, start, blockSize, (int)(position / blockSize));
+		if(block != -1) {
+			match(block, blockSize);
+			start += blockSize;
+			rolling = false;
+			return;
+		}
+		
+		literal.write(buf[start]);
+		byte out = buf[start++];
+		if(literal.size() >= blockSize)
+			flushLiteral();
+		
+		ensure(blockSize);
+		if(end - start >= blockSize)
+			weak = Signature.roll(weak, blockSize, out, buf[start + blockSize - 1]);
+		else
+			rolling = false;
+	}
+	
+	/**
+	 * Read until at least {@code len} bytes are buffered or the target is exhausted
+	 * @param len
+	 * @throws IOException
+	 */
+	protected void ensure(int len) throws IOException {
+		if(end - start >= len || eof)
+			return;
+		if(buf.length - start < len) {
+			System.arraycopy(buf, start, buf, 0, end - start);
+			end -= start;
+			start = 0;
+		}
+		while(end - start < len) {
+			int r = target.read(buf, end, buf.length - end);
+			if(r == -1) {
+				eof = true;
+				return;
+			}
+			end += r;
+		}
+	}
+	
+	/**
+	 * Emit a match of {@code len} bytes with the argument block of the original
+	 * @param block
+	 * @param len
+	 */
+	protected void match(int block, int len) {
+		flushLiteral();
+		seek((long) block * blockSize);
+		if(next > Integer.MAX_VALUE - len)
+			flushNext();
+		next += len;
+		position += len;
+	}
+	
+	/**
+	 * Emit {@link Op#DELETE}s moving from {@link #position} to {@code offset} in the original
+	 * @param offset
+	 */
+	protected void seek(long offset) {
+		if(offset == position)
+			return;
+		flushNext();
+		long delta = offset - position;
+		while(delta != 0) {
+			int run = (int) Math.max(-Integer.MAX_VALUE, Math.min(Integer.MAX_VALUE, delta));
+			emit(new Op(Op.DELETE, run, null));
+			delta -= run;
+		}
+		position = offset;
+	}
+	
+	protected void flushNext() {
+		if(next > 0)
+			emit(new Op(Op.NEXT, next, null));
+		next = 0;
+	}
+	
+	protected void flushLiteral() {
+		if(literal.size() == 0)
+			return;
+		flushNext();
+		byte[] data = literal.toByteArray();
+		emit(new Op(Op.INSERT, data.length, data));
+		literal.reset();
+	}
+	
+	protected void emit(Op e) {
+		prepare(e);
+		pulled = true;
+	}
+}
@@ -0,0 +1,4 @@
+/**
+ * Block signatures of an original, from which diffs can be computed without the original.
+ */
+package org.badiff.sig;
\ No newline at end of file
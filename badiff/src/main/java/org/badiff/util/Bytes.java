@@ -0,0 +1,156 @@
+/**
+ * badiff - byte array diff - fast pure-java byte-level diffing
+ * 
+ * Copyright (c) 2013, Robin Kirkman All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ * 2) Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 3) Neither the name of the badiff nor the names of its contributors may be 
+ *    used to endorse or promote products derived from this software without 
+ *    specific prior written permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.badiff.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.badiff.io.RandomInput;
+
+/**
+ * Utility methods for finding where two byte arrays, or two {@link RandomInput}s,
+ * stop being equal.  Arrays are compared eight bytes at a time as {@code long}s.
+ * @author robin
+ *
+ */
+public class Bytes {
+	/**
+	 * The length of the blocks in which {@link RandomInput}s are compared
+	 */
+	public static final int BLOCK = 1024 * 1024;
+	
+	/**
+	 * Returns the length of the common prefix of the {@code len} bytes of {@code a} starting
+	 * at {@code aoff} and the {@code len} bytes of {@code b} starting at {@code boff}
+	 * @param a
+	 * @param aoff
+	 * @param b
+	 * @param boff
+	 * @param len
+	 * @return The offset of the first unequal byte, or {@code len} if all are equal
+	 */
+	public static int prefix(byte[] a, int aoff, byte[] b, int boff, int len) {
+		ByteBuffer x = ByteBuffer.wrap(a);
+		ByteBuffer y = ByteBuffer.wrap(b);
+		int i = 0;
+		for(; i + 8 <= len; i += 8) {
+			long d = x.getLong(aoff + i) ^ y.getLong(boff + i);
+			if(d != 0) // big-endian, so the first byte is the most significant
+				return i + (Long.numberOfLeadingZeros(d) >>> 3);
+		}
+		for(; i < len; i++)
+			if(a[aoff + i] != b[boff + i])
+				return i;
+		return len;
+	}
+	
+	/**
+	 * Returns the length of the common suffix of the {@code len} bytes of {@code a} ending
+	 * at {@code aend} and the {@code len} bytes of {@code b} ending at {@code bend}
+	 * @param a
+	 * @param aend The offset after the last byte of {@code a} to compare
+	 * @param b
+	 * @param bend The offset after the last byte of {@code b} to compare
+	 * @param len
+	 * @return The number of equal bytes before {@code aend} and {@code bend}, at most {@code len}
+	 */
+	public static int suffix(byte[] a, int aend, byte[] b, int bend, int len) {
+		ByteBuffer x = ByteBuffer.wrap(a);
+		ByteBuffer y = ByteBuffer.wrap(b);
+		int n = 0;
+		for(; n + 8 <= len; n += 8) {
+			long d = x.getLong(aend - n - 8) ^ y.getLong(bend - n - 8);
+			if(d != 0) // big-endian, so the last byte is the least significant
+				return n + (Long.numberOfTrailingZeros(d) >>> 3);
+		}
+		for(; n < len; n++)
+			if(a[aend - n - 1] != b[bend - n - 1])
+				return n;
+		return len;
+	}
+	
+	/**
+	 * Returns the length of the common prefix of {@code a} and {@code b} from their
+	 * current positions, reading at most {@code max} bytes of each.  The positions
+	 * afterwards are unspecified.
+	 * @param a
+	 * @param b
+	 * @param max
+	 * @return
+	 * @throws IOException
+	 */
+	public static long prefix(RandomInput a, RandomInput b, long max) throws IOException {
+		byte[] abuf = new byte[(int) Math.min(BLOCK, Math.max(max, 0))];
+		byte[] bbuf = new byte[abuf.length];
+		long n = 0;
+		while(n < max) {
+			int len = (int) Math.min(abuf.length, max - n);
+			a.readFully(abuf, 0, len);
+			b.readFully(bbuf, 0, len);
+			int p = prefix(abuf, 0, bbuf, 0, len);
+			n += p;
+			if(p < len)
+				break;
+		}
+		return n;
+	}
+	
+	/**
+	 * Returns the length of the common suffix of {@code a} and {@code b}, the bytes
+	 * before positions {@code aend} and {@code bend}, reading at most {@code max} bytes of each.
+	 * The positions afterwards are unspecified.
+	 * @param a
+	 * @param aend
+	 * @param b
+	 * @param bend
+	 * @param max
+	 * @return
+	 * @throws IOException
+	 */
+	public static long suffix(RandomInput a, long aend, RandomInput b, long bend, long max) throws IOException {
+		byte[] abuf = new byte[(int) Math.min(BLOCK, Math.max(max, 0))];
+		byte[] bbuf = new byte[abuf.length];
+		long n = 0;
+		while(n < max) {
+			int len = (int) Math.min(abuf.length, max - n);
+			a.seek(aend - n - len);
+			a.readFully(abuf, 0, len);
+			b.seek(bend - n - len);
+			b.readFully(bbuf, 0, len);
+			int s = suffix(abuf, len, bbuf, len, len);
+			n += s;
+			if(s < len)
+				break;
+		}
+		return n;
+	}
+	
+	private Bytes() {}
+}
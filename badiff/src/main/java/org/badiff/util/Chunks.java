@@ -0,0 +1,121 @@
+/**
+ * badiff - byte array diff - fast pure-java byte-level diffing
+ * 
+ * Copyright (c) 2013, Robin Kirkman All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, 
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1) Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ * 2) Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ * 3) Neither the name of the badiff nor the names of its contributors may be 
+ *    used to endorse or promote products derived from this software without 
+ *    specific prior written permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF 
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.badiff.util;
+
+import java.util.Random;
+
+/**
+ * Utility methods for choosing chunk boundaries from the content being chunked, so that
+ * an insertion or deletion early in a file does not shift the boundaries of every later chunk.
+ * Boundaries are found with a gear rolling hash, using the normalized chunking of FastCDC.
+ * @author robin
+ *
+ */
+public class Chunks {
+	/**
+	 * Random values for each byte, shifted into the gear hash
+	 */
+	private static final long[] GEAR = new long[256];
+	static {
+		// fixed seed so that boundaries are the same on every JVM
+		Random r = new Random(0x6261646966664344L);
+		for(int i = 0; i < GEAR.length; i++)
+			GEAR[i] = r.nextLong();
+	}
+	
+	/**
+	 * Returns the minimum chunk length when chunks are at most {@code max} bytes
+	 * @param max
+	 * @return
+	 */
+	public static int min(int max) {
+		return Math.max(1, max / 8);
+	}
+	
+	/**
+	 * Returns the target average chunk length when chunks are at most {@code max} bytes
+	 * @param max
+	 * @return
+	 */
+	public static int normal(int max) {
+		return Math.max(1, max / 2);
+	}
+	
+	/**
+	 * Returns the length of the next chunk of {@code buf}, which is at least {@link #min(int)}
+	 * and at most {@code max} bytes, unless fewer than that many bytes remain.  Chunks shorter
+	 * than {@link #normal(int)} are harder to cut than longer chunks, which keeps chunk lengths
+	 * close to the average.
+	 * @param buf The data to chunk
+	 * @param off The offset of the chunk in {@code buf}
+	 * @param len The number of bytes available from {@code off}
+	 * @param max The maximum chunk length
+	 * @return The length of the chunk starting at {@code off}
+	 */
+	public static int boundary(byte[] buf, int off, int len, int max) {
+		int min = min(max);
+		int normal = normal(max);
+		if(len <= min)
+			return len;
+		if(len > max)
+			len = max;
+		
+		// the gear hash accumulates bytes into its high bits, so mask those
+		int bits = 31 - Integer.numberOfLeadingZeros(normal);
+		long small = mask(bits + 2);
+		long large = mask(bits - 2);
+		
+		long h = 0;
+		int i = min;
+		for(int n = Math.min(normal, len); i < n; i++) {
+			h = (h << 1) + GEAR[buf[off + i] & 0xff];
+			if((h & small) == 0)
+				return i + 1;
+		}
+		for(; i < len; i++) {
+			h = (h << 1) + GEAR[buf[off + i] & 0xff];
+			if((h & large) == 0)
+				return i + 1;
+		}
+		return len;
+	}
+	
+	/**
+	 * Returns a mask of the top {@code bits} bits of a {@code long}
+	 * @param bits
+	 * @return
+	 */
+	private static long mask(int bits) {
+		bits = Math.max(1, Math.min(63, bits));
+		return -1L << (64 - bits);
+	}
+	
+	private Chunks() {}
+}
@@ -34,11 +34,13 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
 
 import org.badiff.Applyable;
 import org.badiff.imp.BadiffFileDiff;
 import org.badiff.io.RandomInputStream;
 import org.badiff.io.RuntimeIOException;
+import org.badiff.p.Pipeline;
 import org.badiff.q.OpQueue;
 import org.badiff.q.ReplaceOpQueue;
 import org.badiff.q.StreamChunkingOpQueue;
@@ -62,6 +64,16 @@ public class Diffs {
 		return BadiffFileDiff.PIPE.from(q).outlet();
 	}
 	
+	/**
+	 * Improve {@code q} as {@link #improved(OpQueue)} does, running parallel graphing on a shared {@link ExecutorService}
+	 * @param q
+	 * @param executor
+	 * @return
+	 */
+	public static OpQueue improved(OpQueue q, ExecutorService executor) {
+		return new Pipeline(q, executor).compile(BadiffFileDiff.PIPES).outlet();
+	}
+	
 	public static byte[] apply(Applyable a, byte[] orig) {
 		InputStream in = new RandomInputStream(orig);
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
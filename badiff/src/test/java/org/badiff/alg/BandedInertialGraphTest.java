@@ -0,0 +1,110 @@
+package org.badiff.alg;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.badiff.Op;
+import org.badiff.imp.MemoryDiff;
+import org.badiff.q.OpQueue;
+import org.badiff.util.Diffs;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BandedInertialGraphTest {
+	
+	/*
+	 * The transition cost of the path described by the argument ops
+	 */
+	private static int pathCost(InertialGraph g, OpQueue q) {
+		int cost = 0;
+		byte prev = -1;
+		for(Op e = q.poll(); e != null; e = q.poll()) {
+			if(prev != -1)
+				cost += g.cost(prev, e.getOp());
+			cost += (e.getRun() - 1) * g.cost(e.getOp(), e.getOp());
+			prev = e.getOp();
+		}
+		if(prev != -1)
+			cost += g.cost(prev, Op.STOP);
+		return cost;
+	}
+	
+	private static byte[] mutate(Random r, byte[] buf, int edits) {
+		byte[] ret = buf;
+		for(int i = 0; i < edits && ret.length > 0; i++) {
+			int pos = r.nextInt(ret.length);
+			switch(r.nextInt(3)) {
+			case 0:
+				ret[pos] = (byte) r.nextInt();
+				break;
+			case 1:
+				byte[] ins = new byte[1 + r.nextInt(8)];
+				r.nextBytes(ins);
+				byte[] b = new byte[ret.length + ins.length];
+				System.arraycopy(ret, 0, b, 0, pos);
+				System.arraycopy(ins, 0, b, pos, ins.length);
+				System.arraycopy(ret, pos, b, pos + ins.length, ret.length - pos);
+				ret = b;
+				break;
+			case 2:
+				int len = Math.min(1 + r.nextInt(8), ret.length - pos);
+				b = new byte[ret.length - len];
+				System.arraycopy(ret, 0, b, 0, pos);
+				System.arraycopy(ret, pos + len, b, pos, ret.length - pos - len);
+				ret = b;
+				break;
+			}
+		}
+		return ret;
+	}
+
+	@Test
+	public void testSameCostAsInertialGraph() {
+		Random r = new Random(1);
+		InertialGraph ig = new InertialGraph(301 * 401);
+		BandedInertialGraph bg = new BandedInertialGraph(301 * 401, 2);
+		for(int i = 0; i < 200; i++) {
+			byte[] orig = new byte[1 + r.nextInt(300)];
+			for(int j = 0; j < orig.length; j++)
+				orig[j] = (byte) r.nextInt(4);
+			byte[] target = mutate(r, orig.clone(), r.nextInt(20));
+			if(target.length > 400)
+				continue;
+			
+			ig.compute(orig, target);
+			bg.compute(orig, target);
+			
+			Assert.assertEquals(pathCost(ig, ig.queue()), pathCost(bg, bg.queue()));
+			Assert.assertTrue(Arrays.equals(target, Diffs.apply(new MemoryDiff(bg.queue()), orig)));
+		}
+	}
+	
+	@Test
+	public void testPerformanceNearlyIdentical() {
+		final int CHUNK = 2048;
+		
+		Random r = new Random(2);
+		byte[] orig = new byte[CHUNK];
+		r.nextBytes(orig);
+		byte[] target = mutate(r, orig.clone(), 4);
+		
+		InertialGraph ig = new InertialGraph((CHUNK + 65) * (CHUNK + 65));
+		BandedInertialGraph bg = new BandedInertialGraph((CHUNK + 65) * (CHUNK + 65));
+		
+		long start = System.nanoTime();
+		for(int i = 0; i < 10; i++)
+			ig.compute(orig, target);
+		long end = System.nanoTime();
+		System.out.println("inertial-Diffed " + CHUNK + " bytes 10 times in " + TimeUnit.MILLISECONDS.convert(end - start, TimeUnit.NANOSECONDS) + "ms.");
+		
+		start = System.nanoTime();
+		for(int i = 0; i < 10; i++)
+			bg.compute(orig, target);
+		end = System.nanoTime();
+		System.out.println("banded-Diffed " + CHUNK + " bytes 10 times in " + TimeUnit.MILLISECONDS.convert(end - start, TimeUnit.NANOSECONDS) + "ms.");
+		
+		Assert.assertEquals(pathCost(ig, ig.queue()), pathCost(bg, bg.queue()));
+		Assert.assertTrue(Arrays.equals(target, Diffs.apply(new MemoryDiff(bg.queue()), orig)));
+	}
+}
@@ -30,6 +30,10 @@
 package org.badiff.alg;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.badiff.Op;
 import org.badiff.imp.MemoryDiff;
 import org.badiff.io.DefaultSerialization;
 import org.badiff.q.GraphOpQueue;
@@ -87,4 +91,29 @@ public class IntertialGraphTest {
 		System.out.println(md);
 	}
 	
+	@Test
+	public void testQueueEmitsRuns() {
+		Random r = new Random(0);
+		byte[] orig = new byte[1024];
+		r.nextBytes(orig);
+		byte[] target = Arrays.copyOf(orig, orig.length);
+		for(int i = 0; i < 16; i++)
+			target[r.nextInt(target.length)] = (byte) r.nextInt();
+		
+		InertialGraph ig = new InertialGraph((orig.length + 1) * (target.length + 1));
+		ig.compute(orig, target);
+		
+		OpQueue q = ig.queue();
+		byte prev = Op.STOP;
+		for(Op e = q.poll(); e != null; e = q.poll()) {
+			Assert.assertTrue(e.getOp() != prev);
+			if(e.getOp() != Op.NEXT)
+				Assert.assertEquals(e.getRun(), e.getData().length);
+			prev = e.getOp();
+		}
+		
+		MemoryDiff md = new MemoryDiff(ig.queue());
+		Assert.assertTrue(Arrays.equals(target, Diffs.apply(md, orig)));
+	}
+	
 }
@@ -0,0 +1,82 @@
+package org.badiff.alg;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.badiff.Op;
+import org.badiff.imp.MemoryDiff;
+import org.badiff.q.OpQueue;
+import org.badiff.util.Diffs;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MyersGraphTest {
+	
+	private static int editLength(OpQueue q) {
+		int len = 0;
+		for(Op e = q.poll(); e != null; e = q.poll()) {
+			if(e.getOp() != Op.NEXT)
+				len += e.getRun();
+		}
+		return len;
+	}
+
+	@Test
+	public void testGraph() {
+		byte[] orig = "Hello world!".getBytes();
+		byte[] target = "Hellish cruel world!".getBytes();
+		
+		MyersGraph g = new MyersGraph();
+		g.compute(orig, target);
+		
+		MemoryDiff md = new MemoryDiff(g.queue());
+		System.out.println(md);
+		
+		Assert.assertEquals(new String(target), new String(Diffs.apply(md, orig)));
+	}
+	
+	@Test
+	public void testShortestScript() {
+		Random r = new Random(1);
+		MyersGraph g = new MyersGraph();
+		EditGraph eg = new EditGraph(201 * 201);
+		for(int i = 0; i < 200; i++) {
+			byte[] orig = new byte[r.nextInt(200)];
+			byte[] target = new byte[r.nextInt(200)];
+			for(int j = 0; j < orig.length; j++)
+				orig[j] = (byte) r.nextInt(4);
+			for(int j = 0; j < target.length; j++)
+				target[j] = (byte) r.nextInt(4);
+			
+			g.compute(orig, target);
+			eg.compute(orig, target);
+			
+			Assert.assertEquals(editLength(eg.queue()), editLength(g.queue()));
+			Assert.assertTrue(Arrays.equals(target, Diffs.apply(new MemoryDiff(g.queue()), orig)));
+		}
+	}
+	
+	@Test
+	public void testPerformanceNearlyIdentical() {
+		final int SIZE = 1024 * 1024;
+		
+		Random r = new Random(2);
+		byte[] orig = new byte[SIZE];
+		r.nextBytes(orig);
+		byte[] target = orig.clone();
+		for(int i = 0; i < 64; i++)
+			target[r.nextInt(SIZE)] = (byte) r.nextInt();
+		
+		MyersGraph g = new MyersGraph();
+		
+		long start = System.nanoTime();
+		g.compute(orig, target);
+		MemoryDiff md = new MemoryDiff(g.queue());
+		long end = System.nanoTime();
+		
+		System.out.println("myers-Diffed " + SIZE + " bytes in " + TimeUnit.MILLISECONDS.convert(end - start, TimeUnit.NANOSECONDS) + "ms.");
+		
+		Assert.assertTrue(Arrays.equals(target, Diffs.apply(md, orig)));
+	}
+}
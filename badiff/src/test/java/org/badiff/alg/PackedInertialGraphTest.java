@@ -0,0 +1,57 @@
+package org.badiff.alg;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.badiff.imp.MemoryDiff;
+import org.badiff.util.Diffs;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PackedInertialGraphTest {
+
+	@Test
+	public void testGraph() {
+		byte[] orig = "Hello world!".getBytes();
+		byte[] target = "Hellish cruel world!".getBytes();
+		
+		PackedInertialGraph g = new PackedInertialGraph((orig.length + 1) * (target.length + 1));
+		g.compute(orig, target);
+		
+		MemoryDiff md = new MemoryDiff(g.queue());
+		System.out.println(md);
+		
+		Assert.assertEquals(">4-1+9>7;", md.toString());
+		Assert.assertEquals(new String(target), new String(Diffs.apply(md, orig)));
+	}
+	
+	@Test
+	public void testSameAsInertialGraph() {
+		Random r = new Random(0);
+		for(int i = 0; i < 500; i++) {
+			byte[] orig = new byte[1 + r.nextInt(64)];
+			byte[] target = new byte[r.nextInt(64)];
+			for(int j = 0; j < orig.length; j++)
+				orig[j] = (byte) r.nextInt(4);
+			for(int j = 0; j < target.length; j++)
+				target[j] = (byte) r.nextInt(4);
+			if(r.nextBoolean()) {
+				byte[] t = orig;
+				orig = target;
+				target = t;
+			}
+			
+			int capacity = Math.max(4, (orig.length + 1) * (target.length + 1));
+			PackedInertialGraph pg = new PackedInertialGraph(capacity);
+			pg.compute(orig, target);
+			MemoryDiff md = new MemoryDiff(pg.queue());
+			Assert.assertTrue(Arrays.equals(target, Diffs.apply(md, orig)));
+			
+			if(target.length == 0)
+				continue;
+			InertialGraph ig = new InertialGraph(capacity);
+			ig.compute(orig, target);
+			Assert.assertEquals(new MemoryDiff(ig.queue()).toString(), md.toString());
+		}
+	}
+}
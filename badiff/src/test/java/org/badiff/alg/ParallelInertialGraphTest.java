@@ -0,0 +1,93 @@
+package org.badiff.alg;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.badiff.imp.MemoryDiff;
+import org.badiff.p.Pipeline;
+import org.badiff.q.ReplaceOpQueue;
+import org.badiff.util.Diffs;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParallelInertialGraphTest {
+
+	@Test
+	public void testSameAsInertialGraph() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(3);
+		try {
+			Random r = new Random(0);
+			for(int i = 0; i < 200; i++) {
+				byte[] orig = new byte[1 + r.nextInt(100)];
+				byte[] target = new byte[1 + r.nextInt(100)];
+				for(int j = 0; j < orig.length; j++)
+					orig[j] = (byte) r.nextInt(4);
+				for(int j = 0; j < target.length; j++)
+					target[j] = (byte) r.nextInt(4);
+				
+				int capacity = (orig.length + 1) * (target.length + 1);
+				InertialGraph ig = new InertialGraph(capacity);
+				ig.compute(orig, target);
+				ParallelInertialGraph pg = new ParallelInertialGraph(capacity, 1 + r.nextInt(16), pool);
+				pg.compute(orig, target);
+				
+				Assert.assertTrue(Arrays.equals(
+						Arrays.copyOf(ig.cost, capacity * InertialGraph.NUM_FIELDS), 
+						Arrays.copyOf(pg.cost, capacity * InertialGraph.NUM_FIELDS)));
+				
+				MemoryDiff md = new MemoryDiff(pg.queue());
+				Assert.assertEquals(new MemoryDiff(ig.queue()).toString(), md.toString());
+				Assert.assertTrue(Arrays.equals(target, Diffs.apply(md, orig)));
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	@Test
+	public void testPerformance() throws Exception {
+		int chunk = 4096;
+		Random r = new Random(1);
+		byte[] orig = new byte[chunk];
+		byte[] target = new byte[chunk];
+		r.nextBytes(orig);
+		r.nextBytes(target);
+		
+		int capacity = (chunk + 1) * (chunk + 1);
+		InertialGraph g = new InertialGraph(capacity);
+		long start = System.nanoTime();
+		g.compute(orig, target);
+		System.out.println("inertial-Computed " + chunk + " bytes in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms.");
+		String expected = new MemoryDiff(g.queue()).toString();
+		
+		g = new ParallelInertialGraph(capacity);
+		start = System.nanoTime();
+		g.compute(orig, target);
+		System.out.println("parallel-Computed " + chunk + " bytes in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms.");
+		Assert.assertEquals(expected, new MemoryDiff(g.queue()).toString());
+	}
+	
+	@Test
+	public void testPipelineChunk() throws Exception {
+		int chunk = 2048;
+		Random r = new Random(2);
+		byte[] orig = new byte[chunk];
+		byte[] target = new byte[chunk];
+		r.nextBytes(orig);
+		r.nextBytes(target);
+		
+		ThreadPoolExecutor pool = (ThreadPoolExecutor) Executors.newFixedThreadPool(3);
+		try {
+			MemoryDiff md = new MemoryDiff(new Pipeline(new ReplaceOpQueue(orig, target), pool, chunk).into("W").outlet());
+			Assert.assertTrue(Arrays.equals(target, Diffs.apply(md, orig)));
+			// the pipeline executor's threads may be waiting on the graph, so it computes no tiles
+			Assert.assertEquals(0, pool.getCompletedTaskCount());
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
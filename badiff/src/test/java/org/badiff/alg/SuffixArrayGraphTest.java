@@ -0,0 +1,138 @@
+package org.badiff.alg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.badiff.Op;
+import org.badiff.imp.BadiffFileDiff;
+import org.badiff.io.RandomInputStream;
+import org.badiff.q.OpQueue;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SuffixArrayGraphTest {
+	
+	private static byte[] apply(OpQueue q, byte[] orig) throws Exception {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		q.apply(new RandomInputStream(orig), result);
+		return result.toByteArray();
+	}
+
+	@Test
+	public void testSuffixArray() {
+		Random r = new Random(0);
+		for(int i = 0; i < 200; i++) {
+			final byte[] buf = new byte[r.nextInt(200)];
+			int alphabet = 1 + r.nextInt(256);
+			for(int j = 0; j < buf.length; j++)
+				buf[j] = (byte) r.nextInt(alphabet);
+			
+			Integer[] naive = new Integer[buf.length];
+			for(int j = 0; j < naive.length; j++)
+				naive[j] = j;
+			Arrays.sort(naive, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer o1, Integer o2) {
+					for(int a = o1, b = o2; a < buf.length && b < buf.length; a++, b++)
+						if(buf[a] != buf[b])
+							return (buf[a] & 0xff) - (buf[b] & 0xff);
+					return o2 - o1;
+				}
+			});
+			
+			int[] sa = SuffixArray.build(buf);
+			for(int j = 0; j < naive.length; j++)
+				Assert.assertEquals((int) naive[j], sa[j]);
+		}
+	}
+	
+	@Test
+	public void testRelocation() throws Exception {
+		final int SIZE = 256 * 1024;
+		Random r = new Random(1);
+		byte[] orig = new byte[SIZE];
+		r.nextBytes(orig);
+		
+		// move a section to the end, and change a few bytes
+		ByteArrayOutputStream t = new ByteArrayOutputStream();
+		t.write(orig, 0, 1000);
+		t.write(orig, 20000, SIZE - 20000);
+		t.write(orig, 1000, 19000);
+		byte[] target = t.toByteArray();
+		for(int i = 0; i < 16; i++)
+			target[r.nextInt(target.length)] ^= 1;
+		
+		SuffixArrayGraph g = new SuffixArrayGraph();
+		g.compute(orig, target);
+		
+		long inserted = 0;
+		OpQueue q = g.queue();
+		for(Op e = q.poll(); e != null; e = q.poll())
+			if(e.getOp() == Op.INSERT)
+				inserted += e.getRun();
+		System.out.println("suffix-inserted " + inserted + " of " + target.length + " bytes");
+		Assert.assertTrue(inserted <= 16);
+		
+		Assert.assertTrue(Arrays.equals(target, apply(g.queue(), orig)));
+	}
+	
+	@Test
+	public void testBadiffFileDiff() throws Exception {
+		final int SIZE = 256 * 1024;
+		Random r = new Random(3);
+		byte[] orig = new byte[SIZE];
+		r.nextBytes(orig);
+		
+		// move a section to the end, beyond the reach of any chunk
+		ByteArrayOutputStream t = new ByteArrayOutputStream();
+		t.write(orig, 0, 1000);
+		t.write(orig, 20000, SIZE - 20000);
+		t.write(orig, 1000, 19000);
+		byte[] target = t.toByteArray();
+		
+		File o = File.createTempFile("orig", ".tmp");
+		File tf = File.createTempFile("target", ".tmp");
+		File chunked = File.createTempFile("chunked", ".tmp");
+		File whole = File.createTempFile("whole", ".tmp");
+		File applied = File.createTempFile("applied", ".tmp");
+		try {
+			FileUtils.writeByteArrayToFile(o, orig);
+			FileUtils.writeByteArrayToFile(tf, target);
+			new BadiffFileDiff(chunked).diff(o, tf, "tsGoccruC");
+			BadiffFileDiff diff = new BadiffFileDiff(whole);
+			diff.diffWhole(o, tf, "tXoccruC");
+			System.out.println("chunked: " + chunked.length() + " bytes, whole: " + whole.length() + " bytes");
+			Assert.assertTrue(whole.length() < 1024);
+			
+			diff.apply(o, applied);
+			Assert.assertTrue(Arrays.equals(target, FileUtils.readFileToByteArray(applied)));
+		} finally {
+			o.delete();
+			tf.delete();
+			chunked.delete();
+			whole.delete();
+			applied.delete();
+		}
+	}
+	
+	@Test
+	public void testRandom() throws Exception {
+		Random r = new Random(2);
+		for(int i = 0; i < 200; i++) {
+			byte[] orig = new byte[r.nextInt(512)];
+			byte[] target = new byte[r.nextInt(512)];
+			for(int j = 0; j < orig.length; j++)
+				orig[j] = (byte) r.nextInt(4);
+			for(int j = 0; j < target.length; j++)
+				target[j] = (byte) r.nextInt(4);
+			
+			SuffixArrayGraph g = new SuffixArrayGraph(1 + r.nextInt(16));
+			g.compute(orig, target);
+			Assert.assertTrue(Arrays.equals(target, apply(g.queue(), orig)));
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package org.badiff.q;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.badiff.Op;
+import org.badiff.alg.GraphFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AnchoringOpQueueTest {
+	
+	private static byte[] mutate(Random r, byte[] buf, int edits) {
+		byte[] ret = buf;
+		for(int i = 0; i < edits && ret.length > 0; i++) {
+			int pos = r.nextInt(ret.length);
+			int len = Math.min(1 + r.nextInt(256), ret.length - pos);
+			byte[] b;
+			if(r.nextBoolean()) {
+				byte[] ins = new byte[len];
+				r.nextBytes(ins);
+				b = new byte[ret.length + len];
+				System.arraycopy(ret, 0, b, 0, pos);
+				System.arraycopy(ins, 0, b, pos, len);
+				System.arraycopy(ret, pos, b, pos + len, ret.length - pos);
+			} else {
+				b = new byte[ret.length - len];
+				System.arraycopy(ret, 0, b, 0, pos);
+				System.arraycopy(ret, pos + len, b, pos, ret.length - pos - len);
+			}
+			ret = b;
+		}
+		return ret;
+	}
+
+	@Test
+	public void testAnchoring() throws Exception {
+		final int SIZE = 1024 * 1024;
+		
+		Random r = new Random(0);
+		byte[] orig = new byte[SIZE];
+		r.nextBytes(orig);
+		byte[] target = mutate(r, orig, 32);
+		
+		OpQueue q = new ReplaceOpQueue(orig, target);
+		q = new AnchoringOpQueue(q);
+		
+		int next = 0;
+		for(Op e = q.poll(); e != null; e = q.poll())
+			if(e.getOp() == Op.NEXT)
+				next += e.getRun();
+		System.out.println("anchored " + next + " of " + SIZE + " bytes");
+		Assert.assertTrue(next > SIZE - 32 * 512);
+		
+		q = new ReplaceOpQueue(orig, target);
+		q = new AnchoringOpQueue(q);
+		q = new ChunkingOpQueue(q);
+		q = new ParallelGraphOpQueue(q, GraphFactory.INERTIAL_GRAPH);
+		
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		long start = System.nanoTime();
+		q.apply(new ByteArrayInputStream(orig), result);
+		System.out.println("anchored-Diffed " + SIZE + " bytes in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms.");
+		
+		Assert.assertTrue(Arrays.equals(target, result.toByteArray()));
+	}
+	
+	@Test
+	public void testApply() throws Exception {
+		Random r = new Random(1);
+		for(int i = 0; i < 100; i++) {
+			byte[] orig = new byte[1 + r.nextInt(4096)];
+			for(int j = 0; j < orig.length; j++)
+				orig[j] = (byte) r.nextInt(1 + r.nextInt(256));
+			byte[] target = mutate(r, orig, r.nextInt(8));
+			
+			OpQueue q = new ReplaceOpQueue(orig, target);
+			q = new AnchoringOpQueue(q, 1 + r.nextInt(32), 1 + r.nextInt(8));
+			
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			q.apply(new ByteArrayInputStream(orig), result);
+			Assert.assertTrue(Arrays.equals(target, result.toByteArray()));
+		}
+	}
+	
+	@Test
+	public void testOrder() {
+		int[] anchors = new int[] {5,0, 1,1, 2,2, 9,3, 3,4, 4,5};
+		Assert.assertTrue(Arrays.equals(new int[] {1,1, 2,2, 3,4, 4,5}, AnchoringOpQueue.order(anchors)));
+	}
+
+	@Test
+	public void testPairAfterNext() {
+		Random r = new Random(7);
+		byte[] orig = new byte[4096];
+		r.nextBytes(orig);
+		byte[] target = orig.clone();
+		target[2000]++;
+		
+		OpQueue q = new OpQueue();
+		q.offer(new Op(Op.NEXT, 10, null));
+		q.offer(new Op(Op.DELETE, orig.length, orig));
+		q.offer(new Op(Op.INSERT, target.length, target));
+		q = new AnchoringOpQueue(q);
+		
+		StringBuilder sb = new StringBuilder();
+		int next = 0;
+		for(Op e = q.poll(); e != null; e = q.poll()) {
+			sb.append(e);
+			if(e.getOp() == Op.NEXT)
+				next += e.getRun();
+		}
+		System.out.println(sb);
+		Assert.assertTrue(next > 10 + orig.length / 2);
+	}
+}
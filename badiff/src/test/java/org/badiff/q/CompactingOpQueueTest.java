@@ -0,0 +1,54 @@
+package org.badiff.q;
+
+import org.badiff.Op;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompactingOpQueueTest {
+
+	@Test
+	public void testAdjacentSlicesAreNotCopied() {
+		byte[] data = "abcdefghij".getBytes();
+		OpQueue q = new OpQueue();
+		q.offer(new Op(Op.INSERT, 3, data, 1));
+		q.offer(new Op(Op.INSERT, 4, data, 4));
+		q.offer(new Op(Op.NEXT, 2, null));
+		q = new CompactingOpQueue(q);
+
+		Op e = q.poll();
+		Assert.assertEquals(Op.INSERT, e.getOp());
+		Assert.assertEquals(7, e.getRun());
+		Assert.assertSame(data, e.getDataArray());
+		Assert.assertEquals(1, e.getDataOffset());
+		Assert.assertEquals("bcdefgh", new String(e.getData()));
+		Assert.assertEquals(Op.NEXT, q.poll().getOp());
+		Assert.assertNull(q.poll());
+	}
+
+	@Test
+	public void testLongRunIsCopiedOnce() {
+		OpQueue q = new OpQueue();
+		StringBuilder expected = new StringBuilder();
+		for(int i = 0; i < 10000; i++) {
+			byte[] data = { (byte)('a' + i % 26) };
+			q.offer(new Op(Op.DELETE, 1, data));
+			expected.append((char) data[0]);
+		}
+		q.offer(new Op(Op.DELETE, 5, null));
+		q.offer(new Op(Op.INSERT, 2, "xy".getBytes()));
+		q = new CompactingOpQueue(q);
+
+		Op e = q.poll();
+		Assert.assertEquals(Op.DELETE, e.getOp());
+		Assert.assertEquals(10005, e.getRun());
+		Assert.assertNull(e.getData());
+
+		q = new OpQueue();
+		for(int i = 0; i < expected.length(); i++)
+			q.offer(new Op(Op.DELETE, 1, new byte[] { (byte) expected.charAt(i) }));
+		q = new CompactingOpQueue(q);
+		e = q.poll();
+		Assert.assertEquals(expected.toString(), new String(e.getData()));
+		Assert.assertNull(q.poll());
+	}
+}
@@ -0,0 +1,90 @@
+package org.badiff.q;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.badiff.Op;
+import org.badiff.alg.GraphFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ContentChunkingOpQueueTest {
+	
+	private static byte[] insert(byte[] buf, int pos, byte[] ins) {
+		byte[] ret = new byte[buf.length + ins.length];
+		System.arraycopy(buf, 0, ret, 0, pos);
+		System.arraycopy(ins, 0, ret, pos, ins.length);
+		System.arraycopy(buf, pos, ret, pos + ins.length, buf.length - pos);
+		return ret;
+	}
+
+	@Test
+	public void testRealignsAfterInsert() throws Exception {
+		final int SIZE = 256 * 1024;
+		final int CHUNK = 1024;
+		
+		Random r = new Random(0);
+		byte[] orig = new byte[SIZE];
+		r.nextBytes(orig);
+		byte[] target = insert(orig, 100, new byte[] {1, 2, 3});
+		
+		OpQueue q = new ContentChunkingOpQueue(new ByteArrayInputStream(orig), new ByteArrayInputStream(target), CHUNK);
+		int next = 0;
+		int changed = 0;
+		for(Op e = q.poll(); e != null; e = q.poll()) {
+			Assert.assertTrue(e.getRun() <= CHUNK);
+			if(e.getOp() == Op.NEXT)
+				next += e.getRun();
+			else
+				changed += e.getRun();
+		}
+		System.out.println("content-chunked: " + next + " bytes unchanged, " + changed + " bytes changed");
+		Assert.assertTrue(changed <= 4 * CHUNK);
+		
+		q = new StreamChunkingOpQueue(new ByteArrayInputStream(orig), new ByteArrayInputStream(target), CHUNK);
+		next = 0;
+		for(Op e = q.poll(); e != null; e = q.poll())
+			if(e.getOp() == Op.NEXT)
+				next += e.getRun();
+		Assert.assertEquals(0, next);
+	}
+	
+	@Test
+	public void testApply() throws Exception {
+		final int CHUNK = 256;
+		Random r = new Random(1);
+		for(int i = 0; i < 20; i++) {
+			byte[] orig = new byte[r.nextInt(16 * CHUNK)];
+			r.nextBytes(orig);
+			byte[] target = orig;
+			for(int j = 0; j < 4 && target.length > 0; j++) {
+				byte[] ins = new byte[r.nextInt(64)];
+				r.nextBytes(ins);
+				target = insert(target, r.nextInt(target.length), ins);
+				int pos = r.nextInt(target.length);
+				int len = Math.min(r.nextInt(64), target.length - pos);
+				byte[] del = new byte[target.length - len];
+				System.arraycopy(target, 0, del, 0, pos);
+				System.arraycopy(target, pos + len, del, pos, del.length - pos);
+				target = del;
+			}
+			
+			OpQueue q = new ContentChunkingOpQueue(new ByteArrayInputStream(orig), new ByteArrayInputStream(target), CHUNK);
+			q = new ParallelGraphOpQueue(q, 1, CHUNK, GraphFactory.INERTIAL_GRAPH);
+			
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			q.apply(new ByteArrayInputStream(orig), result);
+			Assert.assertTrue(Arrays.equals(target, result.toByteArray()));
+			
+			q = new ReplaceOpQueue(orig, target);
+			q = new ChunkingOpQueue(q, CHUNK, true);
+			q = new GraphOpQueue(q, CHUNK);
+			
+			result = new ByteArrayOutputStream();
+			q.apply(new ByteArrayInputStream(orig), result);
+			Assert.assertTrue(Arrays.equals(target, result.toByteArray()));
+		}
+	}
+}
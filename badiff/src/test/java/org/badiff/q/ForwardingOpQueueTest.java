@@ -0,0 +1,58 @@
+package org.badiff.q;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.badiff.imp.BadiffFileDiff;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ForwardingOpQueueTest {
+
+	@Test
+	public void testMovedBlocks() throws Exception {
+		Random r = new Random(22);
+		byte[][] blocks = new byte[8][];
+		for(int i = 0; i < blocks.length; i++) {
+			blocks[i] = new byte[4096];
+			r.nextBytes(blocks[i]);
+		}
+		// the target is the original with each pair of blocks swapped
+		ByteArrayOutputStream orig = new ByteArrayOutputStream();
+		ByteArrayOutputStream target = new ByteArrayOutputStream();
+		for(int i = 0; i < blocks.length; i += 2) {
+			orig.write(blocks[i]);
+			orig.write(blocks[i + 1]);
+			target.write(blocks[i + 1]);
+			target.write(blocks[i]);
+		}
+
+		File o = File.createTempFile("orig", ".tmp");
+		File t = File.createTempFile("target", ".tmp");
+		File rewound = File.createTempFile("rewound", ".tmp");
+		File forwarded = File.createTempFile("forwarded", ".tmp");
+		File applied = File.createTempFile("applied", ".tmp");
+		try {
+			FileUtils.writeByteArrayToFile(o, orig.toByteArray());
+			FileUtils.writeByteArrayToFile(t, target.toByteArray());
+
+			new BadiffFileDiff(rewound).diff(o, t, "sGccruC");
+			BadiffFileDiff diff = new BadiffFileDiff(forwarded);
+			diff.diff(o, t, "sGccrFuC");
+			System.out.println("rewinding only: " + rewound.length() + " bytes, with forwarding: " + forwarded.length() + " bytes");
+			Assert.assertTrue(forwarded.length() < rewound.length());
+			Assert.assertTrue((diff.header().getFlags() & BadiffFileDiff.FLAG_RANDOM_ACCESS) != 0);
+
+			diff.apply(o, applied);
+			Assert.assertArrayEquals(target.toByteArray(), FileUtils.readFileToByteArray(applied));
+		} finally {
+			o.delete();
+			t.delete();
+			rewound.delete();
+			forwarded.delete();
+			applied.delete();
+		}
+	}
+}
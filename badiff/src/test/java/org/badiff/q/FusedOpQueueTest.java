@@ -0,0 +1,93 @@
+package org.badiff.q;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.badiff.Op;
+import org.badiff.p.Pipeline;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FusedOpQueueTest {
+
+	private static List<Op> ops(Random r, int count) {
+		byte[][] pool = new byte[6][];
+		for(int i = 0; i < pool.length; i++) {
+			pool[i] = new byte[8 + 8 * i];
+			r.nextBytes(pool[i]);
+		}
+		byte[] shared = new byte[1024];
+		r.nextBytes(shared);
+		List<Op> ops = new ArrayList<Op>();
+		for(int i = 0; i < count; i++) {
+			switch(r.nextInt(4)) {
+			case 0:
+				ops.add(new Op(Op.NEXT, 1 + r.nextInt(50), null));
+				break;
+			case 1:
+				byte[] d = pool[r.nextInt(pool.length)];
+				ops.add(new Op(Op.DELETE, d.length, d));
+				break;
+			case 2:
+				byte[] n = pool[r.nextInt(pool.length)];
+				ops.add(new Op(Op.INSERT, n.length, n));
+				break;
+			case 3:
+				int off = r.nextInt(shared.length - 64);
+				ops.add(new Op(r.nextBoolean() ? Op.INSERT : Op.DELETE, 1 + r.nextInt(64), shared, off));
+				break;
+			}
+		}
+		return ops;
+	}
+
+	private static List<String> strings(OpQueue q) {
+		List<String> ret = new ArrayList<String>();
+		for(Op e = q.poll(); e != null; e = q.poll()) {
+			byte[] data = e.getData();
+			ret.add(e + (data == null ? "" : ":" + new String(data)));
+		}
+		return ret;
+	}
+
+	@Test
+	public void testSameAsChained() {
+		List<Op> ops = ops(new Random(19), 20000);
+		for(String codes : new String[] {"ccruC", "cCoruC", "UcrCu", "rrcu", "Co", "c"}) {
+			List<String> chained = strings(new Pipeline(new ListOpQueue(ops)).into(codes).outlet());
+			List<String> fused = strings(new Pipeline(new ListOpQueue(ops)).compile(codes).outlet());
+			System.out.println(codes + ": " + chained.size() + " ops out");
+			Assert.assertEquals(chained, fused);
+		}
+	}
+
+	@Test
+	public void testCompileKeepsUnfusedPipes() {
+		Random r = new Random(20);
+		byte[] orig = new byte[16 * 1024];
+		r.nextBytes(orig);
+		byte[] target = orig.clone();
+		for(int i = 0; i < 100; i++)
+			target[r.nextInt(target.length)] = (byte) r.nextInt();
+
+		List<String> chained = strings(new Pipeline(new ReplaceOpQueue(orig, target)).into("sGccruC").outlet());
+		OpQueue q = new Pipeline(new ReplaceOpQueue(orig, target)).compile("sGccruC").outlet();
+		Assert.assertTrue(q instanceof FusedOpQueue);
+		Assert.assertEquals(chained, strings(q));
+	}
+
+	@Test
+	public void testTiming() {
+		List<Op> ops = ops(new Random(21), 200000);
+		for(int i = 0; i < 3; i++) {
+			long start = System.nanoTime();
+			new Pipeline(new ListOpQueue(ops)).into("ccruC").outlet().drain();
+			long chained = System.nanoTime() - start;
+			start = System.nanoTime();
+			new Pipeline(new ListOpQueue(ops)).compile("ccruC").outlet().drain();
+			long fused = System.nanoTime() - start;
+			System.out.println("ccruC chained: " + chained / 1000000 + "ms, fused: " + fused / 1000000 + "ms");
+		}
+	}
+}
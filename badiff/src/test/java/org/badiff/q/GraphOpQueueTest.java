@@ -34,6 +34,7 @@ import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
 import org.badiff.Op;
@@ -129,4 +130,34 @@ public class GraphOpQueueTest {
 		Assert.assertTrue(Arrays.equals(target.toByteArray(), result.toByteArray()));
 	}
 
+	@Test
+	public void testSubstitute() throws Exception {
+		byte[] orig = new byte[1024];
+		new Random(25).nextBytes(orig);
+		Op delete = new Op(Op.DELETE, orig.length, orig);
+
+		List<Op> equal = GraphOpQueue.substitute(delete, new Op(Op.INSERT, orig.length, orig.clone())).drainTo(new ArrayList<Op>());
+		Assert.assertEquals(1, equal.size());
+		Assert.assertEquals(Op.NEXT, equal.get(0).getOp());
+		Assert.assertEquals(orig.length, equal.get(0).getRun());
+
+		byte[] target = orig.clone();
+		target[10]++;
+		target[500]++;
+		target[501]++;
+		OpQueue q = GraphOpQueue.substitute(delete, new Op(Op.INSERT, target.length, target));
+		List<Op> substituted = q.drainTo(new ArrayList<Op>());
+		System.out.println(substituted);
+		Assert.assertEquals(7, substituted.size());
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		new ListOpQueue(substituted).apply(new ByteArrayInputStream(orig), result);
+		Assert.assertArrayEquals(target, result.toByteArray());
+
+		// a shift differs almost everywhere after it, so is left to the graph
+		byte[] shifted = new byte[orig.length];
+		System.arraycopy(orig, 0, shifted, 1, orig.length - 1);
+		Assert.assertNull(GraphOpQueue.substitute(delete, new Op(Op.INSERT, shifted.length, shifted)));
+		Assert.assertNull(GraphOpQueue.substitute(delete, new Op(Op.INSERT, 10, target)));
+	}
+
 }
@@ -0,0 +1,83 @@
+package org.badiff.q;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.badiff.Op;
+import org.badiff.imp.MemoryDiff;
+import org.badiff.io.DefaultSerialization;
+import org.badiff.io.Serialization;
+import org.badiff.util.Serials;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OpBufferTest {
+
+	private static List<Op> ops() {
+		List<Op> ops = new ArrayList<Op>();
+		ops.add(new Op(Op.NEXT, 3, null));
+		ops.add(new Op(Op.DELETE, 2, "xy".getBytes()));
+		ops.add(new Op(Op.INSERT, 4, "abcd".getBytes()));
+		ops.add(new Op(Op.DELETE, 1, null));
+		ops.add(new Op(Op.NEXT, 2, null));
+		ops.add(new Op(Op.INSERT, 1, "z".getBytes()));
+		return ops;
+	}
+
+	@Test
+	public void testCursor() {
+		OpBuffer buf = new OpBuffer(1, 1);
+		for(Op e : ops())
+			buf.add(e);
+		Assert.assertEquals(6, buf.size());
+		Assert.assertEquals(">3-2+4-1>2+1;", buf.toString());
+
+		OpBuffer.Cursor c = buf.cursor();
+		Assert.assertTrue(c.next());
+		Assert.assertFalse(c.hasData());
+		Assert.assertTrue(c.next());
+		Assert.assertEquals("xy", new String(c.arena(), c.offset(), c.length()));
+		Assert.assertTrue(c.next());
+		Assert.assertEquals(Op.INSERT, c.op());
+		Assert.assertEquals("abcd", new String(c.arena(), c.offset(), c.length()));
+		Assert.assertTrue(c.next());
+		Assert.assertNull(c.get().getData());
+		Assert.assertTrue(c.next());
+		Assert.assertTrue(c.next());
+		Assert.assertFalse(c.next());
+	}
+
+	@Test
+	public void testSerializationMatchesOps() throws Exception {
+		Serialization serial = DefaultSerialization.newInstance();
+		OpBuffer buf = new OpBuffer();
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		for(Op e : ops()) {
+			buf.add(e);
+			serial.writeObject(expected, Op.class, e);
+		}
+		serial.writeObject(expected, Op.class, new Op(Op.STOP, 1, null));
+
+		byte[] actual = Serials.serialize(serial, OpBuffer.class, buf);
+		Assert.assertArrayEquals(expected.toByteArray(), actual);
+
+		OpBuffer read = Serials.deserialize(serial, OpBuffer.class, actual);
+		Assert.assertEquals(buf.toString(), read.toString());
+	}
+
+	@Test
+	public void testApplyAndQueue() throws Exception {
+		MemoryDiff md = new MemoryDiff(new ListOpQueue(ops()));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		md.apply(new ByteArrayInputStream("123xyq45".getBytes()), out);
+		Assert.assertEquals("123abcd45z", new String(out.toByteArray()));
+
+		md.store(new OneWayOpQueue(md.queue()));
+		System.out.println(md);
+		out.reset();
+		md.apply(new ByteArrayInputStream("123xyq45".getBytes()), out);
+		Assert.assertEquals("123abcd45z", new String(out.toByteArray()));
+	}
+}
@@ -0,0 +1,103 @@
+package org.badiff.q;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.badiff.Op;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OpDequeTest {
+
+	private static Op op(int i) {
+		return new Op(Op.NEXT, i + 1, null);
+	}
+
+	@Test
+	public void testWrapAndGrow() {
+		OpDeque d = new OpDeque(4);
+		List<Op> expected = new ArrayList<Op>();
+		for(int i = 0; i < 100; i++) {
+			Op e = op(i);
+			if(i % 3 == 0) {
+				d.push(e);
+				expected.add(0, e);
+			} else {
+				d.add(e);
+				expected.add(e);
+			}
+			if(i % 5 == 0) {
+				Assert.assertSame(expected.remove(0), d.pop());
+			}
+		}
+		Assert.assertEquals(expected.size(), d.size());
+		for(int i = 0; i < expected.size(); i++)
+			Assert.assertSame(expected.get(i), d.get(i));
+		while(!d.isEmpty())
+			Assert.assertSame(expected.remove(0), d.pop());
+		Assert.assertNull(d.peek());
+	}
+
+	@Test
+	public void testListOperations() {
+		OpDeque d = new OpDeque(4);
+		List<Op> expected = new ArrayList<Op>();
+		for(int i = 0; i < 50; i++) {
+			Op e = op(i);
+			int index = (i * 7) % (expected.size() + 1);
+			d.push(op(1000));
+			d.pop();
+			d.add(index, e);
+			expected.add(index, e);
+			if(i % 4 == 3) {
+				index = (i * 5) % expected.size();
+				Assert.assertSame(expected.remove(index), d.remove(index));
+			}
+		}
+		Op e = op(99);
+		Assert.assertSame(expected.set(3, e), d.set(3, e));
+		Assert.assertEquals(expected, d);
+		List<Op> list = d;
+		list.subList(1, 4).clear();
+		expected.subList(1, 4).clear();
+		Assert.assertEquals(expected, new ArrayList<Op>(list));
+	}
+
+	@Test
+	public void testSortIsStable() {
+		OpDeque d = new OpDeque();
+		d.add(new Op(Op.INSERT, 1, new byte[] {1}));
+		d.add(new Op(Op.DELETE, 1, null));
+		d.add(new Op(Op.INSERT, 1, new byte[] {2}));
+		d.push(new Op(Op.DELETE, 2, null));
+		d.sort(UnchunkingOpQueue.OP_ORDER);
+		Assert.assertEquals(Op.DELETE, d.get(0).getOp());
+		Assert.assertEquals(2, d.get(0).getRun());
+		Assert.assertEquals(Op.DELETE, d.get(1).getOp());
+		Assert.assertEquals(1, d.get(2).getData()[0]);
+		Assert.assertEquals(2, d.get(3).getData()[0]);
+	}
+
+	@Test
+	public void testFrontRemovalTiming() {
+		int count = 200000;
+
+		long start = System.nanoTime();
+		List<Op> list = new ArrayList<Op>();
+		for(int i = 0; i < count; i++)
+			list.add(op(i));
+		while(!list.isEmpty())
+			list.remove(0);
+		long listNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		OpDeque d = new OpDeque();
+		for(int i = 0; i < count; i++)
+			d.add(op(i));
+		while(!d.isEmpty())
+			d.pop();
+		long dequeNanos = System.nanoTime() - start;
+
+		System.out.println("ArrayList drain: " + listNanos / 1000000 + "ms, OpDeque drain: " + dequeNanos / 1000000 + "ms");
+	}
+}
@@ -0,0 +1,105 @@
+package org.badiff.q;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.badiff.Diff;
+import org.badiff.Op;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OpQueueTest {
+
+	private static OpQueue pipeline(byte[] orig, byte[] target) {
+		OpQueue q = new ReplaceOpQueue(orig, target);
+		q = new ChunkingOpQueue(q, Diff.DEFAULT_CHUNK);
+		q = new GraphOpQueue(q, Diff.DEFAULT_CHUNK);
+		q = new CoalescingOpQueue(q);
+		q = new CompactingOpQueue(q);
+		return q;
+	}
+
+	@Test
+	public void testPollBatchMatchesPoll() {
+		Random r = new Random(12);
+		byte[] orig = new byte[20000];
+		r.nextBytes(orig);
+		byte[] target = orig.clone();
+		for(int i = 0; i < 200; i++)
+			target[r.nextInt(target.length)] = (byte) r.nextInt();
+
+		List<String> polled = new ArrayList<String>();
+		OpQueue q = pipeline(orig, target);
+		for(Op e = q.poll(); e != null; e = q.poll())
+			polled.add(e.toString());
+
+		List<String> batched = new ArrayList<String>();
+		q = pipeline(orig, target);
+		Op[] batch = new Op[7];
+		for(int n = q.pollBatch(batch, batch.length); n > 0; n = q.pollBatch(batch, batch.length)) {
+			for(int i = 0; i < n; i++)
+				batched.add(batch[i].toString());
+		}
+
+		System.out.println(polled.size() + " ops");
+		Assert.assertEquals(polled, batched);
+	}
+
+	@Test
+	public void testChainPollBatch() {
+		ChainOpQueue chain = new ChainOpQueue();
+		List<Op> expected = new ArrayList<Op>();
+		for(int i = 0; i < 5; i++) {
+			OpQueue q = new OpQueue();
+			for(int j = 0; j < i * 3; j++) {
+				Op e = new Op(Op.NEXT, j + 1, null);
+				q.offer(e);
+				expected.add(e);
+			}
+			chain.offer(q);
+		}
+
+		List<Op> actual = new ArrayList<Op>();
+		Op[] batch = new Op[4];
+		for(int n = chain.pollBatch(batch, batch.length); n > 0; n = chain.pollBatch(batch, batch.length)) {
+			for(int i = 0; i < n; i++)
+				actual.add(batch[i]);
+		}
+		Assert.assertEquals(expected, actual);
+	}
+
+	@Test
+	public void testFiltersDrawBatches() {
+		final int[] calls = new int[2];
+		OpQueue source = new OpQueue() {
+			@Override
+			public Op poll() {
+				calls[0]++;
+				return super.poll();
+			}
+			
+			@Override
+			public int pollBatch(Op[] dst, int max) {
+				calls[1]++;
+				return super.pollBatch(dst, max);
+			}
+		};
+		for(int i = 0; i < 1000; i++) {
+			source.offer(new Op(Op.INSERT, 1, new byte[] {(byte) i}));
+			source.offer(new Op(Op.DELETE, 1, new byte[] {(byte) i}));
+			source.offer(new Op(Op.NEXT, 1, null));
+		}
+
+		OpQueue q = new UnchunkingOpQueue(new OneWayOpQueue(source));
+		List<Op> actual = q.drainTo(new ArrayList<Op>());
+		Assert.assertEquals(3000, actual.size());
+		Assert.assertEquals(Op.DELETE, actual.get(0).getOp());
+		Assert.assertNull(actual.get(0).getData());
+		Assert.assertEquals(Op.INSERT, actual.get(1).getOp());
+		System.out.println(calls[0] + " polls, " + calls[1] + " batches");
+		Assert.assertEquals(0, calls[0]);
+		// a batch per DEFAULT_BATCH ops, and a few more finding the source empty
+		Assert.assertTrue(calls[1] <= 3000 / OpQueue.DEFAULT_BATCH + 4);
+	}
+}
@@ -0,0 +1,148 @@
+package org.badiff.q;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.badiff.Op;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OpRingTest {
+
+	@Test
+	public void testOrderAcrossThreads() throws Exception {
+		final int count = 500000;
+		final Op[] ops = new Op[count];
+		for(int i = 0; i < count; i++)
+			ops[i] = new Op(Op.NEXT, i + 1, null);
+		final OpRing ring = new OpRing(100);
+		Assert.assertEquals(128, ring.ring.length);
+
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				Random r = new Random(20);
+				Op[] batch = new Op[300];
+				int i = 0;
+				while(i < count) {
+					int n = Math.min(count - i, 1 + r.nextInt(batch.length));
+					System.arraycopy(ops, i, batch, 0, n);
+					ring.put(batch, n);
+					i += n;
+				}
+				ring.close();
+			}
+		};
+		producer.start();
+
+		Op[] batch = new Op[64];
+		int taken = 0;
+		for(int n = ring.take(batch, batch.length); n > 0; n = ring.take(batch, batch.length)) {
+			for(int i = 0; i < n; i++)
+				Assert.assertSame(ops[taken++], batch[i]);
+		}
+		producer.join();
+		Assert.assertEquals(count, taken);
+		Assert.assertEquals(0, ring.take(batch, batch.length));
+	}
+
+	@Test
+	public void testByteLimit() throws Exception {
+		final OpRing ring = new OpRing(1024, 1000);
+		final AtomicLong peak = new AtomicLong();
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				Op[] batch = new Op[10];
+				for(int i = 0; i < 1000; i++) {
+					for(int j = 0; j < batch.length; j++)
+						batch[j] = new Op(Op.INSERT, 100, new byte[100]);
+					ring.put(batch, batch.length);
+					peak.set(Math.max(peak.get(), ring.bytes.get()));
+				}
+				ring.close();
+			}
+		};
+		producer.start();
+
+		Op[] batch = new Op[7];
+		int taken = 0;
+		for(int n = ring.take(batch, batch.length); n > 0; n = ring.take(batch, batch.length))
+			taken += n;
+		producer.join();
+		System.out.println("peak bytes buffered: " + peak.get());
+		Assert.assertEquals(10000, taken);
+		Assert.assertTrue(peak.get() <= 1000);
+	}
+
+	@Test
+	public void testPumpingOpQueue() {
+		List<Op> ops = new ArrayList<Op>();
+		for(int i = 0; i < 10000; i++)
+			ops.add(new Op(Op.INSERT, 1, new byte[] {(byte) i}));
+		List<Op> pumped = new PumpingOpQueue(new ListOpQueue(ops), 16, 8).drainTo(new ArrayList<Op>());
+		Assert.assertEquals(ops, pumped);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testPumpingOpQueueRethrows() {
+		OpQueue failing = new OpQueue() {
+			@Override
+			protected boolean pull() {
+				throw new IllegalStateException("source failed");
+			}
+		};
+		new PumpingOpQueue(failing).drain();
+	}
+
+	@Test
+	public void testTiming() throws Exception {
+		final int count = 1000000;
+		final Op e = new Op(Op.NEXT, 1, null);
+		for(int round = 0; round < 3; round++) {
+			final BlockingQueue<Op> queue = new ArrayBlockingQueue<Op>(1024);
+			long start = System.nanoTime();
+			Thread producer = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for(int i = 0; i < count; i++)
+							queue.put(e);
+					} catch(InterruptedException ie) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			};
+			producer.start();
+			for(int i = 0; i < count; i++)
+				queue.take();
+			producer.join();
+			long blocking = System.nanoTime() - start;
+
+			final OpRing ring = new OpRing(1024);
+			start = System.nanoTime();
+			producer = new Thread() {
+				@Override
+				public void run() {
+					Op[] batch = new Op[OpQueue.DEFAULT_BATCH];
+					for(int i = 0; i < batch.length; i++)
+						batch[i] = e;
+					for(int i = 0; i < count; i += batch.length)
+						ring.put(batch, Math.min(batch.length, count - i));
+					ring.close();
+				}
+			};
+			producer.start();
+			Op[] batch = new Op[OpQueue.DEFAULT_BATCH];
+			while(ring.take(batch, batch.length) > 0)
+				;
+			producer.join();
+			long ringNanos = System.nanoTime() - start;
+			System.out.println("1M ops through ArrayBlockingQueue: " + blocking / 1000000 + "ms, OpRing: " + ringNanos / 1000000 + "ms");
+		}
+	}
+}
@@ -39,8 +39,13 @@ import java.io.OutputStream;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel.MapMode;
 import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
+import org.badiff.alg.Graph;
 import org.badiff.alg.GraphFactory;
 import org.badiff.imp.FileDiff;
 import org.badiff.util.Streams;
@@ -168,4 +173,99 @@ public class ParallelGraphOpQueueTest {
 		target.delete();
 	}
 
+
+	@Test
+	public void testSharedExecutor() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			for(int i = 0; i < 20; i++) {
+				byte[] orig = ("hello world " + i + " the quick brown fox").getBytes();
+				byte[] target = ("hellish cruel world " + i + " the quick red fox").getBytes();
+				OpQueue q = new ReplaceOpQueue(orig, target);
+				q = new ChunkingOpQueue(q, 8);
+				q = new ParallelGraphOpQueue(q, pool, 2, 8, GraphFactory.INERTIAL_GRAPH);
+				ByteArrayOutputStream result = new ByteArrayOutputStream();
+				q.apply(new ByteArrayInputStream(orig), result);
+				Assert.assertArrayEquals(target, result.toByteArray());
+			}
+			Assert.assertFalse(pool.isShutdown());
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	@Test
+	public void testClose() throws Exception {
+		byte[] orig = new byte[64 * 1024];
+		byte[] target = new byte[64 * 1024];
+		Arrays.fill(target, (byte) 1);
+		ParallelGraphOpQueue q = new ParallelGraphOpQueue(new ChunkingOpQueue(new ReplaceOpQueue(orig, target), 256), 2, 256, GraphFactory.INERTIAL_GRAPH);
+		Assert.assertNotNull(q.poll());
+		q.close();
+		Assert.assertTrue(q.pool.isShutdown());
+		Assert.assertNull(q.poll());
+	}
+
+	@Test
+	public void testLookahead() throws Exception {
+		byte[] orig = new byte[32 * 1024];
+		byte[] target = new byte[32 * 1024];
+		for(int i = 0; i < orig.length; i++) {
+			orig[i] = (byte)(i % 251);
+			target[i] = (byte)((i * 7) % 13 == 0 ? i : i % 251);
+		}
+		for(int lookahead : new int[] {1, 2, 64}) {
+			ParallelGraphOpQueue q = new ParallelGraphOpQueue(new ChunkingOpQueue(new ReplaceOpQueue(orig, target), 256), 2, 256, GraphFactory.INERTIAL_GRAPH);
+			q.setLookahead(lookahead);
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			q.apply(new ByteArrayInputStream(orig), result);
+			Assert.assertArrayEquals(target, result.toByteArray());
+			Assert.assertEquals(0, q.outstanding);
+		}
+	}
+
+	@Test
+	public void testMostlyIdenticalChunks() throws Exception {
+		byte[] orig = new byte[4 * 1024 * 1024];
+		new Random(25).nextBytes(orig);
+		byte[] target = orig.clone();
+		for(int i = 0; i < target.length; i += 10 * 1024)
+			target[i + 100] = (byte) ~target[i + 100];
+		for(int i = 0; i < target.length; i += 20 * 1024)
+			for(int j = 200; j < 400; j++)
+				target[i + j] = (byte) j;
+
+		long start = System.nanoTime();
+		OpQueue q = new ParallelGraphOpQueue(new ChunkingOpQueue(new ReplaceOpQueue(orig, target), 1024), GraphFactory.INERTIAL_GRAPH);
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		q.apply(new ByteArrayInputStream(orig), result);
+		System.out.println("Diffed mostly identical " + orig.length + " bytes in " + (System.nanoTime() - start) / 1000000 + "ms");
+		Assert.assertArrayEquals(target, result.toByteArray());
+	}
+
+	@Test
+	public void testGraphsBelongToQueue() throws Exception {
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		try {
+			final ParallelGraphOpQueue q1 = new ParallelGraphOpQueue(new OpQueue(), pool, 1, 64, GraphFactory.INERTIAL_GRAPH);
+			final ParallelGraphOpQueue q2 = new ParallelGraphOpQueue(new OpQueue(), pool, 1, 64, GraphFactory.INERTIAL_GRAPH);
+			Graph[] graphs = pool.submit(new Callable<Graph[]>() {
+				@Override
+				public Graph[] call() throws Exception {
+					Graph g1 = q1.graph();
+					q1.release(g1);
+					return new Graph[] {g1, q1.graph(), q2.graph()};
+				}
+			}).get();
+			Assert.assertSame(graphs[0], graphs[1]);
+			Assert.assertNotSame(graphs[0], graphs[2]);
+			
+			q1.release(graphs[1]);
+			Assert.assertEquals(1, q1.graphs.size());
+			q1.close();
+			Assert.assertEquals(0, q1.graphs.size());
+		} finally {
+			pool.shutdown();
+		}
+	}
 }
@@ -0,0 +1,96 @@
+package org.badiff.q;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.badiff.Op;
+import org.badiff.p.Pipeline;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParallelPostProcessingOpQueueTest {
+
+	private static byte[] target(byte[] orig, Random r) {
+		byte[] target = orig.clone();
+		// move some blocks around so the rewinding stage has something to find
+		for(int i = 0; i < 40; i++) {
+			int len = 32 + r.nextInt(300);
+			int from = r.nextInt(orig.length - len);
+			int to = r.nextInt(orig.length - len);
+			System.arraycopy(orig, from, target, to, len);
+		}
+		for(int i = 0; i < 400; i++)
+			target[r.nextInt(target.length)] = (byte) r.nextInt();
+		return target;
+	}
+
+	private static List<String> strings(OpQueue q) {
+		List<String> ret = new ArrayList<String>();
+		for(Op e = q.poll(); e != null; e = q.poll()) {
+			byte[] data = e.getData();
+			ret.add(e + (data == null ? "" : ":" + new String(data)));
+		}
+		return ret;
+	}
+
+	@Test
+	public void testSameAsSerial() {
+		Random r = new Random(21);
+		for(int partition : new int[] {1, 4, 64, 100000}) {
+			byte[] orig = new byte[64 * 1024];
+			for(int i = 0; i < orig.length; i++)
+				orig[i] = (byte)('a' + r.nextInt(4));
+			byte[] target = target(orig, r);
+
+			List<Op> graphed = new Pipeline(new ReplaceOpQueue(orig, target), "sG").outlet().drainTo(new ArrayList<Op>());
+
+			List<String> serial = strings(new Pipeline(new ListOpQueue(graphed), "ccruC").outlet());
+			List<String> parallel = strings(new ParallelPostProcessingOpQueue(new ListOpQueue(graphed), 2, partition));
+
+			int rewinds = 0;
+			for(String e : serial)
+				if(e.startsWith("--"))
+					rewinds++;
+			System.out.println("partition " + partition + ": " + graphed.size() + " ops in, " + serial.size() + " ops out, " + rewinds + " rewinds");
+			Assert.assertEquals(serial, parallel);
+		}
+	}
+
+	@Test
+	public void testSyntheticSameAsSerial() {
+		Random r = new Random(22);
+		byte[][] pool = new byte[6][];
+		for(int i = 0; i < pool.length; i++) {
+			pool[i] = new byte[8 + 8 * i];
+			r.nextBytes(pool[i]);
+		}
+		List<Op> ops = new ArrayList<Op>();
+		for(int i = 0; i < 20000; i++) {
+			switch(r.nextInt(3)) {
+			case 0:
+				ops.add(new Op(Op.NEXT, 1 + r.nextInt(50), null));
+				break;
+			case 1:
+				byte[] d = pool[r.nextInt(pool.length)];
+				ops.add(new Op(Op.DELETE, d.length, d));
+				break;
+			case 2:
+				byte[] n = pool[r.nextInt(pool.length)];
+				ops.add(new Op(Op.INSERT, n.length, n));
+				break;
+			}
+		}
+		for(int partition : new int[] {1, 3, 50, 1000}) {
+			List<String> serial = strings(new Pipeline(new ListOpQueue(ops), "ccruC").outlet());
+			List<String> parallel = strings(new ParallelPostProcessingOpQueue(new ListOpQueue(ops), 3, partition));
+			int rewinds = 0;
+			for(String e : serial)
+				if(e.startsWith("--"))
+					rewinds++;
+			System.out.println("partition " + partition + ": " + serial.size() + " ops out, " + rewinds + " rewinds");
+			Assert.assertTrue(rewinds > 0);
+			Assert.assertEquals(serial, parallel);
+		}
+	}
+}
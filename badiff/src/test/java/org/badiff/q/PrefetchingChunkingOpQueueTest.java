@@ -0,0 +1,62 @@
+package org.badiff.q;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.badiff.Op;
+import org.badiff.io.RuntimeIOException;
+import org.badiff.util.Diffs;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PrefetchingChunkingOpQueueTest {
+
+	@Test
+	public void testSameChunksAsStreamChunking() {
+		Random r = new Random(17);
+		byte[] orig = new byte[100000];
+		byte[] target = new byte[70001];
+		r.nextBytes(orig);
+		r.nextBytes(target);
+
+		OpQueue expected = new StreamChunkingOpQueue(new ByteArrayInputStream(orig), new ByteArrayInputStream(target), 1024);
+		OpQueue actual = new PrefetchingChunkingOpQueue(new ByteArrayInputStream(orig), new ByteArrayInputStream(target), 1024, 4);
+		int count = 0;
+		for(Op e = expected.poll(); e != null; e = expected.poll(), count++) {
+			Op a = actual.poll();
+			Assert.assertEquals(e.getOp(), a.getOp());
+			Assert.assertEquals(e.getRun(), a.getRun());
+			Assert.assertArrayEquals(e.getData(), a.getData());
+		}
+		Assert.assertNull(actual.poll());
+		System.out.println(count + " chunks");
+	}
+
+	@Test
+	public void testDiff() {
+		Random r = new Random(18);
+		byte[] orig = new byte[50000];
+		r.nextBytes(orig);
+		byte[] target = orig.clone();
+		for(int i = 0; i < 50; i++)
+			target[r.nextInt(target.length)] = (byte) r.nextInt();
+
+		OpQueue q = new PrefetchingChunkingOpQueue(new ByteArrayInputStream(orig), new ByteArrayInputStream(target));
+		Assert.assertArrayEquals(target, Diffs.apply(Diffs.improved(q), orig));
+	}
+
+	@Test(expected = RuntimeIOException.class)
+	public void testReadError() {
+		InputStream broken = new InputStream() {
+			@Override
+			public int read() throws IOException {
+				throw new IOException("broken");
+			}
+		};
+		OpQueue q = new PrefetchingChunkingOpQueue(broken, new ByteArrayInputStream(new byte[10]));
+		while(q.poll() != null)
+			;
+	}
+}
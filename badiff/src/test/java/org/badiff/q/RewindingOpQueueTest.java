@@ -1,8 +1,12 @@
 package org.badiff.q;
 
 import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 import org.badiff.Diff;
+import org.badiff.Op;
 import org.badiff.imp.MemoryDiff;
 import org.badiff.io.DefaultSerialization;
 import org.badiff.io.RandomInputStream;
@@ -35,4 +39,71 @@ public class RewindingOpQueueTest {
 		
 		Assert.assertEquals(target, new String(bout.toByteArray()));
 	}
+
+	@Test
+	public void testPartialMatch() throws Exception {
+		Random r = new Random(21);
+		byte[] deleted = new byte[200];
+		byte[] kept = new byte[10];
+		byte[] inserted = new byte[150];
+		r.nextBytes(deleted);
+		r.nextBytes(kept);
+		r.nextBytes(inserted);
+		System.arraycopy(deleted, 50, inserted, 30, 100);
+		
+		OpQueue q = new OpQueue();
+		q.offer(new Op(Op.DELETE, deleted.length, deleted));
+		q.offer(new Op(Op.NEXT, kept.length, null));
+		q.offer(new Op(Op.INSERT, inserted.length, inserted));
+		List<Op> ops = new RewindingOpQueue(q).drainTo(new ArrayList<Op>());
+		System.out.println(ops);
+		
+		Assert.assertEquals(7, ops.size());
+		Assert.assertEquals(Op.INSERT, ops.get(2).getOp());
+		Assert.assertEquals(30, ops.get(2).getRun());
+		Assert.assertEquals(-160, ops.get(3).getRun());
+		Assert.assertEquals(Op.NEXT, ops.get(4).getOp());
+		Assert.assertEquals(100, ops.get(4).getRun());
+		Assert.assertEquals(20, ops.get(6).getRun());
+		
+		ByteArrayOutputStream orig = new ByteArrayOutputStream();
+		orig.write(deleted);
+		orig.write(kept);
+		ByteArrayOutputStream target = new ByteArrayOutputStream();
+		target.write(kept);
+		target.write(inserted);
+		
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		new ListOpQueue(ops).apply(new RandomInputStream(orig.toByteArray()), bout);
+		Assert.assertArrayEquals(target.toByteArray(), bout.toByteArray());
+	}
+	
+	@Test
+	public void testLargeLookbehind() throws Exception {
+		Random r = new Random(22);
+		List<byte[]> chunks = new ArrayList<byte[]>();
+		List<Op> ops = new ArrayList<Op>();
+		for(int i = 0; i < 32 * 1024; i++) {
+			byte[] d = new byte[1024];
+			r.nextBytes(d);
+			chunks.add(d);
+			ops.add(new Op(Op.DELETE, d.length, d));
+			ops.add(new Op(Op.NEXT, 1, null));
+			byte[] n = new byte[64];
+			System.arraycopy(chunks.get(r.nextInt(chunks.size())), 500, n, 0, n.length);
+			ops.add(new Op(Op.INSERT, n.length, n));
+		}
+		
+		long start = System.nanoTime();
+		List<Op> rewound = new RewindingOpQueue(new ListOpQueue(ops), 64L * 1024 * 1024, 16, Integer.MAX_VALUE).drainTo(new ArrayList<Op>());
+		long nanos = System.nanoTime() - start;
+		
+		int nexts = 0;
+		for(Op e : rewound)
+			if(e.getOp() == Op.NEXT && e.getRun() == 64)
+				nexts++;
+		System.out.println("32MB lookbehind: " + nexts + " of " + chunks.size() + " inserts rewound in " + nanos / 1000000 + "ms");
+		// the index keeps only the latest block per hash slot, so a few sources are lost
+		Assert.assertTrue(nexts > chunks.size() * 99 / 100);
+	}
 }
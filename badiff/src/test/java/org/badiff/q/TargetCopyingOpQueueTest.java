@@ -0,0 +1,156 @@
+package org.badiff.q;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.badiff.Op;
+import org.badiff.fmt.GdiffFormat;
+import org.badiff.imp.BadiffFileDiff;
+import org.badiff.imp.MemoryDiff;
+import org.badiff.io.ByteBufferRandomInput;
+import org.badiff.io.DefaultSerialization;
+import org.badiff.io.HistoryOutputStream;
+import org.badiff.io.RandomInputStream;
+import org.badiff.p.Pipeline;
+import org.badiff.util.Diffs;
+import org.badiff.util.Serials;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TargetCopyingOpQueueTest {
+
+	private static byte[] orig = new byte[16 * 1024];
+	private static byte[] target;
+
+	static {
+		Random r = new Random(23);
+		r.nextBytes(orig);
+		byte[] repeated = new byte[2048];
+		r.nextBytes(repeated);
+		// the target is the original with the same new block inserted in four places
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for(int i = 0; i < 4; i++) {
+			out.write(orig, i * 4096, 4096);
+			out.write(repeated, 0, repeated.length);
+		}
+		target = out.toByteArray();
+	}
+
+	private static MemoryDiff diff(String pipeline) {
+		return new MemoryDiff(new Pipeline(new ReplaceOpQueue(orig, target)).into(pipeline).outlet());
+	}
+
+	@Test
+	public void testCopiesRepeatedInserts() throws Exception {
+		MemoryDiff plain = diff("sGccruC");
+		MemoryDiff copying = diff("sGccruTC");
+
+		int copies = 0;
+		for(Op e : copying.queue().drainTo(new ArrayList<Op>()))
+			if(e.getOp() == Op.COPY)
+				copies++;
+		int plainSize = Serials.serialize(DefaultSerialization.newInstance(), MemoryDiff.class, plain).length;
+		byte[] serialized = Serials.serialize(DefaultSerialization.newInstance(), MemoryDiff.class, copying);
+		System.out.println(copies + " copies; without: " + plainSize + " bytes, with: " + serialized.length + " bytes");
+		Assert.assertTrue(copies > 0);
+		Assert.assertTrue(serialized.length < plainSize - 4096);
+
+		Assert.assertArrayEquals(target, Diffs.apply(copying, orig));
+		// rewinds cannot be undone, so check undo without them
+		Assert.assertArrayEquals(orig, Diffs.apply(new UndoOpQueue(diff("sGccuTC").queue()), target));
+
+		MemoryDiff read = Serials.deserialize(DefaultSerialization.newInstance(), MemoryDiff.class, serialized);
+		Assert.assertEquals(copying.toString(), read.toString());
+		Assert.assertArrayEquals(target, Diffs.apply(read, orig));
+	}
+
+	@Test
+	public void testHistoryOutputStreamOverlap() throws Exception {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		HistoryOutputStream out = new HistoryOutputStream(bout, 4);
+		out.write("abcdef".getBytes());
+		out.copy(2, 5);
+		Assert.assertEquals("abcdefefefe", new String(bout.toByteArray()));
+		try {
+			out.copy(5, 1);
+			Assert.fail();
+		} catch(IOException expected) {
+		}
+	}
+
+	@Test
+	public void testHistoryOutputStreamSingleBytes() throws Exception {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		HistoryOutputStream out = new HistoryOutputStream(bout, 3000);
+		for(int i = 0; i < 5000; i++)
+			out.write(i % 251);
+		out.copy(2999, 3);
+		byte[] written = bout.toByteArray();
+		Assert.assertEquals(5003, written.length);
+		for(int i = 0; i < 3; i++)
+			Assert.assertEquals(written[5000 - 2999 + i], written[5000 + i]);
+	}
+
+	@Test
+	public void testBadiffFileDiff() throws Exception {
+		File o = File.createTempFile("orig", ".tmp");
+		File t = File.createTempFile("target", ".tmp");
+		File d = File.createTempFile("diff", ".tmp");
+		File applied = File.createTempFile("applied", ".tmp");
+		try {
+			FileUtils.writeByteArrayToFile(o, orig);
+			FileUtils.writeByteArrayToFile(t, target);
+			BadiffFileDiff diff = new BadiffFileDiff(d);
+			diff.diff(o, t, "sGccruTC");
+			Assert.assertTrue((diff.header().getFlags() & BadiffFileDiff.FLAG_TARGET_COPY) != 0);
+			// version 1 readers would misread the copies, so must reject the diff
+			Assert.assertEquals(2, diff.header().getVersion());
+			diff.apply(o, applied);
+			Assert.assertArrayEquals(target, FileUtils.readFileToByteArray(applied));
+		} finally {
+			o.delete();
+			t.delete();
+			d.delete();
+			applied.delete();
+		}
+	}
+
+	@Test
+	public void testGdiffExport() throws Exception {
+		MemoryDiff copying = diff("sGccruTCo");
+		ByteArrayOutputStream gdiff = new ByteArrayOutputStream();
+		new GdiffFormat().exportDiff(copying, new ByteBufferRandomInput(orig), new DataOutputStream(gdiff));
+
+		OpQueue imported = new GdiffFormat().importDiff(new ByteBufferRandomInput(orig), new ByteBufferRandomInput(gdiff.toByteArray()));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		imported.apply(new RandomInputStream(orig), out);
+		Assert.assertArrayEquals(target, out.toByteArray());
+	}
+
+	@Test
+	public void testGdiffExportLongNext() throws Exception {
+		// a NEXT longer than the history, followed by a COPY from its end
+		byte[] orig = new byte[HistoryOutputStream.DEFAULT_WINDOW + 100000];
+		new Random(24).nextBytes(orig);
+		OpQueue q = new OpQueue();
+		q.offer(new Op(Op.NEXT, orig.length, null));
+		q.offer(Op.copy(70000, 5000, null, 0));
+		MemoryDiff copying = new MemoryDiff(q);
+		
+		ByteArrayOutputStream gdiff = new ByteArrayOutputStream();
+		new GdiffFormat().exportDiff(copying, new ByteBufferRandomInput(orig), new DataOutputStream(gdiff));
+		
+		OpQueue imported = new GdiffFormat().importDiff(new ByteBufferRandomInput(orig), new ByteBufferRandomInput(gdiff.toByteArray()));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		imported.apply(new RandomInputStream(orig), out);
+		byte[] expected = Arrays.copyOf(orig, orig.length + 5000);
+		System.arraycopy(orig, orig.length - 70000, expected, orig.length, 5000);
+		Assert.assertArrayEquals(expected, out.toByteArray());
+	}
+}
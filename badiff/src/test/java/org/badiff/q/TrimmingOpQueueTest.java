@@ -0,0 +1,100 @@
+package org.badiff.q;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.badiff.Op;
+import org.badiff.imp.BadiffFileDiff;
+import org.badiff.imp.MemoryDiff;
+import org.badiff.p.Pipeline;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TrimmingOpQueueTest {
+
+	@Test
+	public void testHeaderAndFooter() throws Exception {
+		Random r = new Random(24);
+		byte[] orig = new byte[10000];
+		r.nextBytes(orig);
+		byte[] target = orig.clone();
+		for(int i = 4000; i < 4100; i++)
+			target[i] = (byte) r.nextInt();
+
+		OpQueue q = new TrimmingOpQueue(new ReplaceOpQueue(orig, target));
+		Op e = q.poll();
+		Assert.assertEquals(Op.NEXT, e.getOp());
+		Assert.assertTrue(e.getRun() >= 4000);
+		int middle = 0;
+		Op last = e;
+		for(e = q.poll(); e != null; e = q.poll()) {
+			if(e.getOp() == Op.DELETE)
+				middle += e.getRun();
+			last = e;
+		}
+		Assert.assertEquals(Op.NEXT, last.getOp());
+		Assert.assertTrue(last.getRun() >= 5900);
+		Assert.assertTrue(middle <= 100);
+
+		MemoryDiff diff = new MemoryDiff(new Pipeline(new ReplaceOpQueue(orig, target)).compile("tsGccruC").outlet());
+		Assert.assertArrayEquals(target, apply(diff, orig));
+	}
+
+	@Test
+	public void testEqual() {
+		byte[] orig = new byte[1000];
+		new Random(25).nextBytes(orig);
+		OpQueue q = new TrimmingOpQueue(new ReplaceOpQueue(orig, orig.clone()));
+		Op e = q.poll();
+		Assert.assertEquals(Op.NEXT, e.getOp());
+		Assert.assertEquals(orig.length, e.getRun());
+		Assert.assertNull(q.poll());
+	}
+
+	@Test
+	public void testAppendAndTruncateFiles() throws Exception {
+		Random r = new Random(26);
+		byte[] orig = new byte[8 * 1024 * 1024];
+		r.nextBytes(orig);
+		byte[] appended = new byte[orig.length + 1000];
+		System.arraycopy(orig, 0, appended, 0, orig.length);
+		byte[] truncated = new byte[orig.length - 1000];
+		System.arraycopy(orig, 0, truncated, 0, truncated.length);
+		byte[] middle = orig.clone();
+		middle[orig.length / 2]++;
+
+		File o = File.createTempFile("orig", ".tmp");
+		File t = File.createTempFile("target", ".tmp");
+		File d = File.createTempFile("diff", ".tmp");
+		File applied = File.createTempFile("applied", ".tmp");
+		try {
+			FileUtils.writeByteArrayToFile(o, orig);
+			for(byte[] target : new byte[][] {appended, truncated, middle}) {
+				FileUtils.writeByteArrayToFile(t, target);
+				BadiffFileDiff diff = new BadiffFileDiff(d);
+				long start = System.nanoTime();
+				diff.diff(o, t);
+				long nanos = System.nanoTime() - start;
+				System.out.println(target.length + " byte target: " + d.length() + " byte diff in " + nanos / 1000000 + "ms");
+				Assert.assertTrue(d.length() < 2000);
+
+				diff.apply(o, applied);
+				Assert.assertArrayEquals(target, FileUtils.readFileToByteArray(applied));
+			}
+		} finally {
+			o.delete();
+			t.delete();
+			d.delete();
+			applied.delete();
+		}
+	}
+
+	private static byte[] apply(MemoryDiff diff, byte[] orig) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		diff.apply(new ByteArrayInputStream(orig), out);
+		return out.toByteArray();
+	}
+}
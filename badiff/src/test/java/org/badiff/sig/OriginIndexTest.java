@@ -0,0 +1,167 @@
+package org.badiff.sig;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.badiff.FileDiffs;
+import org.badiff.Op;
+import org.badiff.imp.BadiffFileDiff;
+import org.badiff.io.ByteBufferRandomInput;
+import org.badiff.io.DefaultSerialization;
+import org.badiff.q.OpQueue;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OriginIndexTest {
+	
+	private static byte[] mutate(Random r, byte[] buf, int edits) {
+		byte[] ret = buf;
+		for(int i = 0; i < edits && ret.length > 0; i++) {
+			int pos = r.nextInt(ret.length);
+			int len = Math.min(1 + r.nextInt(256), ret.length - pos);
+			byte[] b;
+			if(r.nextBoolean()) {
+				byte[] ins = new byte[len];
+				r.nextBytes(ins);
+				b = new byte[ret.length + len];
+				System.arraycopy(ret, 0, b, 0, pos);
+				System.arraycopy(ins, 0, b, pos, len);
+				System.arraycopy(ret, pos, b, pos + len, ret.length - pos);
+			} else {
+				b = new byte[ret.length - len];
+				System.arraycopy(ret, 0, b, 0, pos);
+				System.arraycopy(ret, pos + len, b, pos, ret.length - pos - len);
+			}
+			ret = b;
+		}
+		return ret;
+	}
+
+	@Test
+	public void testIndexedDiff() throws Exception {
+		final int SIZE = 1024 * 1024;
+		Random r = new Random(0);
+		byte[] orig = new byte[SIZE];
+		r.nextBytes(orig);
+		
+		OriginIndex index = new OriginIndex(new ByteBufferRandomInput(orig));
+		
+		// round-trip the index
+		ByteArrayOutputStream iout = new ByteArrayOutputStream();
+		index.serialize(DefaultSerialization.newInstance(), iout);
+		System.out.println("index of " + SIZE + " bytes is " + iout.size() + " bytes");
+		index = new OriginIndex();
+		index.deserialize(DefaultSerialization.newInstance(), new ByteArrayInputStream(iout.toByteArray()));
+		
+		File ofile = File.createTempFile("orig", ".tmp");
+		FileUtils.writeByteArrayToFile(ofile, orig);
+		try {
+			for(int i = 0; i < 4; i++) {
+				byte[] target = mutate(r, orig, 16);
+				
+				OpQueue q = new IndexedOpQueue(index, new ByteBufferRandomInput(orig), new ByteBufferRandomInput(target));
+				long next = 0;
+				for(Op e = q.poll(); e != null; e = q.poll())
+					if(e.getOp() == Op.NEXT)
+						next += e.getRun();
+				Assert.assertTrue(next > SIZE - 16 * 1024);
+				
+				File tfile = File.createTempFile("target", ".tmp");
+				FileUtils.writeByteArrayToFile(tfile, target);
+				BadiffFileDiff diff = new BadiffFileDiff(File.createTempFile("diff", ".tmp"));
+				File applied = File.createTempFile("applied", ".tmp");
+				try {
+					long start = System.nanoTime();
+					diff.diff(index, ofile, tfile);
+					System.out.println("indexed-Diffed " + SIZE + " bytes in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms.");
+					
+					diff.apply(ofile, applied);
+					Assert.assertTrue(Arrays.equals(target, FileUtils.readFileToByteArray(applied)));
+				} finally {
+					tfile.delete();
+					diff.delete();
+					applied.delete();
+				}
+			}
+		} finally {
+			ofile.delete();
+		}
+	}
+	
+	@Test
+	public void testRandom() throws Exception {
+		Random r = new Random(1);
+		for(int i = 0; i < 100; i++) {
+			byte[] orig = new byte[r.nextInt(4096)];
+			for(int j = 0; j < orig.length; j++)
+				orig[j] = (byte) r.nextInt(1 + r.nextInt(256));
+			byte[] target = mutate(r, orig, r.nextInt(8));
+			
+			OriginIndex index = new OriginIndex(new ByteBufferRandomInput(orig), 64, 1 + r.nextInt(32), 1 + r.nextInt(8));
+			OpQueue q = new IndexedOpQueue(index, new ByteBufferRandomInput(orig), new ByteBufferRandomInput(target), 64);
+			
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			q.apply(new ByteArrayInputStream(orig), result);
+			Assert.assertTrue(Arrays.equals(target, result.toByteArray()));
+		}
+	}
+	
+	@Test
+	public void testMappedIndex() throws Exception {
+		Random r = new Random(2);
+		byte[] orig = new byte[256 * 1024];
+		r.nextBytes(orig);
+		byte[] target = mutate(r, orig, 8);
+		
+		OriginIndex index = new OriginIndex(new ByteBufferRandomInput(orig));
+		File ifile = File.createTempFile("index", ".tmp");
+		try {
+			index.write(ifile);
+			OriginIndex mapped = OriginIndex.map(ifile);
+			Assert.assertEquals(index.getLength(), mapped.getLength());
+			Assert.assertTrue(Arrays.equals(index.getDigest(), mapped.getDigest()));
+			
+			OpQueue q = new IndexedOpQueue(mapped, new ByteBufferRandomInput(orig), new ByteBufferRandomInput(target));
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			q.apply(new ByteArrayInputStream(orig), result);
+			Assert.assertTrue(Arrays.equals(target, result.toByteArray()));
+		} finally {
+			ifile.delete();
+		}
+	}
+	
+	@Test
+	public void testStaleIndex() throws Exception {
+		Random r = new Random(3);
+		byte[] orig = new byte[64 * 1024];
+		r.nextBytes(orig);
+		OriginIndex index = new OriginIndex(new ByteBufferRandomInput(orig));
+		
+		// same length, different content
+		byte[] changed = orig.clone();
+		changed[100]++;
+		File diff = File.createTempFile("diff", ".tmp");
+		try {
+			new BadiffFileDiff(diff).diff(index, new ByteBufferRandomInput(changed), new ByteBufferRandomInput(orig), BadiffFileDiff.PIPELINE_CODE);
+			Assert.fail();
+		} catch(IllegalArgumentException expected) {
+		} finally {
+			diff.delete();
+		}
+		
+		File o = File.createTempFile("orig", ".tmp");
+		try {
+			FileUtils.writeByteArrayToFile(o, changed);
+			FileDiffs.diff(index, o, o);
+			Assert.fail();
+		} catch(IllegalArgumentException expected) {
+		} finally {
+			o.delete();
+		}
+	}
+}
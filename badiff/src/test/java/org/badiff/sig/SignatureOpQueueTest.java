@@ -0,0 +1,113 @@
+package org.badiff.sig;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.badiff.Op;
+import org.badiff.io.DefaultSerialization;
+import org.badiff.io.RandomInputStream;
+import org.badiff.q.OpQueue;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SignatureOpQueueTest {
+
+	@Test
+	public void testSignatureDiff() throws Exception {
+		final int SIZE = 256 * 1024;
+		final int BLOCK = 1024;
+		
+		Random r = new Random(0);
+		byte[] orig = new byte[SIZE];
+		r.nextBytes(orig);
+		
+		// insert some bytes, and move a block range to the front
+		ByteArrayOutputStream t = new ByteArrayOutputStream();
+		t.write(orig, 100 * BLOCK, 10 * BLOCK);
+		t.write(orig, 0, 5000);
+		t.write(new byte[] {1, 2, 3});
+		t.write(orig, 5000, SIZE - 5000 - 7);
+		byte[] target = t.toByteArray();
+		
+		Signature sig = new Signature(new ByteArrayInputStream(orig), BLOCK);
+		
+		// round-trip the signature
+		ByteArrayOutputStream sout = new ByteArrayOutputStream();
+		sig.serialize(DefaultSerialization.newInstance(), sout);
+		System.out.println("signature of " + SIZE + " bytes is " + sout.size() + " bytes");
+		sig = new Signature();
+		sig.deserialize(DefaultSerialization.newInstance(), new ByteArrayInputStream(sout.toByteArray()));
+		Assert.assertEquals(SIZE, sig.getLength());
+		Assert.assertEquals(SIZE / BLOCK, sig.getBlockCount());
+		
+		OpQueue q = new SignatureOpQueue(new ByteArrayInputStream(target), sig);
+		long inserted = 0;
+		for(Op e = q.poll(); e != null; e = q.poll())
+			if(e.getOp() == Op.INSERT)
+				inserted += e.getRun();
+		System.out.println("inserted " + inserted + " of " + target.length + " bytes");
+		Assert.assertTrue(inserted < 4 * BLOCK);
+		
+		q = new SignatureOpQueue(new ByteArrayInputStream(target), sig);
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		q.apply(new RandomInputStream(orig), result);
+		Assert.assertTrue(Arrays.equals(target, result.toByteArray()));
+	}
+	
+	@Test
+	public void testRandom() throws Exception {
+		Random r = new Random(1);
+		for(int i = 0; i < 100; i++) {
+			int block = 1 + r.nextInt(64);
+			byte[] orig = new byte[r.nextInt(1024)];
+			for(int j = 0; j < orig.length; j++)
+				orig[j] = (byte) r.nextInt(4);
+			byte[] target = new byte[r.nextInt(1024)];
+			for(int j = 0; j < target.length; j++)
+				target[j] = (byte) r.nextInt(4);
+			
+			Signature sig = new Signature(new ByteArrayInputStream(orig), block);
+			OpQueue q = new SignatureOpQueue(new ByteArrayInputStream(target), sig);
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			q.apply(new RandomInputStream(orig), result);
+			Assert.assertTrue(Arrays.equals(target, result.toByteArray()));
+		}
+	}
+	
+	@Test
+	public void testSharedSignature() throws Exception {
+		Random r = new Random(8);
+		final byte[] orig = new byte[64 * 1024];
+		r.nextBytes(orig);
+		final byte[] target = orig.clone();
+		target[1000]++;
+		
+		for(int round = 0; round < 20; round++) {
+			// a fresh signature is indexed by whichever thread finds first
+			final Signature sig = new Signature(new ByteArrayInputStream(orig), 1024);
+			final Throwable[] failed = new Throwable[1];
+			Thread[] threads = new Thread[4];
+			for(int i = 0; i < threads.length; i++) {
+				threads[i] = new Thread() {
+					@Override
+					public void run() {
+						try {
+							ByteArrayOutputStream result = new ByteArrayOutputStream();
+							new SignatureOpQueue(new ByteArrayInputStream(target), sig).apply(new RandomInputStream(orig), result);
+							Assert.assertTrue(Arrays.equals(target, result.toByteArray()));
+						} catch(Throwable t) {
+							failed[0] = t;
+						}
+					}
+				};
+				threads[i].start();
+			}
+			for(Thread t : threads)
+				t.join();
+			if(failed[0] != null)
+				throw new AssertionError(failed[0]);
+		}
+	}
+}
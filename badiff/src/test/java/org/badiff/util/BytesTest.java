@@ -0,0 +1,47 @@
+package org.badiff.util;
+
+import java.util.Random;
+
+import org.badiff.io.ByteBufferRandomInput;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BytesTest {
+
+	@Test
+	public void testPrefixAndSuffix() {
+		Random r = new Random(24);
+		for(int len = 0; len < 600; len++) {
+			byte[] a = new byte[len + 5];
+			r.nextBytes(a);
+			byte[] b = new byte[len + 3];
+			System.arraycopy(a, 2, b, 0, len);
+			Assert.assertEquals(len, Bytes.prefix(a, 2, b, 0, len));
+			Assert.assertEquals(len, Bytes.suffix(a, len + 2, b, len, len));
+			if(len == 0)
+				continue;
+			int at = r.nextInt(len);
+			b[at]++;
+			Assert.assertEquals(at, Bytes.prefix(a, 2, b, 0, len));
+			Assert.assertEquals(len - at - 1, Bytes.suffix(a, len + 2, b, len, len));
+		}
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testPrefixOutOfBounds() {
+		Bytes.prefix(new byte[1024], 0, new byte[1024], 768, 512);
+	}
+
+	@Test
+	public void testRandomInputs() throws Exception {
+		Random r = new Random(25);
+		byte[] a = new byte[3 * Bytes.BLOCK + 17];
+		r.nextBytes(a);
+		byte[] b = a.clone();
+		b[Bytes.BLOCK + 5]++;
+		b[2 * Bytes.BLOCK + 9]++;
+
+		Assert.assertEquals(Bytes.BLOCK + 5, Bytes.prefix(new ByteBufferRandomInput(a), new ByteBufferRandomInput(b), a.length));
+		Assert.assertEquals(Bytes.BLOCK + 7, Bytes.suffix(new ByteBufferRandomInput(a), a.length, new ByteBufferRandomInput(b), b.length, a.length));
+	}
+}